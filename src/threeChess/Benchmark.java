@@ -0,0 +1,400 @@
+package threeChess;
+
+import threeChess.agents.AgentBrutus;
+import threeChess.agents.GameLogic.CombinedGameConstants;
+import threeChess.agents.GameLogic.GameConstants;
+import threeChess.agents.GameLogic.GameState;
+import threeChess.agents.TranspositionTable;
+import threeChess.agents.strategy.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * Measures the speed of the game logic and the search strategies, so that
+ * changes to them can be checked for regressions in nodes per second.
+ *
+ * The positions are the stored positions of {@link Perft}, which do not depend on the
+ * move generation, so that the node counts can be compared between different versions of the code.
+ *
+ * @author Paddy Lamont, 22494652
+ */
+public class Benchmark {
+
+  /** The number of entries in the transposition tables used by the strategies. **/
+  private static final int TRANSPOSITION_TABLE_CAPACITY = 1 << 20;
+  /** The time given to each strategy to search each position in the equal time benchmarks. **/
+  private static final long EQUAL_TIME_MILLIS = 250;
+  /** The maximum ply that the strategies search to in the equal time benchmarks. **/
+  private static final int EQUAL_TIME_MAX_PLY = 12;
+  /** The ply that maximax searches to in the parallel root move benchmarks. **/
+  private static final int PARALLEL_ROOT_PLY = 4;
+  /** The time that each player has in every position of the Lazy SMP benchmarks, of which Brutus spends a twentieth per move. **/
+  private static final int LAZY_SMP_TIME_MILLIS = 5000;
+  /** The ply that PVS deepens to in the aspiration window benchmarks. **/
+  private static final int ASPIRATION_MAX_PLY = 5;
+  /** The aspiration windows to compare in the aspiration window benchmarks, where 0 disables them. **/
+  private static final int[] ASPIRATION_WINDOWS = {0, 64, 256, 1024, 4096};
+  /** The time given to the parallel MCTS strategies to search each position in the scaling benchmarks. **/
+  private static final long MCTS_SCALING_MILLIS = 100;
+
+  private final GameConstants constants;
+  private final List<GameState> positions;
+  private final int reps;
+
+  public Benchmark(int reps) {
+    this.constants = CombinedGameConstants.START_GAME;
+    this.positions = loadPositions(constants);
+    this.reps = reps;
+  }
+
+  /** Runs all of the benchmarks, and prints their results. **/
+  public void run() {
+    System.out.println("Benchmarking " + positions.size() + " positions, taking the best of " + reps + " reps\n");
+    benchmarkMakeUnmake(4, true);
+    benchmarkMakeUnmake(4, false);
+    benchmarkStrategy("Maximax", MaximaxStrat::new, 5, false);
+    benchmarkStrategy("Maximax-TT", MaximaxStrat::new, 5, true);
+    benchmarkStrategy("Quiescence", QuiescenceStrat::new, 4, false);
+    benchmarkStrategy("RQ", RestrictedQuiescenceStrat::new, 3, false);
+    benchmarkStrategy("Minimax", MinimaxStrat::new, 4, false);
+    benchmarkStrategy("PVS", PrincipalVariationSearchStrat::new, 4, false);
+    benchmarkStrategy("BRS", BestReplySearchStrat::new, 5, false);
+    benchmarkStrategy("Paranoid", ParanoidStrat::new, 5, false);
+    benchmarkStrategy("MaxN", MaxNStrat::new, 4, false);
+    benchmarkStrategy("MCTS", MctsStrat::new, 2000, false);
+
+    int workers = Math.max(2, Runtime.getRuntime().availableProcessors());
+    System.out.println("\nMaximax with the root moves split between " + workers + " workers\n");
+    benchmarkParallelRoot(PARALLEL_ROOT_PLY, workers);
+
+    System.out.println("\nEqual time of " + EQUAL_TIME_MILLIS + " ms per position\n");
+    benchmarkEqualTime("Maximax", MaximaxStrat::new);
+    benchmarkEqualTime("MaxN", MaxNStrat::new);
+    benchmarkEqualTime("Paranoid", ParanoidStrat::new);
+    benchmarkEqualTime("Paranoid-NoLMR", (constants, ply) -> new ParanoidStrat(constants, ply, SearchReductions.NONE));
+    benchmarkEqualTime("PVS", PrincipalVariationSearchStrat::new);
+    benchmarkEqualTime("PVS-NoLMR", (constants, ply) -> new PrincipalVariationSearchStrat(constants, ply, SearchReductions.NONE));
+    benchmarkEqualTime("BRS", BestReplySearchStrat::new);
+    benchmarkEqualTime("BRS-NoLMR", (constants, ply) -> new BestReplySearchStrat(constants, ply, SearchReductions.NONE));
+
+    int helperThreads = Math.max(2, Runtime.getRuntime().availableProcessors() - 1);
+    System.out.println("\nLazy SMP Brutus with " + LAZY_SMP_TIME_MILLIS + " ms left in each position\n");
+    benchmarkLazySmp(0);
+    benchmarkLazySmp(1);
+    benchmarkLazySmp(helperThreads);
+
+    System.out.println("\nPVS aspiration windows, deepening to " + ASPIRATION_MAX_PLY + " ply\n");
+    for (int window : ASPIRATION_WINDOWS) {
+      benchmarkAspirationWindow(window);
+    }
+
+    System.out.println("\nParallel MCTS scaling, " + MCTS_SCALING_MILLIS + " ms per position\n");
+    benchmarkMctsScaling("MCTS-Tree", threads -> new TreeParallelMctsStrat(constants, threads),
+        TreeParallelMctsStrat::getIterationsRun);
+    benchmarkMctsScaling("MCTS-Root", threads -> new RootParallelMctsStrat(constants, threads),
+        RootParallelMctsStrat::getIterationsRun);
+  }
+
+  /**
+   * Benchmarks making and unmaking every move to the given {@param depth} from all of the positions.
+   * The hash is only kept up to date if {@param hashing} is true, so that the cost of hashing can be measured.
+   */
+  private void benchmarkMakeUnmake(int depth, boolean hashing) {
+    GameState state = new GameState(constants, hashing);
+    int[][] moveBuffers = new int[depth][GameConstants.maxAvailableMoves];
+
+    long bestNanos = Long.MAX_VALUE;
+    long nodes = 0;
+    long hashes = 0;
+    for (int rep = 0; rep < reps; ++rep) {
+      long startMoves = state.totalMoves;
+      long start = System.nanoTime();
+      for (GameState position : positions) {
+        state.copyFrom(position);
+        hashes ^= makeUnmakeAll(state, moveBuffers, depth);
+      }
+      bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+      nodes = state.totalMoves - startMoves;
+    }
+    printResult("MakeUnmake-" + depth + (hashing ? "" : "-NoHash"), nodes, bestNanos);
+
+    // We print the hashes so that the JIT cannot remove the work.
+    System.out.println("  (hash checksum " + Long.toHexString(hashes) + ")");
+  }
+
+  /** @return the XOR of the hashes of all the states reached by making every move to {@param depth}. **/
+  private static long makeUnmakeAll(GameState state, int[][] moveBuffers, int depth) {
+    int[] moves = moveBuffers[depth - 1];
+    int count = state.computeAvailableMoves(moves);
+
+    long hashes = 0;
+    for (int index = 0; index < count; ++index) {
+      int move = moves[index];
+      long undo = state.makeMove(move);
+      hashes ^= state.hash;
+      if (depth > 1 && state.gameOverPacked == 0) {
+        hashes ^= makeUnmakeAll(state, moveBuffers, depth - 1);
+      }
+      state.unmakeMove(move, undo);
+    }
+    return hashes;
+  }
+
+  /**
+   * Benchmarks the strategy generated by {@param generator} searching to the given {@param ply} from all of
+   * the positions, optionally using a transposition table if {@param useTable} is true.
+   */
+  private void benchmarkStrategy(
+      String name, BiFunction<GameConstants, Integer, MoveStrat> generator, int ply, boolean useTable) {
+
+    MoveStrat strategy = generator.apply(constants, ply);
+    TranspositionTable table = (useTable ? new TranspositionTable(TRANSPOSITION_TABLE_CAPACITY) : null);
+    strategy.setTranspositionTable(table);
+    benchmarkStrategy(name + "-" + ply, strategy, table);
+  }
+
+  /**
+   * Benchmarks {@param strategy} searching from all of the positions, clearing {@param table}
+   * before each search if it is not null.
+   */
+  private void benchmarkStrategy(String name, MoveStrat strategy, TranspositionTable table) {
+    long bestNanos = Long.MAX_VALUE;
+    long nodes = 0;
+    for (int rep = 0; rep < reps; ++rep) {
+      long startMoves = strategy.getTotalMoves();
+      long start = System.nanoTime();
+      for (GameState position : positions) {
+        // Each search starts with an empty table, as it would in a game.
+        if (table != null) {
+          table.newSearch();
+        }
+        strategy.decideMove(position);
+      }
+      bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+      nodes = strategy.getTotalMoves() - startMoves;
+    }
+    printResult(name, nodes, bestNanos);
+  }
+
+  /**
+   * Benchmarks maximax to the given {@param ply} with its root moves split between {@param workers} workers by
+   * {@link ParallelRootStrat}, against maximax on one thread. The moves they decide must have the same utility,
+   * as they both select randomly between the same best moves. Maximax stops at the first move that wins instantly,
+   * whereas the workers evaluate every root move, so it searches fewer nodes from positions where a move wins.
+   */
+  private void benchmarkParallelRoot(int ply, int workers) {
+    ForkJoinPool pool = new ForkJoinPool(workers);
+    try {
+      MaximaxStrat maximax = new MaximaxStrat(constants, ply);
+      ParallelRootStrat parallelRoot = new ParallelRootStrat(constants, ply, MaximaxStrat::new, workers, pool);
+      benchmarkStrategy("Maximax-" + ply, maximax, null);
+      benchmarkStrategy("ParallelRoot-" + ply + "-" + workers + "W", parallelRoot, null);
+
+      // Evaluate the utilities of the moves decided by both on a separate state, so that the searches are unaffected.
+      MaximaxStrat evaluator = new MaximaxStrat(constants, ply);
+      GameState state = new GameState(constants);
+      for (int index = 0; index < positions.size(); ++index) {
+        GameState position = positions.get(index);
+        state.copyFrom(position);
+        int maximaxUtility = evaluator.evaluateRootMove(state, maximax.decideMove(position));
+        int parallelRootUtility = evaluator.evaluateRootMove(state, parallelRoot.decideMove(position));
+        if (parallelRootUtility != maximaxUtility)
+          throw new IllegalStateException(
+              "position " + index + ": ParallelRootStrat decided a move with utility " + parallelRootUtility
+              + ", but maximax decided a move with utility " + maximaxUtility
+          );
+      }
+      System.out.println("  (moves with the same utility were decided from every position)");
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Benchmarks the depth that the strategies generated by {@param generator} can search to from
+   * each of the positions in {@link #EQUAL_TIME_MILLIS}, by searching one ply deeper at a time
+   * until the time runs out. The ply that is stopped part way through is not counted.
+   */
+  private void benchmarkEqualTime(String name, BiFunction<GameConstants, Integer, MoveStrat> generator) {
+    MoveStrat[] strategies = new MoveStrat[EQUAL_TIME_MAX_PLY];
+    for (int ply = 1; ply <= EQUAL_TIME_MAX_PLY; ++ply) {
+      strategies[ply - 1] = generator.apply(constants, ply);
+    }
+
+    ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    try {
+      int plySum = 0;
+      long nodes = 0;
+      long totalNanos = 0;
+      for (GameState position : positions) {
+        long startMoves = getTotalMoves(strategies);
+        long start = System.nanoTime();
+        ScheduledFuture<?> stopTask = timer.schedule(() -> {
+          for (MoveStrat strategy : strategies) {
+            strategy.stop();
+          }
+        }, EQUAL_TIME_MILLIS, TimeUnit.MILLISECONDS);
+
+        // Search one ply deeper at a time until the strategies are stopped.
+        try {
+          for (MoveStrat strategy : strategies) {
+            strategy.decideMove(position);
+            plySum += 1;
+          }
+        } catch (MoveStrat.SearchStoppedException e) {
+          // The time for this position has run out.
+        }
+
+        // Wait for the strategies to be stopped, so that they can be resumed for the next position.
+        if (!stopTask.cancel(false)) {
+          try {
+            stopTask.get();
+          } catch (Exception e) {
+            throw new RuntimeException("Unable to stop the strategies", e);
+          }
+        }
+        for (MoveStrat strategy : strategies) {
+          strategy.resume();
+        }
+        totalNanos += System.nanoTime() - start;
+        nodes += getTotalMoves(strategies) - startMoves;
+      }
+
+      double meanPly = (double) plySum / positions.size();
+      System.out.printf("%-16s %5.2f mean ply %,14d nodes/s%n", name, meanPly, (long) (nodes / (totalNanos / 1_000_000_000.0)));
+    } finally {
+      timer.shutdown();
+    }
+  }
+
+  /**
+   * Benchmarks the mean ply and nodes per second that a Lazy SMP Brutus agent with {@param helperThreads} helper
+   * threads reaches from each of the positions. The same agent plays every position, starting with the start of
+   * the game, so that it gives itself the same time for each of them as it would at the start of a game.
+   */
+  private void benchmarkLazySmp(int helperThreads) {
+    AgentBrutus agent = AgentBrutus.createLazySMP(helperThreads);
+    List<Board> boards = Perft.loadPositions(LAZY_SMP_TIME_MILLIS);
+    long startMoves = agent.getTotalMoves();
+    long start = System.nanoTime();
+    for (Board board : boards) {
+      agent.playMove(board);
+    }
+    long totalNanos = System.nanoTime() - start;
+    long nodes = agent.getTotalMoves() - startMoves;
+    agent.finalBoard(boards.get(boards.size() - 1));
+
+    double meanPly = (double) agent.plySum / agent.moveCount;
+    System.out.printf(
+        "%-16s %5.2f mean ply %,14d nodes/s %,8d ms per move%n", "LazySMP-" + helperThreads, meanPly,
+        (long) (nodes / (totalNanos / 1_000_000_000.0)), totalNanos / 1_000_000 / boards.size()
+    );
+  }
+
+  /**
+   * Benchmarks PVS using the aspiration {@param window} by deepening one ply at a time from each of the positions,
+   * giving each ply the results of the previous ply as iterative deepening does. The counters of how often the
+   * utility fell inside the initial window, and how many re-searches were needed, are printed to tune the window.
+   */
+  private void benchmarkAspirationWindow(int window) {
+    long bestNanos = Long.MAX_VALUE;
+    long nodes = 0;
+    long searches = 0;
+    long hits = 0;
+    long researches = 0;
+    for (int rep = 0; rep < reps; ++rep) {
+      nodes = searches = hits = researches = 0;
+      long start = System.nanoTime();
+      for (GameState position : positions) {
+        MoveStrat previous = null;
+        for (int ply = 1; ply <= ASPIRATION_MAX_PLY; ++ply) {
+          PrincipalVariationSearchStrat strategy = new PrincipalVariationSearchStrat(constants, ply, window);
+          strategy.setPreviousSearch(previous);
+          strategy.decideMove(position);
+          searches += strategy.getAspirationSearches();
+          hits += strategy.getAspirationHits();
+          researches += strategy.getAspirationResearches();
+          nodes += strategy.getTotalMoves();
+          previous = strategy;
+        }
+      }
+      bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+    }
+    printResult("PVS-Asp-" + window, nodes, bestNanos);
+    System.out.printf("  (%d of %d inside the window, %d re-searches)%n", hits, searches, researches);
+  }
+
+  /**
+   * Benchmarks the play outs per second of the parallel MCTS strategies generated by {@param generator}, for each
+   * power of two number of threads up to the number of available processors, and then the number of processors.
+   * The play outs are counted using {@param iterationsRun}, as the play outs vary in length.
+   */
+  private <S extends MoveStrat> void benchmarkMctsScaling(
+      String name, IntFunction<S> generator, ToIntFunction<S> iterationsRun) {
+
+    // Search every position once before timing anything, as otherwise the single thread
+    // rate that the others are compared against would include compiling the search.
+    S warmUpStrategy = generator.apply(1);
+    for (GameState position : positions) {
+      warmUpStrategy.setDeadline(System.nanoTime() + MCTS_SCALING_MILLIS * 1_000_000);
+      warmUpStrategy.decideMove(position);
+    }
+
+    int maxThreads = Runtime.getRuntime().availableProcessors();
+    double singleThreadRate = 0;
+    for (int threads = 1; threads <= maxThreads; threads = (threads == maxThreads ? threads + 1 : Math.min(2 * threads, maxThreads))) {
+      S strategy = generator.apply(threads);
+
+      long playouts = 0;
+      long start = System.nanoTime();
+      for (GameState position : positions) {
+        strategy.setDeadline(System.nanoTime() + MCTS_SCALING_MILLIS * 1_000_000);
+        strategy.decideMove(position);
+        playouts += iterationsRun.applyAsInt(strategy);
+      }
+      double playoutsPerSecond = playouts / ((System.nanoTime() - start) / 1_000_000_000.0);
+      if (threads == 1) {
+        singleThreadRate = playoutsPerSecond;
+      }
+      System.out.printf(
+          "%-16s %3d threads %,12d playouts/s %6.2fx%n",
+          name, threads, (long) playoutsPerSecond, playoutsPerSecond / singleThreadRate
+      );
+    }
+  }
+
+  /** @return the total number of moves made by all of the {@param strategies}. **/
+  private static long getTotalMoves(MoveStrat[] strategies) {
+    long totalMoves = 0;
+    for (MoveStrat strategy : strategies) {
+      totalMoves += strategy.getTotalMoves();
+    }
+    return totalMoves;
+  }
+
+  /** Prints the number of nodes and the nodes per second achieved by a benchmark. **/
+  private static void printResult(String name, long nodes, long nanos) {
+    long nodesPerSecond = (long) (nodes / (nanos / 1_000_000_000.0));
+    System.out.printf("%-20s %,14d nodes %,10d ms %,14d nodes/s%n", name, nodes, nanos / 1_000_000, nodesPerSecond);
+  }
+
+  /** @return the states of the stored positions of {@link Perft}. **/
+  private static List<GameState> loadPositions(GameConstants constants) {
+    List<GameState> positions = new ArrayList<>();
+    for (Board board : Perft.loadPositions(0)) {
+      GameState position = new GameState(constants);
+      position.copyFrom(board);
+      positions.add(position);
+    }
+    return positions;
+  }
+}
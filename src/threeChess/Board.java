@@ -1,7 +1,15 @@
 package threeChess;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Main class for representing game state.
@@ -9,23 +17,54 @@ import java.util.*;
  * or null is free. It also records previous moves, 
  * as well as whose move it is, and which pieces have been 
  * captured by which player.
+ * The pieces, captures and remaining times are stored in arrays indexed by
+ * the ordinals of positions and colours, as they are read very often.
  * **/
 public class Board implements Cloneable, Serializable {
   
   /** Serial version UID for Board serialization and storage**/
   private static final long serialVersionUID = -8547775276050612530L;
-  /** A map from board positions to the pieces at that position **/
-  private HashMap<Position,Piece> board;
+  /**
+   * The fields of serialized boards, which are kept the same as when the pieces, captures and times were stored in maps,
+   * so that boards serialized before they were stored in arrays can still be read. They are converted by writeObject and readObject.
+   * **/
+  private static final ObjectStreamField[] serialPersistentFields = {
+      new ObjectStreamField("board", HashMap.class),
+      new ObjectStreamField("gameOver", boolean.class),
+      new ObjectStreamField("turn", Colour.class),
+      new ObjectStreamField("history", ArrayList.class),
+      new ObjectStreamField("captured", HashMap.class),
+      new ObjectStreamField("timeLeft", HashMap.class)
+  };
+  /** The version of the binary format written by writeTo, which is written first so that old boards can still be read **/
+  private static final int FORMAT_VERSION = 1;
+  /** The most pieces one player can capture, which is all of the pieces of the other two players **/
+  private static final int MAX_CAPTURED = 32;
+  /** All of the positions on the board, cached as Position.values() creates a new array every call **/
+  private static final Position[] POSITIONS = Position.values();
+  /** All of the colours, cached as Colour.values() creates a new array every call **/
+  private static final Colour[] COLOURS = Colour.values();
+  /** The steps of each piece type, indexed by the ordinal of the type, cached as PieceType.getSteps() creates new arrays every call **/
+  private static final Direction[][][] PIECE_STEPS = new Direction[PieceType.values().length][][];
+  static {
+    for(PieceType type : PieceType.values()) PIECE_STEPS[type.ordinal()] = type.getSteps();
+  }
+  /** The piece at each position on the board, indexed by the ordinal of the position, or null if it is free **/
+  private Piece[] board;
   /**A flag that is true if and only if a King has been captured**/
   private boolean gameOver = false;
   /**The player whose turn it is**/
   private Colour turn = Colour.BLUE;//Blue goes first
-  /**The moves taken so far, represented as an array of two positions, the start and end of the move**/
-  private ArrayList<Position[]> history;//can only be changed by taking moves
-  /**A map indicating which player has taken which piece, to support alternative scoring methods**/
-  private HashMap<Colour,ArrayList<Piece>> captured;
-  /**A Map representing the remaining time allowed for each player, in milliseconds**/
-  private HashMap<Colour,Integer> timeLeft;
+  /**The moves taken so far, represented as an array of two positions, the start and end of the move, which may be shared with clones**/
+  private MoveHistory history;//can only be changed by taking moves
+  /**The number of moves in history that were taken on this board**/
+  private int historyLength;
+  /**The pieces taken by each player, indexed by the ordinal of their colour, to support alternative scoring methods**/
+  private ArrayList<Piece>[] captured;
+  /**The remaining time allowed for each player, indexed by the ordinal of their colour, in milliseconds**/
+  private int[] timeLeft;
+  /**The legal moves of the player whose turn it is, or null if they have not been generated since the last move**/
+  private transient List<Position[]> legalMoves;
 
   /**
    * Initialises the board, placing all pieces at their initial position.
@@ -33,27 +72,38 @@ public class Board implements Cloneable, Serializable {
    * @param time the number of milliseconds each player has in total for the entire game.
    * **/
   public Board(int time){
-    board = new HashMap<Position,Piece>();
+    board = new Piece[POSITIONS.length];
     try{
-      for(Colour c: Colour.values()){
-        board.put(Position.get(c,0,0),new Piece(PieceType.ROOK,c)); board.put(Position.get(c,0,7), new Piece(PieceType.ROOK,c));
-        board.put(Position.get(c,0,1),new Piece(PieceType.KNIGHT,c)); board.put(Position.get(c,0,6), new Piece(PieceType.KNIGHT,c));
-        board.put(Position.get(c,0,2),new Piece(PieceType.BISHOP,c)); board.put(Position.get(c,0,5), new Piece(PieceType.BISHOP,c));
-        board.put(Position.get(c,0,3),new Piece(PieceType.QUEEN,c)); board.put(Position.get(c,0,4), new Piece(PieceType.KING,c));
+      for(Colour c: COLOURS){
+        put(Position.get(c,0,0),new Piece(PieceType.ROOK,c)); put(Position.get(c,0,7), new Piece(PieceType.ROOK,c));
+        put(Position.get(c,0,1),new Piece(PieceType.KNIGHT,c)); put(Position.get(c,0,6), new Piece(PieceType.KNIGHT,c));
+        put(Position.get(c,0,2),new Piece(PieceType.BISHOP,c)); put(Position.get(c,0,5), new Piece(PieceType.BISHOP,c));
+        put(Position.get(c,0,3),new Piece(PieceType.QUEEN,c)); put(Position.get(c,0,4), new Piece(PieceType.KING,c));
         for(int i = 0; i<8; i++){
-          board.put(Position.get(c,1,i), new Piece(PieceType.PAWN,c));
+          put(Position.get(c,1,i), new Piece(PieceType.PAWN,c));
         }
       }
     }catch(ImpossiblePositionException e){}//no impossible positions in this code
-    history = new ArrayList<Position[]>();
-    captured = new HashMap<Colour,ArrayList<Piece>>();
-    timeLeft = new HashMap<Colour,Integer>();
-    for(Colour c: Colour.values()){
-      captured.put(c,new ArrayList<>());
-      timeLeft.put(c,time);
+    history = new MoveHistory(64);
+    captured = newCapturedLists();
+    timeLeft = new int[COLOURS.length];
+    for(Colour c: COLOURS){
+      captured[c.ordinal()] = new ArrayList<>();
+      timeLeft[c.ordinal()] = time;
     }
   }
 
+  /** @return an array to hold the list of pieces captured by each player. **/
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static ArrayList<Piece>[] newCapturedLists() {
+    return (ArrayList<Piece>[]) new ArrayList[COLOURS.length];
+  }
+
+  /** Places {@param piece} at {@param position}, or empties the position if {@param piece} is null. **/
+  private void put(Position position, Piece piece) {
+    board[position.ordinal()] = piece;
+  }
+
   /** @return whether in manual mode, the legal moves should be displayed on the board. **/
   public boolean displayLegalMoves() {
     return true;
@@ -68,8 +118,9 @@ public class Board implements Cloneable, Serializable {
    * **/
   public Set<Position> getPositions(Colour player){
     HashSet<Position> positions = new HashSet<Position>();
-    for(Position p : Position.values()){
-      if(board.get(p) != null && board.get(p).getColour()==player)
+    for(Position p : POSITIONS){
+      Piece piece = board[p.ordinal()];
+      if(piece != null && piece.getColour()==player)
         positions.add(p);
     }
     return positions;
@@ -77,7 +128,7 @@ public class Board implements Cloneable, Serializable {
 
   /** @return a set of all the pieces captured by {@param player}. **/
   public List<Piece> getCaptured(Colour player) {
-    return new ArrayList<>(captured.get(player));
+    return new ArrayList<>(captured[player.ordinal()]);
   }
 
   /**
@@ -86,7 +137,7 @@ public class Board implements Cloneable, Serializable {
    * @return the piece at that position or null, if the position is vacant.
    * **/
   public Piece getPiece(Position position){
-    return board.get(position);
+    return board[position.ordinal()];
   }
   
   /**
@@ -101,18 +152,7 @@ public class Board implements Cloneable, Serializable {
    * @throws ImpossiblePositionException if the step takes piece off the board.
    * **/
   public Position step(Piece piece, Direction[] step, Position current) throws ImpossiblePositionException{
-    boolean reverse = false;
-    for(Direction d: step){
-      if((piece.getColour()!=current.getColour() && piece.getType() == PieceType.PAWN) || reverse){//reverse directions for knights
-        d = d.reverse();
-      }
-      Position next = current.neighbour(d);
-      if(next.getColour()!= current.getColour()){//need to reverse directions when switching between sections of the board
-        reverse=true;
-      }
-      current = next;
-    }
-    return current;
+    return step(piece, step, current, false);
   }
 
   /**
@@ -129,16 +169,39 @@ public class Board implements Cloneable, Serializable {
    * @throws ImpossiblePositionException if the step takes piece off the board.
    * **/
   public Position step(Piece piece, Direction[] step, Position current, boolean reverse) throws ImpossiblePositionException{
+    Position end = stepOrNull(piece, step, current, reverse);
+    if(end == null) throw new ImpossiblePositionException("Moved off board");
+    return end;
+  }
+
+  /**
+   * Performs one step of a move in the same way as {@link #step(Piece, Direction[], Position)},
+   * but returns null instead of throwing an exception if the step takes the piece off the board.
+   * @param piece the piece being moved
+   * @param step an array of the direction sequence in the step
+   * @param current the starting position of the step.
+   * @return the position at the end of the step, or null if the step takes the piece off the board.
+   * **/
+  public Position stepOrNull(Piece piece, Direction[] step, Position current){
+    return stepOrNull(piece, step, current, false);
+  }
+
+  /**
+   * Performs one step of a move in the same way as {@link #step(Piece, Direction[], Position, boolean)},
+   * but returns null instead of throwing an exception if the step takes the piece off the board.
+   * @param piece the piece being moved
+   * @param step an array of the direction sequence in the step
+   * @param current the starting position of the step.
+   * @param reverse whether the steps out to be reversed (if the piece crosses board section).
+   * @return the position at the end of the step, or null if the step takes the piece off the board.
+   * **/
+  public Position stepOrNull(Piece piece, Direction[] step, Position current, boolean reverse){
     for(Direction d: step){
       if((piece.getColour()!=current.getColour() && piece.getType() == PieceType.PAWN) || reverse){//reverse directions for knights
-        switch(d){
-          case FORWARD: d = Direction.BACKWARD; break;
-          case BACKWARD: d = Direction.FORWARD; break;
-          case LEFT: d = Direction.RIGHT; break;
-          case RIGHT: d = Direction.LEFT; break;
-        }
+        d = d.reverse();
       }
-      Position next = current.neighbour(d);
+      Position next = current.neighbourOrNull(d);
+      if(next == null) return null;//stepped off the board
       if(next.getColour()!= current.getColour()){//need to reverse directions when switching between sections of the board
         reverse=true;
       }
@@ -172,54 +235,48 @@ public class Board implements Cloneable, Serializable {
     Colour mCol =mover.getColour();
     if(mCol!=turn) return false;//it must be your turn
     if(target!= null && mCol==target.getColour())return false; //you can't take your own piece
-    Direction[][] steps = mover.getType().getSteps();
+    Direction[][] steps = PIECE_STEPS[mover.getType().ordinal()];
     switch(mover.getType()){
       case PAWN://note, there is no two step first move
         for(int i = 0; i<steps.length; i++){
-          try{
-            if(end == step(mover,steps[i],start) && 
-                ((target==null && i==0) // 1 step forward, not taking
-                 || (target==null && i==1 // 2 steps forward, 
-                   && start.getColour()==mCol && start.getRow()==1 //must be in initial position
-                   && board.get(Position.get(mCol,2,start.getColumn()))==null)//and can't jump a piece 
-                 || (target!=null && i>1)//or taking diagonally
-                )
+          if(end == stepOrNull(mover,steps[i],start) && 
+              ((target==null && i==0) // 1 step forward, not taking
+               || (target==null && i==1 // 2 steps forward, 
+                 && start.getColour()==mCol && start.getRow()==1 //must be in initial position
+                 && getPiece(start.neighbourOrNull(Direction.FORWARD))==null)//and can't jump a piece 
+               || (target!=null && i>1)//or taking diagonally
               )
-              return true;
-          }catch(ImpossiblePositionException e){}//do nothing, steps went off board.
+            )
+            return true;
         }
         break;
       case KNIGHT:
         for(int i = 0; i<steps.length; i++){
-          try{
-            if(end == step(mover, steps[i],start))
-              return true;
-          }catch(ImpossiblePositionException e){}//do nothing, steps went off board.
+          if(end == stepOrNull(mover, steps[i],start))//null if the steps went off board.
+            return true;
         }
         break;
       case KING://note, you can move into check or remain in check. You may also castle across check
         for(int i = 0; i<steps.length; i++){
-          try{
-            if(end == step(mover, steps[i],start))
-              return true;
-          }catch(ImpossiblePositionException e){}//do nothing, steps went off board.
+          if(end == stepOrNull(mover, steps[i],start))//null if the steps went off board.
+            return true;
         }
         //castling: Must have king and rook in their original positions, although they may have moved
         try{
           if(start==Position.get(mCol,0,4)){
             if(end==Position.get(mCol,0,6)){
-              Piece castle = board.get(Position.get(mCol,0,7));
-              Piece empty1 = board.get(Position.get(mCol,0,5));
-              Piece empty2 = board.get(Position.get(mCol,0,6));
+              Piece castle = getPiece(Position.get(mCol,0,7));
+              Piece empty1 = getPiece(Position.get(mCol,0,5));
+              Piece empty2 = getPiece(Position.get(mCol,0,6));
               if(castle!=null && castle.getType()==PieceType.ROOK && castle.getColour()==mover.getColour()
                   && empty1==null && empty2==null)
                 return true;
             }
             if(end==Position.get(mCol,0,2)){
-              Piece castle = board.get(Position.get(mCol,0,0));
-              Piece empty1 = board.get(Position.get(mCol,0,1));
-              Piece empty2 = board.get(Position.get(mCol,0,2));
-              Piece empty3 = board.get(Position.get(mCol,0,3));
+              Piece castle = getPiece(Position.get(mCol,0,0));
+              Piece empty1 = getPiece(Position.get(mCol,0,1));
+              Piece empty2 = getPiece(Position.get(mCol,0,2));
+              Piece empty3 = getPiece(Position.get(mCol,0,3));
               if(castle!=null && castle.getType()==PieceType.ROOK && castle.getColour()==mover.getColour()
                   && empty1==null && empty2==null && empty3==null)
                 return true;
@@ -230,19 +287,75 @@ public class Board implements Cloneable, Serializable {
       default://rook, bishop, queen, just need to check that one of their steps is iterated.
         for(int i = 0; i<steps.length; i++){
           Direction[] step = steps[i];
-          try{
-            Position tmp = step(mover,step,start);
-            while(end != tmp && board.get(tmp)==null){
-              tmp = step(mover, step, tmp, tmp.getColour()!=start.getColour());
-            }
-            if(end==tmp) return true;
-          }catch(ImpossiblePositionException e){}//do nothing, steps went off board.
+          Position tmp = stepOrNull(mover,step,start);
+          while(tmp != null && end != tmp && getPiece(tmp)==null){//null once the steps go off board.
+            tmp = stepOrNull(mover, step, tmp, tmp.getColour()!=start.getColour());
+          }
+          if(end==tmp) return true;
         }
         break;
     }
     return false;//move did not match any legal option.
   }
 
+  /**
+   * Returns all of the legal moves of the player whose turn it is, which are the moves for which
+   * {@link #isLegalMove} returns true. The moves are generated by stepping each piece using the
+   * precomputed neighbours of each position, rather than checking every pair of positions,
+   * and are then cached until the next move is made.
+   * @return an unmodifiable list of the legal moves, each represented as an array containing the
+   * start position and the end position of the move. The arrays are shared, and must not be modified.
+   * **/
+  public List<Position[]> getLegalMoves(){
+    List<Position[]> moves = legalMoves;
+    if(moves == null){
+      moves = Collections.unmodifiableList(generateLegalMoves());
+      legalMoves = moves;
+    }
+    return moves;
+  }
+
+  /**
+   * Generates the legal moves of the player whose turn it is.
+   * Each step of each piece is followed until it leaves the board or reaches another piece,
+   * and each position reached is checked with {@link #isLegalMove}, along with the castling moves of the king.
+   * @return a list of the legal moves.
+   * **/
+  private List<Position[]> generateLegalMoves(){
+    List<Position[]> moves = new ArrayList<>();
+    boolean[] found = new boolean[POSITIONS.length];//the ends found for the current piece, as different steps can reach the same position
+    for(Position start : POSITIONS){
+      Piece mover = board[start.ordinal()];
+      if(mover == null || mover.getColour() != turn) continue;
+      Arrays.fill(found, false);
+      PieceType type = mover.getType();
+      boolean iterated = (type.getStepReps() > 1);
+      for(Direction[] step : PIECE_STEPS[type.ordinal()]){
+        Position end = stepOrNull(mover, step, start);
+        while(end != null){
+          if(!found[end.ordinal()] && isLegalMove(start, end)){
+            found[end.ordinal()] = true;
+            moves.add(new Position[]{start, end});
+          }
+          if(!iterated || board[end.ordinal()] != null) break;//pieces cannot pass through other pieces
+          end = stepOrNull(mover, step, end, end.getColour()!=start.getColour());
+        }
+      }
+      if(type == PieceType.KING && start.getColour() == turn && start.getRow() == 0 && start.getColumn() == 4){
+        try{
+          for(int column : new int[]{2, 6}){//castling left and right
+            Position end = Position.get(turn, 0, column);
+            if(!found[end.ordinal()] && isLegalMove(start, end)){
+              found[end.ordinal()] = true;
+              moves.add(new Position[]{start, end});
+            }
+          }
+        }catch(ImpossiblePositionException e){}//no impossible positions in this code
+      }
+    }
+    return moves;
+  }
+
   /**
    * Executes a legal move. 
    * If a piece is taken it is replaced at that position by the taking piece.
@@ -255,39 +368,56 @@ public class Board implements Cloneable, Serializable {
    * **/ 
   public void move(Position start, Position end, int time) throws ImpossiblePositionException{
     if(isLegalMove(start,end)){
-      Piece mover = board.get(start);
-      Piece taken = board.get(end);
-      timeLeft.put(mover.getColour(),timeLeft.get(mover.getColour())-time);
-      if(timeLeft.get(mover.getColour())<0) gameOver=true;
+      legalMoves = null;//the legal moves are for the position before this move
+      Piece mover = getPiece(start);
+      Piece taken = getPiece(end);
+      int moverIndex = mover.getColour().ordinal();
+      timeLeft[moverIndex] -= time;
+      if(timeLeft[moverIndex]<0) gameOver=true;
       else{
-        board.remove(start);//empty start square
+        put(start, null);//empty start square
         if(mover.getType()==PieceType.PAWN && end.getRow()==0 && end.getColour()!=mover.getColour())
-          board.put(end, new Piece(PieceType.QUEEN, mover.getColour()));//promote pawn if back rank
-        else board.put(end,mover);//move piece
+          put(end, new Piece(PieceType.QUEEN, mover.getColour()));//promote pawn if back rank
+        else put(end,mover);//move piece
         if(mover.getType()==PieceType.KING && start.getColumn()==4 && start.getRow()==0){
           if(end.getColumn()==2){//castle left, update rook
             Position rookPos = Position.get(mover.getColour(),0,0);
-            board.put(Position.get(mover.getColour(),0,3),board.get(rookPos));
-            board.remove(rookPos);
+            put(Position.get(mover.getColour(),0,3),getPiece(rookPos));
+            put(rookPos, null);
           }else if(end.getColumn()==6){//castle right, update rook
             Position rookPos = Position.get(mover.getColour(),0,7);
-            board.put(Position.get(mover.getColour(),0,5),board.get(rookPos));
-            board.remove(rookPos);
+            put(Position.get(mover.getColour(),0,5),getPiece(rookPos));
+            put(rookPos, null);
          }
         }
-        history.add(new Position[]{start,end});
+        addToHistory(new Position[]{start,end});
         if(taken !=null){
-          captured.get(mover.getColour()).add(taken);
+          captured[moverIndex].add(taken);
           if(taken.getType()==PieceType.KING) gameOver=true;
         }
         if (!gameOver) {
-          turn = Colour.values()[(turn.ordinal()+1)%3];
+          turn = COLOURS[(turn.ordinal()+1)%3];
         }
       }
     }
     else throw new ImpossiblePositionException("Illegal Move: "+start+"-"+end);
   }
 
+  /**
+   * Appends a move to the history of this board. The move is written into the shared history if no other board
+   * has already taken the next slot in it, otherwise the moves of this board are copied into a new history first.
+   * @param move the start and end position of the move.
+   * **/
+  private void addToHistory(Position[] move){
+    MoveHistory history = this.history;
+    if(historyLength >= history.moves.length || !history.claimedLength.compareAndSet(historyLength, historyLength+1)){
+      history = new MoveHistory(history, historyLength, Math.max(64, 2*historyLength));
+      history.claimedLength.set(historyLength+1);
+      this.history = history;
+    }
+    history.moves[historyLength++] = move;
+  }
+
   /**
    * Executes a legal move. 
    * If a piece is taken it is replaced at that position by the taking piece.
@@ -315,7 +445,7 @@ public class Board implements Cloneable, Serializable {
    * @return the number of moves made in the game.
    * **/
   public int getMoveCount(){
-    return history.size();
+    return historyLength;
   }
 
   /**
@@ -326,7 +456,7 @@ public class Board implements Cloneable, Serializable {
    * **/
   public Position[] getMove(int index){
     if(0<=index && index<getMoveCount()){
-      return history.get(index).clone();
+      return history.moves[index].clone();
     }
     else throw new ArrayIndexOutOfBoundsException("Index out of bounds.");
   }
@@ -343,11 +473,10 @@ public class Board implements Cloneable, Serializable {
    * **/
   public int score(Colour player){
     int score = 0;
-    for(Position p: Position.values()){
-      Piece piece = board.get(p);
+    for(Piece piece: board){
       if(piece!=null && piece.getColour()==player) score+=piece.getValue();
     }
-    for(Piece piece: captured.get(player)) score+=piece.getValue();  
+    for(Piece piece: captured[player.ordinal()]) score+=piece.getValue();  
     return score;
   }
 
@@ -365,13 +494,13 @@ public class Board implements Cloneable, Serializable {
    * **/
   public Colour getWinner(){
     if(gameOver){
-      for(Colour c: Colour.values()){
-        for(Piece taken: captured.get(c)){
+      for(Colour c: COLOURS){
+        for(Piece taken: captured[c.ordinal()]){
           if(taken.getType()==PieceType.KING) return c;
         }
-        if(timeLeft.get(c)<0){
+        if(timeLeft[c.ordinal()]<0){
           Colour winner = null; int max = Integer.MIN_VALUE;
-          for(Colour d: Colour.values()){
+          for(Colour d: COLOURS){
             int score = score(d);
             if(d!=c && score>max){
               winner = d; max = score;
@@ -391,11 +520,11 @@ public class Board implements Cloneable, Serializable {
    * **/
   public Colour getLoser(){
     if(gameOver){
-      for(Colour c: Colour.values()){
-        for(Piece taken: captured.get(c)){
+      for(Colour c: COLOURS){
+        for(Piece taken: captured[c.ordinal()]){
           if(taken.getType()==PieceType.KING) return taken.getColour();
         }
-        if(timeLeft.get(c)<0) return c;
+        if(timeLeft[c.ordinal()]<0) return c;
       }
     }
     return null;
@@ -406,7 +535,7 @@ public class Board implements Cloneable, Serializable {
    * @return the time remaining, in milliseconds.
    * **/
   public int getTimeLeft(Colour colour){
-    return timeLeft.get(colour);
+    return timeLeft[colour.ordinal()];
   }
 
   /** @return whether a player timed out. **/
@@ -414,8 +543,8 @@ public class Board implements Cloneable, Serializable {
     if (!gameOver)
       return false;
 
-    for(Colour colour : Colour.values()){
-      if(timeLeft.get(colour) < 0)
+    for(int time : timeLeft){
+      if(time < 0)
         return true;
     }
     return false;
@@ -427,22 +556,282 @@ public class Board implements Cloneable, Serializable {
    * @return The copy of the board position/piece state map
    */
   public HashMap<Position, Piece> getPositionPieceMap() {
-    return new HashMap<>(board);
+    HashMap<Position, Piece> map = new HashMap<>();
+    for(Position p : POSITIONS){
+      Piece piece = board[p.ordinal()];
+      if(piece != null)
+        map.put(p, piece);
+    }
+    return map;
   }
 
   /**
    * Returns a deep clone of the board state, 
    * such that no operations will affect the original board instance.
+   * The history of moves is shared with the clone instead of copied, as the moves in it are never
+   * changed, so cloning takes the same time no matter how many moves have been taken.
    * @return a deep clone of the board state.
    * **/ 
   public Object clone() throws CloneNotSupportedException{
     Board clone = (Board) super.clone();
-    clone.board = (HashMap<Position,Piece>)board.clone();
-    clone.history = new ArrayList<Position[]>();
-    for(Position[] move: history) clone.history.add(move.clone());
-    clone.timeLeft = (HashMap<Colour,Integer>) timeLeft.clone();
-    clone.captured = new HashMap<Colour,ArrayList<Piece>>();
-    for(Colour c: Colour.values()) clone.captured.put(c, (ArrayList<Piece>) captured.get(c).clone());
+    clone.board = board.clone();
+    clone.timeLeft = timeLeft.clone();
+    clone.captured = newCapturedLists();
+    for(int c = 0; c < captured.length; c++) clone.captured[c] = new ArrayList<>(captured[c]);
     return clone;
   }
+
+  /**
+   * Writes a compact binary encoding of this board, which can be read back using {@link #readFrom}.
+   * The encoding is, in order:
+   * the format version;
+   * a bitmap of the 96 positions that hold a piece;
+   * the type of each of those pieces as a nibble, two to a byte;
+   * the colour of each of those pieces in two bits, four to a byte;
+   * the turn and whether the game is over in one byte;
+   * the time left of each player as a varint;
+   * the number of moves taken as a varint, followed by the start and end position of each move in a byte each;
+   * and for each player, the number of pieces they have captured as a varint, followed by each piece in a byte.
+   * A board at the start of a game takes about 60 bytes, and each move adds 2 bytes.
+   * @param out the output to write the board to.
+   * @throws IOException if the output cannot be written to.
+   * **/
+  public void writeTo(DataOutput out) throws IOException{
+    out.writeByte(FORMAT_VERSION);
+
+    // The positions that are occupied, as a 96 bit bitmap.
+    long lowOccupied = 0;
+    int highOccupied = 0;
+    int pieceCount = 0;
+    for(int index = 0; index < board.length; index++){
+      if(board[index] == null) continue;
+      if(index < 64) lowOccupied |= 1L << index;
+      else highOccupied |= 1 << (index - 64);
+      pieceCount++;
+    }
+    out.writeLong(lowOccupied);
+    out.writeInt(highOccupied);
+
+    // The types and colours of the pieces on the occupied positions, packed into bytes.
+    byte[] types = new byte[(pieceCount + 1) / 2];
+    byte[] colours = new byte[(pieceCount + 3) / 4];
+    int pieceIndex = 0;
+    for(Piece piece : board){
+      if(piece == null) continue;
+      types[pieceIndex / 2] |= piece.getType().ordinal() << (4 * (pieceIndex % 2));
+      colours[pieceIndex / 4] |= piece.getColour().ordinal() << (2 * (pieceIndex % 4));
+      pieceIndex++;
+    }
+    out.write(types);
+    out.write(colours);
+
+    out.writeByte(turn.ordinal() | (gameOver ? 4 : 0));
+    for(int time : timeLeft) writeVarInt(out, (time << 1) ^ (time >> 31));//zig-zag encoded, as timed out players have negative time
+
+    writeVarInt(out, historyLength);
+    for(int index = 0; index < historyLength; index++){
+      Position[] move = history.moves[index];
+      out.writeByte(move[0].ordinal());
+      out.writeByte(move[1].ordinal());
+    }
+
+    for(ArrayList<Piece> pieces : captured){
+      writeVarInt(out, pieces.size());
+      for(Piece piece : pieces) out.writeByte(piece.getColour().ordinal() << 3 | piece.getType().ordinal());
+    }
+  }
+
+  /**
+   * Reads a board that was written using {@link #writeTo}.
+   * @param in the input to read the board from.
+   * @return the board that was read.
+   * @throws IOException if the input cannot be read from, or does not contain a valid board.
+   * **/
+  public static Board readFrom(DataInput in) throws IOException{
+    int version = in.readUnsignedByte();
+    if(version != FORMAT_VERSION) throw new IOException("Unsupported board format version " + version);
+
+    Board result = new Board(0);
+    Piece[] board = result.board;
+    long lowOccupied = in.readLong();
+    int highOccupied = in.readInt();
+    int pieceCount = Long.bitCount(lowOccupied) + Integer.bitCount(highOccupied);
+    byte[] types = new byte[(pieceCount + 1) / 2];
+    byte[] colours = new byte[(pieceCount + 3) / 4];
+    in.readFully(types);
+    in.readFully(colours);
+    int pieceIndex = 0;
+    for(int index = 0; index < board.length; index++){
+      boolean occupied = (index < 64 ? (lowOccupied >>> index & 1) != 0 : (highOccupied >>> (index - 64) & 1) != 0);
+      if(!occupied){
+        board[index] = null;
+        continue;
+      }
+      int type = (types[pieceIndex / 2] >> (4 * (pieceIndex % 2))) & 15;
+      int colour = (colours[pieceIndex / 4] >> (2 * (pieceIndex % 4))) & 3;
+      board[index] = readPiece(type, colour);
+      pieceIndex++;
+    }
+
+    int turnAndGameOver = in.readUnsignedByte();
+    if((turnAndGameOver & 3) >= COLOURS.length) throw new IOException("Invalid turn " + (turnAndGameOver & 3));
+    result.turn = COLOURS[turnAndGameOver & 3];
+    result.gameOver = (turnAndGameOver & 4) != 0;
+    for(int c = 0; c < COLOURS.length; c++){
+      int zigZag = readVarInt(in);
+      result.timeLeft[c] = (zigZag >>> 1) ^ -(zigZag & 1);
+    }
+
+    // The history grows as the moves are read, so that a corrupt length cannot allocate a huge history up-front.
+    int historyLength = readCount(in, Integer.MAX_VALUE);
+    for(int index = 0; index < historyLength; index++){
+      result.addToHistory(new Position[]{readPosition(in), readPosition(in)});
+    }
+
+    for(ArrayList<Piece> pieces : result.captured){
+      int count = readCount(in, MAX_CAPTURED);
+      for(int index = 0; index < count; index++){
+        int piece = in.readUnsignedByte();
+        pieces.add(readPiece(piece & 7, piece >> 3));
+      }
+    }
+    return result;
+  }
+
+  /** @return the piece with the type and colour of the given ordinals, read from a binary encoding of a board. **/
+  private static Piece readPiece(int type, int colour) throws IOException{
+    if(type >= PIECE_STEPS.length || colour >= COLOURS.length) throw new IOException("Invalid piece type " + type + " or colour " + colour);
+    return new Piece(PieceType.values()[type], COLOURS[colour]);
+  }
+
+  /** @return the position with the ordinal read from {@param in}. **/
+  private static Position readPosition(DataInput in) throws IOException{
+    int ordinal = in.readUnsignedByte();
+    if(ordinal >= POSITIONS.length) throw new IOException("Invalid position " + ordinal);
+    return POSITIONS[ordinal];
+  }
+
+  /** Writes {@param value} as an unsigned varint, using 7 bits per byte with the high bit set on all bytes but the last. **/
+  private static void writeVarInt(DataOutput out, int value) throws IOException{
+    while((value & ~0x7F) != 0){
+      out.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  /**
+   * @return an unsigned varint read from {@param in}.
+   * @throws IOException if the varint does not fit in 32 bits.
+   * **/
+  private static int readVarInt(DataInput in) throws IOException{
+    int value = 0;
+    for(int shift = 0; shift < 28; shift += 7){
+      int b = in.readUnsignedByte();
+      value |= (b & 0x7F) << shift;
+      if((b & 0x80) == 0) return value;
+    }
+    int b = in.readUnsignedByte();//only the low 4 bits of the fifth byte fit in 32 bits
+    if(b > 0x0F) throw new IOException("Varint is too long");
+    return value | (b << 28);
+  }
+
+  /**
+   * @return a count read from {@param in} as a varint.
+   * @throws IOException if the count is negative or more than {@param maxCount}.
+   * **/
+  private static int readCount(DataInput in, int maxCount) throws IOException{
+    int count = readVarInt(in);
+    if(count < 0 || count > maxCount) throw new IOException("Invalid count " + count);
+    return count;
+  }
+
+  /**
+   * Writes this board in the serialized form described by serialPersistentFields.
+   * @param out the stream to write the board to.
+   * @throws IOException if the stream cannot be written to.
+   * **/
+  private void writeObject(ObjectOutputStream out) throws IOException{
+    ArrayList<Position[]> historyList = new ArrayList<Position[]>(historyLength);
+    for(int index = 0; index < historyLength; index++) historyList.add(history.moves[index]);
+    HashMap<Colour,ArrayList<Piece>> capturedMap = new HashMap<Colour,ArrayList<Piece>>();
+    HashMap<Colour,Integer> timeLeftMap = new HashMap<Colour,Integer>();
+    for(Colour c: COLOURS){
+      capturedMap.put(c, new ArrayList<>(captured[c.ordinal()]));
+      timeLeftMap.put(c, timeLeft[c.ordinal()]);
+    }
+
+    ObjectOutputStream.PutField fields = out.putFields();
+    fields.put("board", getPositionPieceMap());
+    fields.put("gameOver", gameOver);
+    fields.put("turn", turn);
+    fields.put("history", historyList);
+    fields.put("captured", capturedMap);
+    fields.put("timeLeft", timeLeftMap);
+    out.writeFields();
+  }
+
+  /**
+   * Reads a board in the serialized form described by serialPersistentFields, and stores it in arrays.
+   * @param in the stream to read the board from.
+   * @throws IOException if the stream cannot be read from, or does not contain a valid board.
+   * @throws ClassNotFoundException if the class of an object in the board cannot be found.
+   * **/
+  @SuppressWarnings("unchecked")
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException{
+    ObjectInputStream.GetField fields = in.readFields();
+    HashMap<Position,Piece> boardMap = (HashMap<Position,Piece>) fields.get("board", null);
+    ArrayList<Position[]> historyList = (ArrayList<Position[]>) fields.get("history", null);
+    HashMap<Colour,ArrayList<Piece>> capturedMap = (HashMap<Colour,ArrayList<Piece>>) fields.get("captured", null);
+    HashMap<Colour,Integer> timeLeftMap = (HashMap<Colour,Integer>) fields.get("timeLeft", null);
+    turn = (Colour) fields.get("turn", null);
+    gameOver = fields.get("gameOver", false);
+    if(boardMap == null || historyList == null || capturedMap == null || timeLeftMap == null || turn == null)
+      throw new InvalidObjectException("Board is missing its pieces, history, captures, times or turn");
+
+    board = new Piece[POSITIONS.length];
+    for(Map.Entry<Position,Piece> entry : boardMap.entrySet()) put(entry.getKey(), entry.getValue());
+    history = new MoveHistory(Math.max(64, historyList.size()));
+    historyLength = 0;
+    for(Position[] move : historyList){
+      if(move == null || move.length != 2) throw new InvalidObjectException("Invalid move in history " + Arrays.toString(move));
+      addToHistory(move);
+    }
+    captured = newCapturedLists();
+    timeLeft = new int[COLOURS.length];
+    for(Colour c: COLOURS){
+      ArrayList<Piece> pieces = capturedMap.get(c);
+      Integer time = timeLeftMap.get(c);
+      if(pieces == null || time == null) throw new InvalidObjectException("Board is missing the captures or time of " + c);
+      captured[c.ordinal()] = new ArrayList<>(pieces);
+      timeLeft[c.ordinal()] = time;
+    }
+  }
+
+  /**
+   * The moves taken on a board and its clones, which is only ever appended to.
+   * Each board only reads the first historyLength moves, which are never changed once written.
+   * The next slot is claimed atomically before it is written, so that only the first board to
+   * take a move after the history is shared writes to it, and the other boards copy their moves
+   * into a new history instead. This keeps the boards independent, even when they are on different threads.
+   * **/
+  private static final class MoveHistory {
+    /**The moves, represented as an array of two positions, the start and end of the move**/
+    private final Position[][] moves;
+    /**The number of slots in moves that have been claimed by a board**/
+    private final AtomicInteger claimedLength;
+
+    /** Creates an empty history with room for {@param capacity} moves. **/
+    private MoveHistory(int capacity){
+      this.moves = new Position[capacity][];
+      this.claimedLength = new AtomicInteger();
+    }
+
+    /** Creates a history with room for {@param capacity} moves, containing the first {@param length} moves of {@param other}. **/
+    private MoveHistory(MoveHistory other, int length, int capacity){
+      this.moves = Arrays.copyOf(other.moves, capacity);
+      Arrays.fill(this.moves, length, capacity, null);
+      this.claimedLength = new AtomicInteger(length);
+    }
+  }
 }
@@ -141,6 +141,18 @@ public class Game implements Runnable {
         // Wait for the executor service to shutdown.
         if (!executor.awaitTermination(15, TimeUnit.SECONDS)) {
           System.err.println("Executor service is not terminating, is there an infinite loop in an agent?");
+        } else {
+          // Show the agents the final board once none of them are still deciding a move, so that they
+          // can release anything they used during the game. A failing agent is only logged, so that
+          // the other agents are still shown the board, and any exception from playing the game is kept.
+          for (Agent agent : agents) {
+            try {
+              agent.finalBoard(cloneBoard());
+            } catch (RuntimeException e) {
+              System.err.println("Agent " + agent + " failed when shown the final board");
+              e.printStackTrace();
+            }
+          }
         }
       } catch (InterruptedException e) {
         // Preserve interrupt status.
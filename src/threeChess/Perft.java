@@ -0,0 +1,273 @@
+package threeChess;
+
+import threeChess.agents.GameLogic.CombinedGameConstants;
+import threeChess.agents.GameLogic.GameConstants;
+import threeChess.agents.GameLogic.GameState;
+import threeChess.agents.GameLogicTest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Counts the number of move sequences of each length from a set of positions, known as perft. This is used
+ * to check that the move generation of {@link GameState} is correct, by cross-checking it against the legal
+ * moves of {@link Board}, and to measure the speed of the move generation in nodes per second.
+ *
+ * No moves are made after a king is taken, so move sequences that end the game early are not counted.
+ * The positions are reached by playing stored moves on the board, so they do not depend on the move
+ * generation being tested, and the node counts of each position are checked against known counts.
+ *
+ * @author Paddy Lamont, 22494652
+ */
+public class Perft {
+
+  /**
+   * The moves of a game that was played by picking random moves, given as the start and end positions of each move.
+   * The first position is the start of the game, and each row holds the moves that are played to reach the next one.
+   */
+  private static final String[] STORED_GAME_MOVES = {
+      "BG1-BH3 GC2-GC3 RH2-RH4 BH3-BF4 GD2-GD3 RC2-RC3 BE2-BE3 GE2-GE4",
+      "RH4-GA4 BD1-BG4 GD3-GD4 RB1-RA3 BB1-BA3 GD1-GG4 RB2-RB3 BC2-BC4",
+      "GE1-GD2 RA3-RB1 BC4-GE4 GD2-GE3 RC1-RA3 BD2-BD3 GG4-BA4 RD1-RC1",
+      "BH2-BH3 GF1-GE2 RG1-RF3 BE1-BE2 GE2-GC4 RA3-RB4 BA3-BB1 BA4-GE2",
+      "RF3-GB4 BG4-RC4 GE3-GF3 RE2-RE3 RC4-BE4 GE2-GD2 GA4-GA3 BE4-RG2",
+      "GG2-GG4 RB4-BF4 BB1-BC3 GC4-RD3 RC3-RC4 BE2-BD1 GD2-GE1 GB4-RH3",
+      "RG2-GB3 GE1-GE2 RC1-RD1 BA1-BB1 GB1-GA3 BF4-BE3 GB3-RG4 GC1-GF4"
+  };
+  /**
+   * The known number of move sequences of each length from 1 to 4 from each of the positions.
+   * In total, the positions have 259, 8,797, 299,770, and 10,356,925 move sequences of each length.
+   */
+  private static final long[][] KNOWN_NODES = {
+      {20, 400, 8_000, 178_080},
+      {22, 770, 26_156, 656_965},
+      {42, 963, 38_281, 1_556_491},
+      {37, 1_584, 36_514, 1_364_335},
+      {29, 898, 32_891, 978_977},
+      {36, 1_281, 49_227, 1_743_584},
+      {42, 1_509, 45_423, 1_835_923},
+      {31, 1_392, 63_278, 2_042_570}
+  };
+
+  private final GameConstants constants;
+  private final List<Board> positions;
+  private final int crossCheckDepth;
+  private final int threads;
+
+  /**
+   * @param crossCheckDepth the depth to cross-check the moves of the game logic against the board to.
+   * @param threads the number of threads to use for the multi-threaded perft, or 1 to skip it.
+   */
+  public Perft(int crossCheckDepth, int threads) {
+    if (threads <= 0)
+      throw new IllegalArgumentException("threads must be positive");
+
+    this.constants = CombinedGameConstants.START_GAME;
+    this.positions = loadPositions(0);
+    this.crossCheckDepth = crossCheckDepth;
+    this.threads = threads;
+  }
+
+  /** Cross-checks all of the positions against the board, and then runs perft on them for every depth up to {@param maxDepth}. **/
+  public void run(int maxDepth) {
+    List<GameState> states = new ArrayList<>();
+    for (Board board : positions) {
+      GameState state = new GameState(constants);
+      state.copyFrom(board);
+      states.add(state);
+    }
+
+    // Check the static exchange evaluation of some known exchanges, as it is used to prune quiescence searches.
+    GameLogicTest.verifyExchangeGains();
+    System.out.println("Checked the static exchange evaluation of known exchanges");
+
+    // Check that boards serialized before the pieces of boards were stored in arrays can still be read.
+    GameLogicTest.verifySerializedBoards();
+    System.out.println("Checked that serialized boards can be read");
+
+    // Walk every move sequence of the board and the game logic in lockstep, and check the counts match perft.
+    long crossCheckNodes = 0;
+    for (int index = 0; index < positions.size(); ++index) {
+      long nodes = GameLogicTest.verifyPerft(positions.get(index), states.get(index), crossCheckDepth);
+      long perftNodes = perft(states.get(index), crossCheckDepth);
+      if (nodes != perftNodes)
+        throw new IllegalStateException("position " + index + " has " + perftNodes + " perft nodes, but the board has " + nodes);
+      crossCheckNodes += nodes;
+    }
+    System.out.printf(
+        "Cross-checked %d positions against the board to depth %d, %,d nodes match%n%n",
+        positions.size(), crossCheckDepth, crossCheckNodes
+    );
+
+    ForkJoinPool pool = (threads > 1 ? new ForkJoinPool(threads) : null);
+    long[] maxDepthNodes = new long[states.size()];
+    for (int depth = 1; depth <= maxDepth; ++depth) {
+      long nodes = 0;
+      long start = System.nanoTime();
+      for (int index = 0; index < states.size(); ++index) {
+        maxDepthNodes[index] = perft(states.get(index), depth);
+        nodes += maxDepthNodes[index];
+      }
+      printResult("Perft-" + depth, nodes, System.nanoTime() - start);
+      checkKnownNodes(depth, maxDepthNodes);
+
+      if (pool != null) {
+        long parallelNodes = 0;
+        long parallelStart = System.nanoTime();
+        for (GameState state : states) {
+          parallelNodes += perftParallel(pool, state, depth);
+        }
+        if (parallelNodes != nodes)
+          throw new IllegalStateException("multi-threaded perft found " + parallelNodes + " nodes, but perft found " + nodes);
+        printResult("Perft-" + depth + "-" + threads + "T", parallelNodes, System.nanoTime() - parallelStart);
+      }
+    }
+    if (pool != null) {
+      pool.shutdown();
+    }
+
+    // The node counts of each position can be compared against other versions of the move generation.
+    System.out.println("\nNodes of each position at depth " + maxDepth + "\n");
+    for (int index = 0; index < states.size(); ++index) {
+      System.out.printf("Position %-7d %,14d nodes%n", index, maxDepthNodes[index]);
+    }
+  }
+
+  /** Checks the {@param nodes} of each position at {@param depth} against the known counts, if they are known. **/
+  private static void checkKnownNodes(int depth, long[] nodes) {
+    for (int index = 0; index < nodes.length; ++index) {
+      long[] knownNodes = KNOWN_NODES[index];
+      if (depth <= knownNodes.length && nodes[index] != knownNodes[depth - 1])
+        throw new IllegalStateException(
+            "position " + index + " has " + nodes[index] + " nodes at depth " + depth + ", but should have " + knownNodes[depth - 1]
+        );
+    }
+  }
+
+  /** @return the number of move sequences of length {@param depth} from {@param state}. **/
+  public static long perft(GameState initialState, int depth) {
+    GameState state = new GameState(initialState.constants);
+    state.copyFrom(initialState);
+    return perft(state, depth, new int[Math.max(1, depth)][GameConstants.maxAvailableMoves]);
+  }
+
+  /**
+   * Counts the move sequences of length {@param depth} from {@param state} by making and unmaking every move,
+   * so it is unchanged once this returns. The moves at the last depth are counted without being made.
+   */
+  private static long perft(GameState state, int depth, int[][] moveBuffers) {
+    if (depth == 0)
+      return 1;
+    if (state.gameOverPacked != 0)
+      return 0;
+
+    int[] moves = moveBuffers[depth - 1];
+    int count = state.computeAvailableMoves(moves);
+    if (depth == 1)
+      return count;
+
+    long nodes = 0;
+    for (int index = 0; index < count; ++index) {
+      int move = moves[index];
+      long undo = state.makeMove(move);
+      nodes += perft(state, depth - 1, moveBuffers);
+      state.unmakeMove(move, undo);
+    }
+    return nodes;
+  }
+
+  /**
+   * @return the number of move sequences of length {@param depth} from {@param state}, splitting the moves
+   *         available from {@param state} between the threads of {@param pool}.
+   */
+  public static long perftParallel(ForkJoinPool pool, GameState state, int depth) {
+    if (depth <= 1 || state.gameOverPacked != 0)
+      return perft(state, depth);
+
+    int[] moves = new int[GameConstants.maxAvailableMoves];
+    int moveCount = state.computeAvailableMoves(moves);
+    int shares = pool.getParallelism();
+    return pool.invoke(new PerftSharesTask(state, moves, moveCount, depth, 0, shares, shares));
+  }
+
+  /** Recursively splits the shares of root moves between tasks, until each task counts the nodes of one share. **/
+  private static final class PerftSharesTask extends RecursiveTask<Long> {
+    private static final long serialVersionUID = -9177309197517593195L;
+
+    private final GameState rootState;
+    private final int[] rootMoves;
+    private final int rootMoveCount;
+    private final int depth;
+    private final int fromShare;
+    private final int toShare;
+    private final int shareCount;
+
+    private PerftSharesTask(
+        GameState rootState, int[] rootMoves, int rootMoveCount,
+        int depth, int fromShare, int toShare, int shareCount) {
+
+      this.rootState = rootState;
+      this.rootMoves = rootMoves;
+      this.rootMoveCount = rootMoveCount;
+      this.depth = depth;
+      this.fromShare = fromShare;
+      this.toShare = toShare;
+      this.shareCount = shareCount;
+    }
+
+    @Override protected Long compute() {
+      if (toShare - fromShare > 1) {
+        int middle = (fromShare + toShare) >>> 1;
+        PerftSharesTask left = new PerftSharesTask(rootState, rootMoves, rootMoveCount, depth, fromShare, middle, shareCount);
+        PerftSharesTask right = new PerftSharesTask(rootState, rootMoves, rootMoveCount, depth, middle, toShare, shareCount);
+        left.fork();
+        return right.compute() + left.join();
+      }
+
+      // Count the nodes of the share of root moves of this task, on its own copy of the state. The moves are
+      // interleaved between the shares, as the moves of the same piece are next to each other and take similar times.
+      GameState state = new GameState(rootState.constants);
+      state.copyFrom(rootState);
+      int[][] moveBuffers = new int[depth - 1][GameConstants.maxAvailableMoves];
+      long nodes = 0;
+      for (int index = fromShare; index < rootMoveCount; index += shareCount) {
+        int move = rootMoves[index];
+        long undo = state.makeMove(move);
+        nodes += perft(state, depth - 1, moveBuffers);
+        state.unmakeMove(move, undo);
+      }
+      return nodes;
+    }
+  }
+
+  /** Prints the number of nodes and the nodes per second achieved by a perft. **/
+  private static void printResult(String name, long nodes, long nanos) {
+    long nodesPerSecond = (long) (nodes / (nanos / 1_000_000_000.0));
+    System.out.printf("%-16s %,14d nodes %,10d ms %,14d nodes/s%n", name, nodes, nanos / 1_000_000, nodesPerSecond);
+  }
+
+  /**
+   * @param time the time that each player has left in every position, in milliseconds, or 0 for untimed positions.
+   * @return the perft positions, reached by playing the stored game on the board from the start of the game.
+   *         These are also used by {@link Benchmark}, so that its node counts can be compared between versions.
+   */
+  public static List<Board> loadPositions(int time) {
+    List<Board> positions = new ArrayList<>();
+    Board board = new Board(time);
+    try {
+      positions.add((Board) board.clone());
+      for (String moves : STORED_GAME_MOVES) {
+        for (String move : moves.split(" ")) {
+          int separator = move.indexOf('-');
+          board.move(Position.valueOf(move.substring(0, separator)), Position.valueOf(move.substring(separator + 1)));
+        }
+        positions.add((Board) board.clone());
+      }
+    } catch (CloneNotSupportedException | ImpossiblePositionException e) {
+      throw new IllegalStateException("Unable to play the stored game", e);
+    }
+    return positions;
+  }
+}
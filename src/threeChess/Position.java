@@ -40,6 +40,23 @@ public enum Position{
   /**The position's column**/
   private final int column; //0-7
 
+  /**All of the positions, cached as values() creates a new array every call**/
+  private static final Position[] VALUES = values();
+  /**
+   * The neighbouring position in each direction from each position, indexed by the ordinals
+   * of the position and the direction, or null if moving in that direction leaves the board.
+   * **/
+  private static final Position[][] NEIGHBOURS = new Position[VALUES.length][Direction.values().length];
+  static {
+    for(Position position : VALUES){
+      for(Direction direction : Direction.values()){
+        try{
+          NEIGHBOURS[position.ordinal()][direction.ordinal()] = position.computeNeighbour(direction);
+        }catch(ImpossiblePositionException e){}//leave null, the neighbour is off the board.
+      }
+    }
+  }
+
   /**
    * Create a position with the specified colour, row and column
    * @param colour the section of the board the position is in.
@@ -66,9 +83,9 @@ public enum Position{
     int index= row+4*column;
     if(index>=0 && index<32){
       switch(colour){
-        case BLUE: return Position.values()[index];
-        case GREEN: return Position.values()[index+32];
-        case RED: return Position.values()[index+64];           
+        case BLUE: return VALUES[index];
+        case GREEN: return VALUES[index+32];
+        case RED: return VALUES[index+64];           
       }
     }
     throw new ImpossiblePositionException("No such position."); 
@@ -83,6 +100,27 @@ public enum Position{
    * or moving of the side of the board.
    * */
   public Position neighbour(Direction direction) throws ImpossiblePositionException{
+    Position neighbour = NEIGHBOURS[ordinal()][direction.ordinal()];
+    if(neighbour == null) throw new ImpossiblePositionException("Moved off board");
+    return neighbour;
+  }
+
+  /**
+   * Gets the neighbouring cell in the given direction, without throwing an exception if there is none.
+   * This is looked up from a precomputed table, so it is much faster than {@link #neighbour} near the edges of the board.
+   * @return the position in the specified direction, or null if moving backwards from the back rank,
+   * or moving of the side of the board.
+   * */
+  public Position neighbourOrNull(Direction direction){
+    return NEIGHBOURS[ordinal()][direction.ordinal()];
+  }
+
+  /**
+   * Calculates the neighbouring cell in the given direction, used to fill the table of neighbours.
+   * @throws ImpossiblePositionException if moving backwards from the back rank,
+   * or moving of the side of the board.
+   * */
+  private Position computeNeighbour(Direction direction) throws ImpossiblePositionException{
     switch(direction){
       case FORWARD:
         if(row<3) return get(colour, row+1, column);
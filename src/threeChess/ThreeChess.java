@@ -23,7 +23,12 @@ public class ThreeChess {
       AgentBrutus.createQuiescence(),
       AgentBrutus.createRestrictedQuiescence(),
       AgentBrutus.createPVS(),
-      AgentBrutus.createMinimax()
+      AgentBrutus.createParanoid(),
+      AgentBrutus.createMaxN(),
+      AgentBrutus.createMcts(),
+      AgentBrutus.createBestReplySearch(),
+      AgentBrutus.createMinimax(),
+      AgentBrutus.createLazySMP(1)
   };
 
   /**
@@ -49,6 +54,20 @@ public class ThreeChess {
       } else if ("genetic".equalsIgnoreCase(argument)) {
         runGeneticAlgorithm();
         return;
+      } else if ("benchmark".equalsIgnoreCase(argument)) {
+        runBenchmark();
+        return;
+      } else if ("perft".equalsIgnoreCase(argument)) {
+        runPerft(5);
+        return;
+      }
+    } else if (args.length == 2 && "perft".equalsIgnoreCase(argument)) {
+      try {
+        runPerft(Integer.parseInt(args[1]));
+        return;
+      } catch (NumberFormatException e) {
+        System.err.println("Expected a depth for perft, not " + args[1]);
+        return;
       }
     }
     System.err.println("Unknown arguments " + Arrays.toString(args));
@@ -124,6 +143,28 @@ public class ThreeChess {
     algorithm.runCycles(50);
   }
 
+  /**
+   * Runs benchmarks of the speed of the game logic and search strategies.
+   */
+  public static void runBenchmark() {
+    Benchmark benchmark = new Benchmark(
+        3 // reps
+    );
+    benchmark.run();
+  }
+
+  /**
+   * Cross-checks the moves of the game logic against the board, and then counts the
+   * move sequences of each length up to {@param depth} from a fixed set of positions.
+   */
+  public static void runPerft(int depth) {
+    Perft perft = new Perft(
+        2, // crossCheckDepth
+        Runtime.getRuntime().availableProcessors() // threads
+    );
+    perft.run(depth);
+  }
+
   /** @return a random set of three agents. **/
   public static Agent[] selectThreeAgents() {
     List<Agent> available = new ArrayList<>(Arrays.asList(AGENTS));
@@ -10,6 +10,10 @@ import threeChess.agents.GameLogic.CombinedGameConstants;
 import threeChess.agents.strategy.*;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.BiFunction;
 
 /**
@@ -30,6 +34,8 @@ public class AgentBrutus extends Agent {
   private static final long EXPECTED_GAME_TURNS = 20;
   /** The amount of turns into the future it will account for in deciding how much time to take. **/
   private static final int FUTURE_TURN_BUDGET = 12;
+  /** The default number of entries in the transposition table shared between the strategies of every ply, about 2 MB. **/
+  public static final int DEFAULT_TRANSPOSITION_TABLE_CAPACITY = 1 << 16;
   /** Used to randomise the selected moves when two or more moves have the same utility. **/
   private static final Random random = new Random();
 
@@ -47,13 +53,27 @@ public class AgentBrutus extends Agent {
   /** The number of nanoseconds to spend on average per game. **/
   private long nanosPerTurn = gameLengthNanos / EXPECTED_GAME_TURNS;
 
-  /** The game state used to compute the initial move states. **/
-  private final GameState moveState;
   /** The list we re-use for storing the list of available moves to take. **/
   private final List<Move> availableMoves = new ArrayList<>();
 
   /** The move decision strategies to use at each ply level. **/
   private final MoveStrat[] strategies = new MoveStrat[MAX_PLY];
+  /** The number of entries in the transposition table, or 0 to never use a transposition table. **/
+  private final int transpositionTableCapacity;
+  /**
+   * Caches the results of searches so that they can be re-used by the strategies of every ply. This is only
+   * created on the first move, and only if the strategies use it, as it takes a lot of memory.
+   */
+  private TranspositionTable transpositionTable;
+
+  /** The number of helper threads that search alongside the main thread, or 0 to only search on the main thread. **/
+  private final int helperThreads;
+  /** The move decision strategies to use at each ply level for each helper thread. **/
+  private final MoveStrat[][] helperStrategies;
+  /** The copies of the initial state for each helper thread to search from. **/
+  private final GameState[] helperStates;
+  /** Runs the searches of the helper threads, or null if it has not been started or has been shut down. **/
+  private ExecutorService helperExecutor;
 
   /** Used in the calculation of mean achieved ply. **/
   public int plySum;
@@ -68,18 +88,63 @@ public class AgentBrutus extends Agent {
       String suffix, CombinedGameConstants constants,
       BiFunction<GameConstants, Integer, MoveStrat> strategyGenerator) {
 
+    this(suffix, constants, strategyGenerator, 0);
+  }
+
+  /**
+   * @param suffix a suffix to be appended to the name of this agent.
+   * @param constants the constants to be used by this agent for its utility function.
+   * @param strategyGenerator a function that generates a move strategy when given a target ply depth.
+   * @param helperThreads the number of helper threads to search with alongside the main thread.
+   */
+  public AgentBrutus(
+      String suffix, CombinedGameConstants constants,
+      BiFunction<GameConstants, Integer, MoveStrat> strategyGenerator, int helperThreads) {
+
+    this(suffix, constants, strategyGenerator, helperThreads, DEFAULT_TRANSPOSITION_TABLE_CAPACITY);
+  }
+
+  /**
+   * @param suffix a suffix to be appended to the name of this agent.
+   * @param constants the constants to be used by this agent for its utility function.
+   * @param strategyGenerator a function that generates a move strategy when given a target ply depth.
+   * @param helperThreads the number of helper threads to search with alongside the main thread.
+   * @param transpositionTableCapacity the number of entries in the transposition table used by strategies that
+   *                                   support one, which must be a power of 2, or 0 to not use a transposition table.
+   */
+  public AgentBrutus(
+      String suffix, CombinedGameConstants constants,
+      BiFunction<GameConstants, Integer, MoveStrat> strategyGenerator,
+      int helperThreads, int transpositionTableCapacity) {
+
+    if (helperThreads < 0)
+      throw new IllegalArgumentException("helperThreads cannot be negative");
+    if (transpositionTableCapacity < 0 || (transpositionTableCapacity & (transpositionTableCapacity - 1)) != 0)
+      throw new IllegalArgumentException("transpositionTableCapacity must be 0 or a power of 2");
+
     this.name = "Brutus" + (suffix.isEmpty() ? "" : "-" + suffix);
     this.suffix = suffix;
     this.strategyGenerator = strategyGenerator;
 
     this.constants = constants;
     this.initialState = new GameState(constants);
-    this.moveState = new GameState(constants);
 
     // Generate a strategy instance for every possible ply up to the maximum.
     for (int ply = 1; ply <= MAX_PLY; ++ply) {
       strategies[ply - 1] = strategyGenerator.apply(constants, ply);
     }
+    this.transpositionTableCapacity = transpositionTableCapacity;
+
+    // Generate the strategies and states for every helper thread, which all share our transposition table.
+    this.helperThreads = helperThreads;
+    this.helperStrategies = new MoveStrat[helperThreads][MAX_PLY];
+    this.helperStates = new GameState[helperThreads];
+    for (int helper = 0; helper < helperThreads; ++helper) {
+      helperStates[helper] = new GameState(constants);
+      for (int ply = 1; ply <= MAX_PLY; ++ply) {
+        helperStrategies[helper][ply - 1] = strategyGenerator.apply(constants, ply);
+      }
+    }
   }
 
   /** @return a Brutus agent that uses the maximax strategy. **/
@@ -107,6 +172,78 @@ public class AgentBrutus extends Agent {
     return new AgentBrutus("PVS", CombinedGameConstants.createDefault(), PrincipalVariationSearchStrat::new);
   }
 
+  /** @return a Brutus agent that uses the Principal Variation Search strategy with the given search reductions. **/
+  public static AgentBrutus createPVS(String suffix, CombinedGameConstants constants, SearchReductions reductions) {
+    return new AgentBrutus(
+        "PVS" + suffix, constants, (gameConstants, ply) -> new PrincipalVariationSearchStrat(gameConstants, ply, reductions)
+    );
+  }
+
+  /** @return a Brutus agent that uses the paranoid alpha-beta strategy. **/
+  public static AgentBrutus createParanoid() {
+    return new AgentBrutus("Paranoid", CombinedGameConstants.createDefault(), ParanoidStrat::new);
+  }
+
+  /** @return a Brutus agent that uses the paranoid alpha-beta strategy with the given search reductions. **/
+  public static AgentBrutus createParanoid(String suffix, CombinedGameConstants constants, SearchReductions reductions) {
+    return new AgentBrutus(
+        "Paranoid" + suffix, constants, (gameConstants, ply) -> new ParanoidStrat(gameConstants, ply, reductions)
+    );
+  }
+
+  /** @return a Brutus agent that uses the max^n strategy with shallow pruning. **/
+  public static AgentBrutus createMaxN() {
+    return new AgentBrutus("MaxN", CombinedGameConstants.createDefault(), MaxNStrat::new);
+  }
+
+  /** @return a Brutus agent that uses the Best-Reply Search strategy. **/
+  public static AgentBrutus createBestReplySearch() {
+    return new AgentBrutus("BRS", CombinedGameConstants.createDefault(), BestReplySearchStrat::new);
+  }
+
+  /** @return a Brutus agent that uses the Best-Reply Search strategy with the given search reductions. **/
+  public static AgentBrutus createBestReplySearch(
+      String suffix, CombinedGameConstants constants, SearchReductions reductions) {
+
+    return new AgentBrutus(
+        "BRS" + suffix, constants, (gameConstants, ply) -> new BestReplySearchStrat(gameConstants, ply, reductions)
+    );
+  }
+
+  /**
+   * Lazy SMP runs the same iterative deepening on {@param helperThreads} helper threads alongside the
+   * main thread, starting at staggered depths. The helpers fill the shared transposition table with
+   * results that the main thread can re-use, and the move found by the main thread is always used.
+   *
+   * @return a Brutus agent that uses the maximax strategy with Lazy SMP parallel search.
+   */
+  public static AgentBrutus createLazySMP(int helperThreads) {
+    return new AgentBrutus(
+        "LazySMP" + helperThreads, CombinedGameConstants.createDefault(), MaximaxStrat::new, helperThreads
+    );
+  }
+
+  /** @return a Brutus agent that uses Monte-Carlo Tree Search for the whole of its time budget each turn. **/
+  public static AgentBrutus createMcts() {
+    return new AgentBrutus("MCTS", CombinedGameConstants.createDefault(), (constants, ply) -> new MctsStrat(constants));
+  }
+
+  /** @return a Brutus agent that uses Monte-Carlo Tree Search with {@param threads} threads sharing one tree. **/
+  public static AgentBrutus createTreeParallelMcts(int threads) {
+    return new AgentBrutus(
+        "TreeMCTS" + threads, CombinedGameConstants.createDefault(),
+        (constants, ply) -> new TreeParallelMctsStrat(constants, threads)
+    );
+  }
+
+  /** @return a Brutus agent that uses Monte-Carlo Tree Search with {@param threads} threads searching independent trees. **/
+  public static AgentBrutus createRootParallelMcts(int threads) {
+    return new AgentBrutus(
+        "RootMCTS" + threads, CombinedGameConstants.createDefault(),
+        (constants, ply) -> new RootParallelMctsStrat(constants, threads)
+    );
+  }
+
   /** @return a Brutus agent that uses the minimax strategy with no frills attached. **/
   public static AgentBrutus createMinimax() {
     return new AgentBrutus("Minimax", CombinedGameConstants.createDefault(), MinimaxStrat::new);
@@ -114,13 +251,11 @@ public class AgentBrutus extends Agent {
 
   /** @return an identical clone of this agent. **/
   @Override public AgentBrutus clone() {
-    return new AgentBrutus(suffix, constants.clone(), strategyGenerator);
+    return new AgentBrutus(suffix, constants.clone(), strategyGenerator, helperThreads, transpositionTableCapacity);
   }
 
   /** @return the best available move as considered by this agent's strategy in the remaining time. **/
   @Override public Position[] playMove(Board board) {
-    GameLogic.totalMoves = 0;
-
     // Record the total amount of time we have to spend for the game.
     boolean isFirstMove = (board.getMoveCount() < 3);
     if (isFirstMove) {
@@ -140,21 +275,112 @@ public class AgentBrutus extends Agent {
     initialState.computeAvailableMoves(availableMoves);
     constants.updateUtilities(initialState);
 
+    // The utilities of positions change every turn, so we cannot re-use the results of previous searches.
+    TranspositionTable transpositionTable = getTranspositionTable();
+    if (transpositionTable != null) {
+      transpositionTable.newSearch();
+    }
+
     // Check if any of the initial moves are winning.
     for (Move move : availableMoves) {
-      moveState.copyFrom(initialState);
-      moveState.applyMove(move);
+      long undo = initialState.makeMove(move);
+      boolean isWin = (initialState.gameOverPacked != 0);
+      initialState.unmakeMove(move, undo);
 
       // Instant win! Take this move.
-      if (moveState.gameOverPacked != 0)
+      if (isWin)
         return GameConstants.convertMoveToPositions(move);
     }
 
-    // Use iterative deepening to determine the best move to take.
-    Move move = performIterativeDeepening(board);
+    // Use iterative deepening to determine the best move to take, with any helpers searching alongside us.
+    List<Future<?>> helpers = startHelpers();
+    Move move;
+    try {
+      move = performIterativeDeepening(board);
+    } finally {
+      stopHelpers(helpers);
+    }
     return GameConstants.convertMoveToPositions(move);
   }
 
+  /**
+   * @return the transposition table shared by all of the strategies, which is created and given to them
+   *         the first time this is called, or null if the strategies do not use a transposition table.
+   */
+  private TranspositionTable getTranspositionTable() {
+    if (transpositionTable == null && transpositionTableCapacity > 0 && strategies[0].usesTranspositionTable()) {
+      transpositionTable = new TranspositionTable(transpositionTableCapacity);
+      for (MoveStrat strategy : strategies) {
+        strategy.setTranspositionTable(transpositionTable);
+      }
+      for (MoveStrat[] helperStrategies : this.helperStrategies) {
+        for (MoveStrat strategy : helperStrategies) {
+          strategy.setTranspositionTable(transpositionTable);
+        }
+      }
+    }
+    return transpositionTable;
+  }
+
+  /** @return the futures of the helper threads' searches, after starting them from the initial state. **/
+  private List<Future<?>> startHelpers() {
+    List<Future<?>> helpers = new ArrayList<>(helperThreads);
+    if (helperThreads > 0 && helperExecutor == null) {
+      helperExecutor = Executors.newFixedThreadPool(helperThreads, runnable -> {
+        Thread thread = new Thread(runnable, name + "-Helper");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    for (int helper = 0; helper < helperThreads; ++helper) {
+      int helperIndex = helper;
+      helperStates[helper].copyFrom(initialState);
+      helpers.add(helperExecutor.submit(() -> runHelper(helperIndex)));
+    }
+    return helpers;
+  }
+
+  /**
+   * Runs iterative deepening on a helper thread until it is stopped. The helpers start one or
+   * two ply deeper than the main thread, so that they are searching ahead of it to fill the
+   * transposition table, and so that they are not all searching the same depth at the same time.
+   */
+  private void runHelper(int helper) {
+    MoveStrat[] strategies = helperStrategies[helper];
+    GameState state = helperStates[helper];
+    int startPly = (TESTING_CUTOFF_DEPTH > 0 ? TESTING_CUTOFF_DEPTH : INITIAL_PLY) + 1 + (helper % 2);
+    try {
+      for (int ply = startPly; ply <= MAX_PLY; ++ply) {
+        strategies[ply - 1].decideMove(state);
+      }
+    } catch (MoveStrat.SearchStoppedException e) {
+      // The main thread has decided its move.
+    }
+  }
+
+  /** Stops the searches of the helper threads, and waits for them to finish. **/
+  private void stopHelpers(List<Future<?>> helpers) {
+    for (MoveStrat[] strategies : helperStrategies) {
+      for (MoveStrat strategy : strategies) {
+        strategy.stop();
+      }
+    }
+    for (Future<?> helper : helpers) {
+      try {
+        helper.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException e) {
+        throw new RuntimeException("Exception in helper search thread", e.getCause());
+      }
+    }
+    for (MoveStrat[] strategies : helperStrategies) {
+      for (MoveStrat strategy : strategies) {
+        strategy.resume();
+      }
+    }
+  }
+
   /** Uses iterative deepening to evaluate  **/
   private Move performIterativeDeepening(Board board) {
     // Check how much time we have available and if we don't have much left then don't use as much time.
@@ -166,58 +392,86 @@ public class AgentBrutus extends Agent {
     // Use iterative-deepening to determine a move using this agent's strategy.
     Move result = availableMoves.get(random.nextInt(availableMoves.size()));
 
-    int ply = TESTING_CUTOFF_DEPTH > 0 ? TESTING_CUTOFF_DEPTH : INITIAL_PLY;
-    long lastPly = 0, lastPlyDuration = 0;
-    long start = System.nanoTime();
-    long elapsed, remaining, plyStart, plyDuration, nextPlyDuration;
-    do {
-      plyStart = System.nanoTime();
+    // Every strategy gives up its search at the deadline, so we can keep deepening until the time runs out.
+    // Fixed ply tests are never aborted, so that they always reach their ply.
+    long deadlineNanos = (TESTING_CUTOFF_DEPTH > 0 ? 0 : System.nanoTime() + targetNanosPerTurn);
+    for (MoveStrat strategy : strategies) {
+      strategy.setDeadline(deadlineNanos);
+    }
+
+    // Anytime strategies do not need to be deepened, they just use all of the time we have for this turn.
+    MoveStrat anytimeStrategy = strategies[0];
+    if (anytimeStrategy.isAnytime()) {
+      Move move = anytimeStrategy.decideMove(initialState);
+      moveCount += 1;
+      return move != null ? move : result;
+    }
 
-      // Test the current ply.
+    int ply = TESTING_CUTOFF_DEPTH > 0 ? TESTING_CUTOFF_DEPTH : INITIAL_PLY;
+    int completedPly = 0;
+    for (; ply <= MAX_PLY; ++ply) {
+      // Each ply starts by searching the best moves and the principal variation of the last completed ply.
       MoveStrat strategy = strategies[ply - 1];
-      Move move = strategy.decideMove(initialState);
-      if (move != null) {
-        result = move;
+      strategy.setPreviousSearch(completedPly > 0 ? strategies[completedPly - 1] : null);
+      try {
+        Move move = strategy.decideMove(initialState);
+        if (move != null) {
+          result = move;
+        }
+        completedPly = ply;
+      } catch (MoveStrat.SearchStoppedException e) {
+        // The deadline passed part way through this ply. The best of the root moves that were finished is at least
+        // as good as the move from the last completed ply if that move was one of them, so then we can use it. The
+        // move from the last completed ply is searched first, so this is the case unless no moves were finished.
+        Move partialMove = strategy.getPartialBestMove();
+        if (partialMove != null && (completedPly == 0 || strategy.hasFinishedRootMove(result))) {
+          result = partialMove;
+        }
+        break;
       }
 
       // Used to test the agent at a fixed depth.
       if (ply == TESTING_CUTOFF_DEPTH)
         break;
+    }
 
-      // Calculate how long it took to compute this ply value.
-      plyDuration = System.nanoTime() - plyStart;
-      elapsed = System.nanoTime() - start;
-      remaining = targetNanosPerTurn - elapsed;
-
-      // We use the time difference between ply values to estimate the duration of higher ply values.
-      // Default to a value of 1 for the first ply value as we almost always want to promote from it by 2.
-      long plyTimeMul = (lastPly > 0 ? (plyDuration + lastPlyDuration - 1) / lastPlyDuration : 0);
-      if (ply - lastPly == 2) {
-        plyTimeMul = (long) Math.ceil(Math.pow(plyTimeMul, 0.4));
-      }
-      plyTimeMul = Math.max(1, plyTimeMul) + 4; // Fail-safe minimum value
-      lastPly = ply;
-      lastPlyDuration = plyDuration;
-
-      // We predict how long 1 ply value higher would take.
-      // If its below our remaining time, we deepen to check it.
-      nextPlyDuration = plyTimeMul * plyDuration;
-      if (nextPlyDuration >= remaining)
-        break;
-
-      ply += 1;
-    } while (ply < MAX_PLY);
-
-    plySum += ply;
+    plySum += completedPly;
     moveCount += 1;
     return result;
   }
 
+  /** @return the total number of moves made by the strategies of this agent and its helper threads. **/
+  public long getTotalMoves() {
+    long totalMoves = 0;
+    for (MoveStrat strategy : strategies) {
+      totalMoves += strategy.getTotalMoves();
+    }
+    for (MoveStrat[] strategies : helperStrategies) {
+      for (MoveStrat strategy : strategies) {
+        totalMoves += strategy.getTotalMoves();
+      }
+    }
+    return totalMoves;
+  }
+
   /** @return the name of this agent. **/
   @Override public String toString() {
     return name;
   }
 
-  /** Unused. **/
-  @Override public void finalBoard(Board finalBoard) {}
+  /** Shuts down the threads used to search, which are started again if this agent plays another game. **/
+  @Override public void finalBoard(Board finalBoard) {
+    if (helperExecutor != null) {
+      helperExecutor.shutdown();
+      helperExecutor = null;
+    }
+    for (MoveStrat strategy : strategies) {
+      strategy.releaseThreads();
+    }
+    for (MoveStrat[] strategies : helperStrategies) {
+      for (MoveStrat strategy : strategies) {
+        strategy.releaseThreads();
+      }
+    }
+  }
 }
@@ -9,6 +9,7 @@ import threeChess.agents.GameLogic.GameConstants;
 import threeChess.agents.GameLogic.CombinedGameConstants;
 import threeChess.agents.strategy.MaximaxStrat;
 import threeChess.agents.strategy.MoveStrat;
+import threeChess.agents.strategy.ParallelRootStrat;
 
 /**
  * A fixed-depth agent that uses maximax and optionally a custom utility function.
@@ -23,6 +24,8 @@ public final class AgentFixedPly extends Agent {
   public final int ply;
   /** The game constants used by this agent to evaluate states. **/
   public final CombinedGameConstants constants;
+  /** The number of threads that the root moves are split between. **/
+  public final int threads;
 
   /** The state object used to hold the initial board state. **/
   private final GameState initialState;
@@ -33,12 +36,28 @@ public final class AgentFixedPly extends Agent {
   public int consecutiveKeeps = 0;
 
   public AgentFixedPly(String name, int ply, CombinedGameConstants constants) {
+    this(name, ply, constants, 1);
+  }
+
+  /**
+   * @param threads the number of threads to split the root moves between,
+   *                using the common ForkJoinPool if more than one.
+   */
+  public AgentFixedPly(String name, int ply, CombinedGameConstants constants, int threads) {
+    if (threads <= 0)
+      throw new IllegalArgumentException("threads must be positive");
+
     this.name = name;
     this.ply = ply;
     this.constants = constants;
+    this.threads = threads;
 
     this.initialState = new GameState(constants);
-    this.strategy = new MaximaxStrat(constants, ply);
+    if (threads > 1) {
+      this.strategy = new ParallelRootStrat(constants, ply, MaximaxStrat::new, threads);
+    } else {
+      this.strategy = new MaximaxStrat(constants, ply);
+    }
   }
 
   /** Updates the name of this agent. **/
@@ -48,7 +67,7 @@ public final class AgentFixedPly extends Agent {
 
   /** @return an identical clone of this agent. **/
   @Override public AgentFixedPly clone() {
-    return new AgentFixedPly(name, ply, constants);
+    return new AgentFixedPly(name, ply, constants, threads);
   }
 
   /** @return a greedy agent, which is equivalent to a one-ply maximax agent. **/
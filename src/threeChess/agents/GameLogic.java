@@ -18,6 +18,14 @@ import java.util.*;
  * - Move skipping within these move lists when one move failing implies several more failing.
  *   This is available for bishop, rook, and queen moves where they can move many places at a time.
  * - Piece packing into one byte per position on the board, allowing quick iteration and copying of states.
+ * - Making and unmaking moves on a single state during searches, instead of copying a new state for every move.
+ * - Bitboards of the squares occupied by each colour and piece type, so that
+ *   the pieces of the current agent can be found without scanning the whole board.
+ * - Move packing into one int, so that moves can be checked using table lookups in the search
+ *   loops instead of instanceof checks and virtual calls on the Move classes.
+ * - Zobrist hashing of states that is updated incrementally as moves are made, as a key for caches.
+ * - Bitboards of the squares each piece could attack each square from on an empty board, so that
+ *   the attackers of a square are found using a few bitboard operations instead of scanning moves.
  * - Use of numbers always instead of the PieceType or Colour enums, as numbers are faster than references.
  *
  * Some of the micro-optimisations used are explained in
@@ -29,9 +37,6 @@ public class GameLogic {
 
   private static final Random random = new Random();
 
-  /** Counts the total number of moves that have been evaluated. **/
-  public static long totalMoves = 0;
-
   /**
    * A game state implementation that has been programmed for speed.
    */
@@ -53,6 +58,20 @@ public class GameLogic {
      */
     public final byte[] pieces = new byte[GameConstants.totalSquares];
 
+    /**
+     * Bitboards of the squares occupied by each colour, kept in sync with {@link #pieces}.
+     * Each colour uses two longs, the first holding squares 0 to 63, and the second
+     * holding squares 64 to 95. Therefore, the bitboard for a square is found at
+     * index (colour << 1) | (square >> 6), and its bit is 1L << square.
+     *
+     * This allows jumping straight to the pieces of a colour using
+     * Long.numberOfTrailingZeros, instead of scanning all 96 squares.
+     */
+    public final long[] colourBitboards = new long[GameConstants.numColours * 2];
+
+    /** Bitboards of the squares occupied by each piece type, using the same layout as {@link #colourBitboards}. **/
+    public final long[] typeBitboards = new long[GameConstants.numPieces * 2];
+
     /** The colour of the agent whose turn it currently is. **/
     public int turnColour = -1;
 
@@ -63,14 +82,70 @@ public class GameLogic {
      */
     public int gameOverPacked = 0;
 
+    /**
+     * The Zobrist hash of the pieces on the board and the colour whose turn it is.
+     * This is updated incrementally as moves are made, using the keys in
+     * {@link GameConstants#zobristPieceKeys} and {@link GameConstants#zobristTurnKeys}.
+     */
+    public long hash = 0;
+
+    /**
+     * Counts the total number of moves that have been made on this state. This is kept separately
+     * for each state, so that states searched on different threads never write to the same counter.
+     */
+    public long totalMoves = 0;
+
     /** The computed utility values for each agent. **/
     public final int[] agentUtilities = new int[GameConstants.numColours];
 
     /** The constants that should be used for keeping track of utility of states. **/
     public final GameConstants constants;
+    /** Whether {@link #hash} is kept up to date, which is only disabled to measure the cost of hashing. **/
+    private final boolean hashing;
+
+    /**
+     * A stack of the utilities before each move made using {@link #makeMove(Move)},
+     * so that they can be restored by {@link #unmakeMove(Move, long)}.
+     */
+    private int[] undoUtilities = new int[3 /* numColours */ * 16];
+    /** A stack of the hashes before each move made using {@link #makeMove(Move)}. **/
+    private long[] undoHashes = new long[16];
+    /** The number of moves that are currently recorded in {@link #undoUtilities} and {@link #undoHashes}. **/
+    private int undoCount = 0;
+
+    /** The maximum number of captures that are played out by {@link #computeExchangeGain}. **/
+    private static final int MAX_EXCHANGE_DEPTH = 8;
+    /** The material value of each piece type, used by {@link #computeExchangeGain}. **/
+    private static final int[] EXCHANGE_VALUES = new int[PieceType.values().length];
+    static {
+      for (PieceType type : PieceType.values()) {
+        EXCHANGE_VALUES[type.ordinal()] = type.getValue();
+      }
+    }
+    /** The material gained by each colour at each depth of {@link #computeExchangeGain}. **/
+    private final int[][] exchangeGains = new int[MAX_EXCHANGE_DEPTH + 1][GameConstants.numColours];
+    /**
+     * Exchange Attackers:
+     *  exchangeAttackerValues  - The values of the pieces of each colour that attack the square of the exchange.
+     *  exchangeAttackerCounts  - The number of pieces of each colour that attack the square of the exchange.
+     *  exchangeNextAttackers   - The index of the next piece of each colour to capture in the exchange being resolved.
+     */
+    private final int[][] exchangeAttackerValues = new int[GameConstants.numColours][16 /* max pieces per colour */];
+    private final int[] exchangeAttackerCounts = new int[GameConstants.numColours];
+    private final int[] exchangeNextAttackers = new int[GameConstants.numColours];
 
     public GameState(GameConstants constants) {
+      this(constants, true);
+    }
+
+    /**
+     * @param constants the constants used to keep track of the utility of this state.
+     * @param hashing whether to keep {@link #hash} up to date, which must be true for this state to be
+     *                used with a transposition table, and is only false to benchmark the cost of hashing.
+     */
+    public GameState(GameConstants constants, boolean hashing) {
       this.constants = constants;
+      this.hashing = hashing;
     }
 
     /** Copies the state of {@param board} into this state. **/
@@ -82,33 +157,37 @@ public class GameLogic {
         this.gameOverPacked = 0;
       }
       Arrays.fill(pieces, (byte) 0);
+      Arrays.fill(colourBitboards, 0);
+      Arrays.fill(typeBitboards, 0);
 
       for (Position position : Position.values()) {
         Piece piece = board.getPiece(position);
         if (piece != null) {
           int index = GameConstants.getIndex(position);
-          pieces[index] = (byte) (32 | (piece.getType().ordinal() << 2) | piece.getColour().ordinal());
+          int colour = piece.getColour().ordinal();
+          int type = piece.getType().ordinal();
+          pieces[index] = (byte) (32 | (type << 2) | colour);
+
+          // Java only uses the low 6 bits of the shift distance, so 1L << index selects the bit within its half.
+          colourBitboards[(colour << 1) | (index >> 6)] |= 1L << index;
+          typeBitboards[(type << 1) | (index >> 6)] |= 1L << index;
         }
       }
       calculateUtilities();
+      hash = (hashing ? calculateHash() : 0);
+      undoCount = 0;
     }
 
     /** Copies the state of {@param state} into this state. **/
     public final void copyFrom(GameState state) {
       System.arraycopy(state.pieces, 0, pieces, 0, 96 /* totalSquares */);
+      System.arraycopy(state.colourBitboards, 0, colourBitboards, 0, 6 /* numColours * 2 */);
+      System.arraycopy(state.typeBitboards, 0, typeBitboards, 0, 12 /* numPieces * 2 */);
       System.arraycopy(state.agentUtilities, 0, agentUtilities, 0, 3 /* numColours */);
       gameOverPacked = state.gameOverPacked;
       turnColour = state.turnColour;
-    }
-
-    /**
-     * Copies SOME LIMITED STATE from {@param state} into this state.
-     * Specifically, this avoids copying any state specific to the pieces on the board.
-     */
-    public void softCopyFrom(GameState state) {
-      System.arraycopy(state.agentUtilities, 0, agentUtilities, 0, 3 /* numColours */);
-      gameOverPacked = state.gameOverPacked;
-      turnColour = state.turnColour;
+      hash = (hashing ? state.hash : 0);
+      undoCount = 0;
     }
 
     /** Applies the move {@param move} to this state. **/
@@ -133,13 +212,199 @@ public class GameLogic {
 
       // Advance the turn to the next agent.
       if (gameOverPacked == 0) {
-        turnColour = (byte) ((turnColour + 1 + ((turnColour + 2) >> 2)) & 3);
+        if (hashing) {
+          hash ^= GameConstants.zobristNextTurnKeys[turnColour];
+        }
+        turnColour = (turnColour + 1 + ((turnColour + 2) >> 2)) & 3;
       } else {
         // Update to the game over utilities.
         calculateUtilities();
       }
     }
 
+    /**
+     * Applies the move {@param move} to this state, in a way that can be reversed using {@link #unmakeMove(Move, long)}.
+     * This allows searches to use a single state, instead of copying a new state for every move they check.
+     *
+     * The previous utilities are pushed onto a stack within this state, and the rest of the
+     * state that is needed to undo the move is packed into the returned undo record.
+     *
+     * Undo Record Bits:
+     *  ... R G G G G T T C C C C C C C C
+     *
+     * C - The piece byte that was captured by this move, or 0 if no piece was captured.
+     * T - The colour whose turn it was before this move.
+     * G - The value of gameOverPacked before this move.
+     * R - 1 if a pawn was promoted to a queen by this move, 0 otherwise.
+     *
+     * @return the undo record to be passed to {@link #unmakeMove(Move, long)} to reverse this move.
+     */
+    public final long makeMove(Move move) {
+      return makeMove(move.packed);
+    }
+
+    /**
+     * Applies the packed move {@param move} to this state, in a way that can be reversed using
+     * {@link #unmakeMove(int, long)}. See {@link #makeMove(Move)} for the undo record that is returned.
+     */
+    public final long makeMove(int move) {
+      // Push the utilities onto the undo stack.
+      int[] agentUtilities = this.agentUtilities;
+      int[] undoUtilities = this.undoUtilities;
+      int undoIndex = undoCount * (3 /* numColours */);
+      if (undoIndex == undoUtilities.length) {
+        undoUtilities = Arrays.copyOf(undoUtilities, 2 * undoUtilities.length);
+        this.undoUtilities = undoUtilities;
+        undoHashes = Arrays.copyOf(undoHashes, 2 * undoHashes.length);
+      }
+      undoUtilities[undoIndex] = agentUtilities[0];
+      undoUtilities[undoIndex + 1] = agentUtilities[1];
+      undoUtilities[undoIndex + 2] = agentUtilities[2];
+      undoHashes[undoCount] = hash;
+      undoCount += 1;
+
+      // Record everything else that the move overwrites.
+      int fromIndex = move & 127;
+      int toIndex = (move >> 7) & 127;
+      long undo = (pieces[toIndex] & 255) | (turnColour & 3) << 8 | gameOverPacked << 10;
+      totalMoves += 1;
+
+      // Move the rook if this is a castling move.
+      int kind = (move >> 14) & 7;
+      if (kind >= 5 /* CASTLE_LEFT */) {
+        int rowStart = fromIndex - 4;
+        if (kind == 5 /* CASTLE_LEFT */) {
+          movePiece(rowStart, rowStart + 3);
+        } else {
+          movePiece(rowStart + 7, rowStart + 5);
+        }
+      }
+
+      // Move the piece, and promote it to a queen if needed in a pawn move.
+      movePiece(fromIndex, toIndex);
+      if ((move & (1 << 17)) != 0) {
+        promoteToQueen(toIndex);
+        undo |= 1 << 14;
+      }
+
+      // Advance the turn to the next agent.
+      if (gameOverPacked == 0) {
+        if (hashing) {
+          hash ^= GameConstants.zobristNextTurnKeys[turnColour];
+        }
+        turnColour = (turnColour + 1 + ((turnColour + 2) >> 2)) & 3;
+      } else {
+        // Update to the game over utilities.
+        calculateUtilities();
+      }
+      return undo;
+    }
+
+    /**
+     * Passes the turn to the next agent without making a move, so that searches can skip the turns of agents.
+     * This must be reversed using {@link #unpassTurn()}, in the same order as the moves made around it.
+     */
+    public final void passTurn() {
+      if (hashing) {
+        hash ^= GameConstants.zobristNextTurnKeys[turnColour];
+      }
+      turnColour = (turnColour + 1 + ((turnColour + 2) >> 2)) & 3;
+    }
+
+    /** Reverses the pass of the turn by {@link #passTurn()}, returning the turn to the previous agent. **/
+    public final void unpassTurn() {
+      turnColour = (turnColour + 2) % 3;
+      if (hashing) {
+        hash ^= GameConstants.zobristNextTurnKeys[turnColour];
+      }
+    }
+
+    /**
+     * Reverses the move {@param move} that was applied to this state using {@link #makeMove(Move)}.
+     * Moves must be unmade in the reverse order to that in which they were made.
+     *
+     * @param undo the undo record that was returned by {@link #makeMove(Move)}.
+     */
+    public final void unmakeMove(Move move, long undo) {
+      unmakeMove(move.packed, undo);
+    }
+
+    /**
+     * Reverses the packed move {@param move} that was applied to this state using {@link #makeMove(int)}.
+     * Moves must be unmade in the reverse order to that in which they were made.
+     *
+     * @param undo the undo record that was returned by {@link #makeMove(int)}.
+     */
+    public final void unmakeMove(int move, long undo) {
+      // We pre-cache these fields to avoid reading them many times.
+      byte[] pieces = this.pieces;
+      long[] colourBitboards = this.colourBitboards;
+      long[] typeBitboards = this.typeBitboards;
+      int fromIndex = move & 127;
+      int toIndex = (move >> 7) & 127;
+      int fromHalf = fromIndex >> 6;
+      int toHalf = toIndex >> 6;
+
+      // Find the piece that was moved, reverting it to a pawn if it was promoted.
+      byte movedPiece = pieces[toIndex];
+      int colour = movedPiece & 3;
+      int toType = (movedPiece >> 2) & 7;
+      int fromType = toType;
+      if ((undo & (1 << 14)) != 0) {
+        fromType = 0 /* PAWN */;
+        movedPiece = (byte) (32 /* P-Bit | (PAWN (0) << 2) */ | colour);
+      }
+
+      // Move the piece back.
+      pieces[fromIndex] = movedPiece;
+      colourBitboards[(colour << 1) | toHalf] &= ~(1L << toIndex);
+      colourBitboards[(colour << 1) | fromHalf] |= 1L << fromIndex;
+      typeBitboards[(toType << 1) | toHalf] &= ~(1L << toIndex);
+      typeBitboards[(fromType << 1) | fromHalf] |= 1L << fromIndex;
+
+      // Restore the piece that was captured.
+      byte capturedPiece = (byte) undo;
+      pieces[toIndex] = capturedPiece;
+      if (capturedPiece != 0) {
+        int capturedColour = capturedPiece & 3;
+        int capturedType = (capturedPiece >> 2) & 7;
+        colourBitboards[(capturedColour << 1) | toHalf] |= 1L << toIndex;
+        typeBitboards[(capturedType << 1) | toHalf] |= 1L << toIndex;
+      }
+
+      // Move the rook back if this was a castling move. There is never a capture when castling.
+      int kind = (move >> 14) & 7;
+      if (kind >= 5 /* CASTLE_LEFT */) {
+        int rowStart = fromIndex - 4;
+        if (kind == 5 /* CASTLE_LEFT */) {
+          unmakeCastleRook(rowStart, rowStart + 3, colour);
+        } else {
+          unmakeCastleRook(rowStart + 7, rowStart + 5, colour);
+        }
+      }
+
+      // Restore the turn, game over state, hash, and utilities.
+      turnColour = (int) (undo >> 8) & 3;
+      gameOverPacked = (int) (undo >> 10) & 15;
+      int[] agentUtilities = this.agentUtilities;
+      hash = undoHashes[undoCount -= 1];
+      int undoIndex = undoCount * (3 /* numColours */);
+      agentUtilities[0] = undoUtilities[undoIndex];
+      agentUtilities[1] = undoUtilities[undoIndex + 1];
+      agentUtilities[2] = undoUtilities[undoIndex + 2];
+    }
+
+    /** Moves the rook of {@param colour} that was castled from {@param castleIndex} to {@param rookPlaceIndex} back. **/
+    private void unmakeCastleRook(int castleIndex, int rookPlaceIndex, int colour) {
+      pieces[castleIndex] = pieces[rookPlaceIndex];
+      pieces[rookPlaceIndex] = 0;
+      // Castling always happens within the first 64 squares, or the last 32 squares.
+      int rookHalf = castleIndex >> 6;
+      long rookBits = (1L << castleIndex) | (1L << rookPlaceIndex);
+      colourBitboards[(colour << 1) | rookHalf] ^= rookBits;
+      typeBitboards[(3 /* ROOK */ << 1) | rookHalf] ^= rookBits;
+    }
+
     /** @return the utility of this state for the agent with the given colour {@param colour}. **/
     public final int getUtility(int colour) {
       return agentUtilities[colour];
@@ -150,46 +415,195 @@ public class GameLogic {
       availableMoves.clear();
 
       // We pre-cache these fields to avoid reading them many times.
-      int agentColour = this.turnColour;
+      int colour = this.turnColour;
       byte[] pieces = this.pieces;
+      long[] colourBitboards = this.colourBitboards;
       Move[] potentialMoves = GameConstants.potentialMovesFlattened;
       int[] potentialMoveDirectives = GameConstants.potentialMovesFlattenedDirectives;
 
-      // Loop through all of the possible moves, and add them to the list of available moves.
-      int pieceIndex = agentColour * (576 /* pieceIndexStride */) - (6 /* numPieces */);
-      for (int index = 0; index < 96 /* totalSquares */; ++index) {
-        pieceIndex += 6 /* numPieces */;
+      // Loop through all of the pieces of the current agent, and add their moves to the list of available moves.
+      int basePieceIndex = colour * (576 /* pieceIndexStride */);
+      for (int half = 0; half < 2; ++half) {
+        long remaining = colourBitboards[(colour << 1) | half];
+        while (remaining != 0) {
+          int bit = Long.numberOfTrailingZeros(remaining);
+          remaining &= remaining - 1;
+          int index = (half << 6) | bit;
+          int type = (pieces[index] >> 2) & 7;
+
+          // Find the potential move array for this piece.
+          int directive = potentialMoveDirectives[basePieceIndex + index * (6 /* numPieces */) + type];
+          int fromIndex = directive >> 8;
+          int length = directive & 255;
+          for (int moveIndex = 0; moveIndex < length; ++moveIndex) {
+            Move move = potentialMoves[fromIndex + moveIndex];
+
+            byte toPiece = pieces[move.toIndex];
+            int toColour = toPiece & 3;
+            // For MoveMany moves we can skip forward moves when we hit a piece.
+            if (move instanceof MoveMany) {
+              if (toPiece != 0) {
+                moveIndex = ((MoveMany) move).skipIndex - 1;
+                if (toColour == colour)
+                  continue;
+              }
+            } else if ((toPiece != 0 && toColour == colour) || !move.isValidMove(this))
+              continue;
 
-        // Find the colour and type of this index, and filter out empty squares and pieces we can't move.
-        byte piece = pieces[index];
-        int colour = piece & 3;
-        if (piece == 0 || colour != turnColour)
-          continue;
-        int type = (piece >> 2) & 7;
+            // This move is valid.
+            availableMoves.add(move);
+          }
+        }
+      }
+    }
 
-        // Find the potential move array for this piece.
-        int directive = potentialMoveDirectives[pieceIndex + type];
-        int fromIndex = directive >> 8;
-        int length = directive & 255;
-        for (int moveIndex = 0; moveIndex < length; ++moveIndex) {
-          Move move = potentialMoves[fromIndex + moveIndex];
+    /**
+     * Checks the packed move {@param move} using table lookups instead of a virtual call to {@link Move#isValidMove}.
+     * This method assumes that the piece at its toIndex does not have the same colour as the piece at its fromIndex.
+     * MoveMany moves are always reported as valid, as they are instead checked by skipping forward
+     * through the moves array when a piece is hit.
+     *
+     * @return whether the packed move {@param move} can be applied to this state.
+     */
+    public final boolean isValidMove(int move) {
+      byte[] pieces = this.pieces;
+      int fromIndex = move & 127;
+      int toIndex = (move >> 7) & 127;
+      switch ((move >> 14) & 7) {
+        case 0 /* PAWN_ONE_FORWARD */:
+          return pieces[toIndex] == 0;
+        case 1 /* PAWN_TWO_FORWARD */:
+          return pieces[fromIndex + 8 /* sideLength */] == 0 && pieces[toIndex] == 0;
+        case 2 /* PAWN_TAKE */:
+          return pieces[toIndex] != 0;
+        case 5 /* CASTLE_LEFT */:
+          return pieces[fromIndex - 4] == (byte) (44 /* P-Bit | (ROOK (3) << 2) */ | (move >>> 29))
+              && pieces[fromIndex - 3] == 0
+              && pieces[fromIndex - 2] == 0
+              && pieces[fromIndex - 1] == 0;
+        case 6 /* CASTLE_RIGHT */:
+          return pieces[fromIndex + 3] == (byte) (44 /* P-Bit | (ROOK (3) << 2) */ | (move >>> 29))
+              && pieces[fromIndex + 2] == 0
+              && pieces[fromIndex + 1] == 0;
+        default /* LEAPER, MANY */:
+          return true;
+      }
+    }
 
-          byte toPiece = pieces[move.toIndex];
-          int toColour = toPiece & 3;
-          // For MoveMany moves we can skip forward moves when we hit a piece.
-          if (move instanceof MoveMany) {
-            if (toPiece != 0) {
-              moveIndex = ((MoveMany) move).skipIndex - 1;
+    /**
+     * Computes the packed available moves from this state into {@param moves}, which
+     * should have a length of at least {@link GameConstants#maxAvailableMoves}.
+     *
+     * @return the number of moves that were written into {@param moves}.
+     */
+    public final int computeAvailableMoves(int[] moves) {
+      return computeAvailableMoves(moves, 0);
+    }
+
+    /**
+     * Computes the packed available moves from this state into {@param moves}, starting at {@param offset}.
+     * This allows the moves of many states to be collected into the one array.
+     *
+     * @return the index after the last move that was written into {@param moves}.
+     */
+    public final int computeAvailableMoves(int[] moves, int offset) {
+      // We pre-cache these fields to avoid reading them many times.
+      int colour = this.turnColour;
+      byte[] pieces = this.pieces;
+      long[] colourBitboards = this.colourBitboards;
+      int[] potentialMoves = GameConstants.potentialMovesPacked;
+      int[] potentialMoveDirectives = GameConstants.potentialMovesFlattenedDirectives;
+
+      // Loop through all of the pieces of the current agent, and add their moves to the buffer.
+      int count = offset;
+      int basePieceIndex = colour * (576 /* pieceIndexStride */);
+      for (int half = 0; half < 2; ++half) {
+        long remaining = colourBitboards[(colour << 1) | half];
+        while (remaining != 0) {
+          int bit = Long.numberOfTrailingZeros(remaining);
+          remaining &= remaining - 1;
+          int index = (half << 6) | bit;
+          int type = (pieces[index] >> 2) & 7;
+
+          // Find the potential move array for this piece.
+          int directive = potentialMoveDirectives[basePieceIndex + index * (6 /* numPieces */) + type];
+          int fromIndex = directive >> 8;
+          int length = directive & 255;
+          for (int moveIndex = 0; moveIndex < length; ++moveIndex) {
+            int move = potentialMoves[fromIndex + moveIndex];
+
+            byte toPiece = pieces[(move >> 7) & 127];
+            int toColour = toPiece & 3;
+            // For MoveMany moves we can skip forward moves when we hit a piece.
+            if (((move >> 14) & 7) == 4 /* MANY */) {
+              if (toPiece != 0) {
+                moveIndex = ((move >> 18) & 255) - 1;
+                if (toColour == colour)
+                  continue;
+              }
+            } else if ((toPiece != 0 && toColour == colour) || !isValidMove(move))
+              continue;
+
+            // This move is valid.
+            moves[count++] = move;
+          }
+        }
+      }
+      return count;
+    }
+
+    /**
+     * Computes the packed capturing moves that are available from this state into {@param moves},
+     * which should have a length of at least {@link GameConstants#maxAvailableMoves}.
+     *
+     * @return the number of moves that were written into {@param moves}.
+     */
+    public final int computeCapturingMoves(int[] moves) {
+      // We pre-cache these fields to avoid reading them many times.
+      int colour = this.turnColour;
+      byte[] pieces = this.pieces;
+      long[] colourBitboards = this.colourBitboards;
+      int[] potentialMoves = GameConstants.potentialMovesPacked;
+      int[] potentialMoveDirectives = GameConstants.potentialMovesFlattenedDirectives;
+
+      // Loop through all of the pieces of the current agent, and add their capturing moves to the buffer.
+      int count = 0;
+      int basePieceIndex = colour * (576 /* pieceIndexStride */);
+      for (int half = 0; half < 2; ++half) {
+        long remaining = colourBitboards[(colour << 1) | half];
+        while (remaining != 0) {
+          int bit = Long.numberOfTrailingZeros(remaining);
+          remaining &= remaining - 1;
+          int index = (half << 6) | bit;
+          int type = (pieces[index] >> 2) & 7;
+
+          // Find the potential move array for this piece.
+          int directive = potentialMoveDirectives[basePieceIndex + index * (6 /* numPieces */) + type];
+          int fromIndex = directive >> 8;
+          int length = directive & 255;
+          for (int moveIndex = 0; moveIndex < length; ++moveIndex) {
+            int move = potentialMoves[fromIndex + moveIndex];
+
+            // We are only concerned with capturing moves.
+            byte toPiece = pieces[(move >> 7) & 127];
+            if (toPiece == 0)
+              continue;
+            int toColour = toPiece & 3;
+
+            // For MoveMany moves we can skip forward moves when we hit a piece.
+            if (((move >> 14) & 7) == 4 /* MANY */) {
+              moveIndex = ((move >> 18) & 255) - 1;
               if (toColour == colour)
                 continue;
-            }
-          } else if ((toPiece != 0 && toColour == colour) || !move.isValidMove(this))
-            continue;
+            } else if (toColour == colour || !isValidMove(move))
+              continue;
 
-          // This move is valid.
-          availableMoves.add(move);
+            // This move is valid.
+            moves[count++] = move;
+          }
         }
       }
+      return count;
     }
 
     /** Computes the list of capturing moves that are available from this state into {@param capturingMoves}. **/
@@ -197,48 +611,282 @@ public class GameLogic {
       capturingMoves.clear();
 
       // We pre-cache these fields to avoid reading them many times.
-      int agentColour = this.turnColour;
+      int colour = this.turnColour;
       byte[] pieces = this.pieces;
+      long[] colourBitboards = this.colourBitboards;
       Move[] potentialMoves = GameConstants.potentialMovesFlattened;
       int[] potentialMoveDirectives = GameConstants.potentialMovesFlattenedDirectives;
 
-      // Loop through all of the possible moves, and add them to the list of available moves.
-      int pieceIndex = agentColour * (576 /* pieceIndexStride */) - (6 /* numPieces */);
-      for (int index = 0; index < 96 /* totalSquares */; ++index) {
-        pieceIndex += 6 /* numPieces */;
+      // Loop through all of the pieces of the current agent, and add their capturing moves to the set.
+      int basePieceIndex = colour * (576 /* pieceIndexStride */);
+      for (int half = 0; half < 2; ++half) {
+        long remaining = colourBitboards[(colour << 1) | half];
+        while (remaining != 0) {
+          int bit = Long.numberOfTrailingZeros(remaining);
+          remaining &= remaining - 1;
+          int index = (half << 6) | bit;
+          int type = (pieces[index] >> 2) & 7;
+
+          // Find the potential move array for this piece.
+          int directive = potentialMoveDirectives[basePieceIndex + index * (6 /* numPieces */) + type];
+          int fromIndex = directive >> 8;
+          int length = directive & 255;
+          for (int moveIndex = 0; moveIndex < length; ++moveIndex) {
+            Move move = potentialMoves[fromIndex + moveIndex];
+
+            // We are only concerned with capturing moves.
+            byte toPiece = pieces[move.toIndex];
+            if (toPiece == 0)
+              continue;
+            int toColour = toPiece & 3;
 
-        // Find the colour and type of this index, and filter out empty squares and pieces we can't move.
-        byte piece = pieces[index];
-        int colour = piece & 3;
-        if (piece == 0 || colour != turnColour)
-          continue;
-        int type = (piece >> 2) & 7;
+            // For MoveMany moves we can skip forward moves when we hit a piece.
+            if (move instanceof MoveMany) {
+              moveIndex = ((MoveMany) move).skipIndex - 1;
+              if (toColour == colour)
+                continue;
+            } else if (toColour == colour || !move.isValidMove(this))
+              continue;
 
-        // Find the potential move array for this piece.
-        int directive = potentialMoveDirectives[pieceIndex + type];
-        int fromIndex = directive >> 8;
-        int length = directive & 255;
-        for (int moveIndex = 0; moveIndex < length; ++moveIndex) {
-          Move move = potentialMoves[fromIndex + moveIndex];
-
-          // We are only concerned with capturing moves.
-          byte toPiece = pieces[move.toIndex];
-          if (toPiece == 0)
-            continue;
-          int toColour = toPiece & 3;
-
-          // For MoveMany moves we can skip forward moves when we hit a piece.
-          if (move instanceof MoveMany) {
-            moveIndex = ((MoveMany) move).skipIndex - 1;
-            if (toColour == colour)
+            // This move is valid.
+            capturingMoves.add(move);
+          }
+        }
+      }
+    }
+
+    /**
+     * Static exchange evaluation of the capturing packed {@param move} by the agent whose turn it is. This plays
+     * out the captures on the destination square that could follow the move, where each agent in turn may capture
+     * the piece on the square using their least valuable piece that attacks it. With three agents, each agent only
+     * captures if it gains them more material than passing, after which the next agent may capture instead.
+     *
+     * The attackers of the square are found once before the exchange is played out, so the pieces behind the pieces
+     * that recapture are not included, except for those behind the piece making {@param move}. Pins, and the
+     * other moves that the agents could make instead, are ignored.
+     *
+     * @return the material that the agent making {@param move} is expected to gain from the exchange,
+     *         using the values of {@link PieceType#getValue()}. This is negative for losing captures.
+     */
+    public final int computeExchangeGain(int move) {
+      byte[] pieces = this.pieces;
+      int fromIndex = move & 127;
+      int toIndex = (move >> 7) & 127;
+      int colour = (move >> 29) & 3;
+      byte toPiece = pieces[toIndex];
+      int victimValue = (toPiece != 0 ? EXCHANGE_VALUES[(toPiece >> 2) & 7] : 0);
+      int attackerValue = EXCHANGE_VALUES[(move & (1 << 17)) != 0 ? 4 /* QUEEN */ : (move >> 26) & 7];
+
+      // Lift the capturing piece off of its square while finding the attackers, so that the pieces behind it are found.
+      // If neither opponent attacks the square, the captured piece is won without an exchange.
+      byte attacker = pieces[fromIndex];
+      pieces[fromIndex] = 0;
+      if (!isAttacked((colour + 1) % 3, toIndex) && !isAttacked((colour + 2) % 3, toIndex)) {
+        pieces[fromIndex] = attacker;
+        return victimValue;
+      }
+      for (int attackerColour = 0; attackerColour < 3 /* numColours */; ++attackerColour) {
+        findExchangeAttackers(attackerColour, toIndex);
+      }
+      pieces[fromIndex] = attacker;
+
+      int[] gains = resolveExchange(colour, attackerValue, 0);
+      return victimValue + gains[colour];
+    }
+
+    /**
+     * A capture can only lose material if the capturing piece is worth more than the captured piece, as every agent
+     * only continues the exchange if it gains them material. Therefore, the exchange is only evaluated in that case.
+     *
+     * @return whether the capturing packed {@param move} is expected to lose material, as in {@link #computeExchangeGain}.
+     */
+    public final boolean isLosingCapture(int move) {
+      byte toPiece = pieces[(move >> 7) & 127];
+      int victimValue = (toPiece != 0 ? EXCHANGE_VALUES[(toPiece >> 2) & 7] : 0);
+      int attackerValue = EXCHANGE_VALUES[(move & (1 << 17)) != 0 ? 4 /* QUEEN */ : (move >> 26) & 7];
+      return victimValue < attackerValue && computeExchangeGain(move) < 0;
+    }
+
+    /**
+     * Resolves the captures that may follow after a piece of {@param ownerColour} worth {@param ownerValue}
+     * moved onto the square of the exchange. The next agent may capture it, or pass to the agent after them.
+     *
+     * @return the material gained by each colour, which is only valid until the next call at {@param depth}.
+     */
+    private int[] resolveExchange(int ownerColour, int ownerValue, int depth) {
+      int[] gains = exchangeGains[depth];
+      gains[0] = 0;
+      gains[1] = 0;
+      gains[2] = 0;
+      if (depth == MAX_EXCHANGE_DEPTH)
+        return gains;
+
+      // We pre-cache these fields to avoid reading them many times.
+      int[] attackerCounts = exchangeAttackerCounts;
+      int[] nextAttackers = exchangeNextAttackers;
+      int firstColour = (ownerColour + 1) % 3;
+      int secondColour = (ownerColour + 2) % 3;
+
+      // If the first agent passes, the second agent captures if it gains them material.
+      int secondNext = nextAttackers[secondColour];
+      if (secondNext < attackerCounts[secondColour]) {
+        nextAttackers[secondColour] = secondNext + 1;
+        int[] after = resolveExchange(secondColour, exchangeAttackerValues[secondColour][secondNext], depth + 1);
+        nextAttackers[secondColour] = secondNext;
+        if (ownerValue + after[secondColour] > 0) {
+          System.arraycopy(after, 0, gains, 0, 3 /* numColours */);
+          gains[secondColour] += ownerValue;
+          gains[ownerColour] -= ownerValue;
+        }
+      }
+
+      // The first agent captures if it gains them more material than passing.
+      int firstNext = nextAttackers[firstColour];
+      if (firstNext < attackerCounts[firstColour]) {
+        nextAttackers[firstColour] = firstNext + 1;
+        int[] after = resolveExchange(firstColour, exchangeAttackerValues[firstColour][firstNext], depth + 1);
+        nextAttackers[firstColour] = firstNext;
+        if (ownerValue + after[firstColour] > gains[firstColour]) {
+          System.arraycopy(after, 0, gains, 0, 3 /* numColours */);
+          gains[firstColour] += ownerValue;
+          gains[ownerColour] -= ownerValue;
+        }
+      }
+      return gains;
+    }
+
+    /** Finds the values of the pieces of {@param colour} that attack {@param square}, from least to most valuable. **/
+    private void findExchangeAttackers(int colour, int square) {
+      // We pre-cache these fields to avoid reading them many times.
+      long[] colourBitboards = this.colourBitboards;
+      long[] typeBitboards = this.typeBitboards;
+      long[] attackerBitboards = GameConstants.attackerBitboards;
+      int[] attackerValues = exchangeAttackerValues[colour];
+
+      // The piece types are ordered from least to most valuable, so the attackers are found in that order.
+      int count = 0;
+      for (int type = 0; type < 6 /* numPieces */; ++type) {
+        int attackerIndex = ((colour * (6 /* numPieces */) + type) * (96 /* totalSquares */) + square) << 1;
+        for (int half = 0; half < 2; ++half) {
+          long remaining = colourBitboards[(colour << 1) | half] & typeBitboards[(type << 1) | half] & attackerBitboards[attackerIndex | half];
+          while (remaining != 0) {
+            int index = (half << 6) | Long.numberOfTrailingZeros(remaining);
+            remaining &= remaining - 1;
+            if (isAttackUnblocked(index, square)) {
+              attackerValues[count++] = EXCHANGE_VALUES[type];
+            }
+          }
+        }
+      }
+      exchangeAttackerCounts[colour] = count;
+      exchangeNextAttackers[colour] = 0;
+    }
+
+    /**
+     * Computes the squares that are attacked by the pieces of {@param colour} from scratch, and stores them in
+     * {@param attacks} using the same layout as one colour of {@link #colourBitboards}. A square is attacked by a
+     * piece if the piece could capture a piece of another colour on that square, whether or not that capture
+     * would leave its own king in check.
+     */
+    public final void computeAttacks(int colour, long[] attacks) {
+      // We pre-cache these fields to avoid reading them many times.
+      byte[] pieces = this.pieces;
+      int[] potentialMoves = GameConstants.potentialMovesPacked;
+      int[] potentialMoveDirectives = GameConstants.potentialMovesFlattenedDirectives;
+      int basePieceIndex = colour * (576 /* pieceIndexStride */);
+
+      long lowAttacks = 0;
+      long highAttacks = 0;
+      for (int half = 0; half < 2; ++half) {
+        long remaining = colourBitboards[(colour << 1) | half];
+        while (remaining != 0) {
+          int index = (half << 6) | Long.numberOfTrailingZeros(remaining);
+          remaining &= remaining - 1;
+          int type = (pieces[index] >> 2) & 7;
+
+          // Find the potential move array for this piece.
+          int directive = potentialMoveDirectives[basePieceIndex + index * (6 /* numPieces */) + type];
+          int fromIndex = directive >> 8;
+          int length = directive & 255;
+          for (int moveIndex = 0; moveIndex < length; ++moveIndex) {
+            int move = potentialMoves[fromIndex + moveIndex];
+            int toIndex = (move >> 7) & 127;
+
+            // For MoveMany moves we can skip forward moves when we hit a piece, although the piece is still attacked.
+            int kind = (move >> 14) & 7;
+            if (kind == 4 /* MANY */) {
+              if (pieces[toIndex] != 0) {
+                moveIndex = ((move >> 18) & 255) - 1;
+              }
+            } else if (kind != 2 /* PAWN_TAKE */ && kind != 3 /* LEAPER */)
               continue;
-          } else if (toColour == colour || !move.isValidMove(this))
-            continue;
 
-          // This move is valid.
-          capturingMoves.add(move);
+            if (toIndex < 64) {
+              lowAttacks |= 1L << toIndex;
+            } else {
+              highAttacks |= 1L << toIndex;
+            }
+          }
         }
       }
+      attacks[0] = lowAttacks;
+      attacks[1] = highAttacks;
+    }
+
+    /** @return whether any piece of {@param colour} attacks {@param square}, as in {@link #computeAttacks}. **/
+    public final boolean isAttacked(int colour, int square) {
+      for (int type = 0; type < 6 /* numPieces */; ++type) {
+        int attackerIndex = ((colour * (6 /* numPieces */) + type) * (96 /* totalSquares */) + square) << 1;
+        for (int half = 0; half < 2; ++half) {
+          long remaining = colourBitboards[(colour << 1) | half] & typeBitboards[(type << 1) | half]
+              & GameConstants.attackerBitboards[attackerIndex | half];
+          while (remaining != 0) {
+            int index = (half << 6) | Long.numberOfTrailingZeros(remaining);
+            remaining &= remaining - 1;
+            if (isAttackUnblocked(index, square))
+              return true;
+          }
+        }
+      }
+      return false;
+    }
+
+    /** @return the number of pieces of {@param colour} that attack {@param square}, as in {@link #computeAttacks}. **/
+    public final int countAttackers(int colour, int square) {
+      int count = 0;
+      for (int type = 0; type < 6 /* numPieces */; ++type) {
+        int attackerIndex = ((colour * (6 /* numPieces */) + type) * (96 /* totalSquares */) + square) << 1;
+        for (int half = 0; half < 2; ++half) {
+          long remaining = colourBitboards[(colour << 1) | half] & typeBitboards[(type << 1) | half]
+              & GameConstants.attackerBitboards[attackerIndex | half];
+          while (remaining != 0) {
+            int index = (half << 6) | Long.numberOfTrailingZeros(remaining);
+            remaining &= remaining - 1;
+            if (isAttackUnblocked(index, square)) {
+              count += 1;
+            }
+          }
+        }
+      }
+      return count;
+    }
+
+    /**
+     * Only the sliding pieces can have their attacks blocked, so the path is only checked for them.
+     *
+     * @return whether the piece on {@param index}, which could attack {@param square} on an empty board, attacks it.
+     *         This is false if the piece has been lifted off of {@link #pieces}, but not its bitboards.
+     */
+    private boolean isAttackUnblocked(int index, int square) {
+      byte piece = pieces[index];
+      int type = (piece >> 2) & 7;
+      if (piece == 0)
+        return false;
+      if (type < 2 /* BISHOP */ || type > 4 /* QUEEN */)
+        return true;
+
+      int moveIndex = GameConstants.sliderMoveIndices[((type - 2 /* BISHOP */) * (96 /* totalSquares */) + index) * (96 /* totalSquares */) + square];
+      return GameConstants.potentialMovesFlattened[moveIndex].isValidMove(this);
     }
 
     /** Moves a piece on the board. **/
@@ -253,10 +901,16 @@ public class GameLogic {
       int capturedColour = capturedPiece & 3;
       int capturedType = (capturedPiece >> 2) & 7;
       short capturedUtility = -1;
-      // If a non-king piece has been captured, find its utility.
-      if (capturedPiece != 0 && capturedType != 5 /* KING */) {
+      long[] zobristPieceKeys = GameConstants.zobristPieceKeys;
+      if (capturedPiece != 0) {
         int capturedPieceIndex = capturedColour * (576 /* pieceIndexStride */) + toIndex * (6 /* numPieces */) + capturedType;
-        capturedUtility = pieceUtilities[capturedPieceIndex];
+        if (hashing) {
+          hash ^= zobristPieceKeys[capturedPieceIndex];
+        }
+        // If a non-king piece has been captured, find its utility.
+        if (capturedType != 5 /* KING */) {
+          capturedUtility = pieceUtilities[capturedPieceIndex];
+        }
       }
 
       // Move the piece.
@@ -266,10 +920,27 @@ public class GameLogic {
       pieces[fromIndex] = 0;
       pieces[toIndex] = fromPiece;
 
+      // Update the bitboards, first removing the captured piece if there is one.
+      long[] colourBitboards = this.colourBitboards;
+      long[] typeBitboards = this.typeBitboards;
+      int toHalf = toIndex >> 6;
+      if (capturedPiece != 0) {
+        colourBitboards[(capturedColour << 1) | toHalf] &= ~(1L << toIndex);
+        typeBitboards[(capturedType << 1) | toHalf] &= ~(1L << toIndex);
+      }
+      int fromHalf = fromIndex >> 6;
+      colourBitboards[(fromColour << 1) | fromHalf] &= ~(1L << fromIndex);
+      colourBitboards[(fromColour << 1) | toHalf] |= 1L << toIndex;
+      typeBitboards[(fromType << 1) | fromHalf] &= ~(1L << fromIndex);
+      typeBitboards[(fromType << 1) | toHalf] |= 1L << toIndex;
+
       // Update the utility of the piece being moved.
       int basePieceIndex = fromColour * (576 /* pieceIndexStride */) + fromType;
       int fromPieceIndex = basePieceIndex + fromIndex * (6 /* numPieces */);
       int toPieceIndex = basePieceIndex + toIndex * (6 /* numPieces */);
+      if (hashing) {
+        hash ^= zobristPieceKeys[fromPieceIndex] ^ zobristPieceKeys[toPieceIndex];
+      }
       int utilityChange = pieceUtilities[toPieceIndex] - pieceUtilities[fromPieceIndex];
       agentUtilities[fromColour] += constants.selfWeight*utilityChange;
       agentUtilities[(fromColour + 1 + ((fromColour + 2) >> 2)) & 3] -= 10*utilityChange;
@@ -303,17 +974,37 @@ public class GameLogic {
       int colour = fromPiece & 3;
       int fromType = (fromPiece >> 2) & 7;
       pieces[index] = (byte) ((48 /* P-Bit | (QUEEN (4) << 2) */) | colour);
+      int half = index >> 6;
+      typeBitboards[(fromType << 1) | half] &= ~(1L << index);
+      typeBitboards[(4 /* QUEEN */ << 1) | half] |= 1L << index;
 
       // Update the utility of the piece after the promotion.
       int basePieceIndex = colour * (576 /* pieceIndexStride */) + index * (6 /* numPieces */);
       int fromPieceIndex = basePieceIndex + fromType;
       int toPieceIndex = basePieceIndex + (4 /* QUEEN */);
+      if (hashing) {
+        hash ^= GameConstants.zobristPieceKeys[fromPieceIndex] ^ GameConstants.zobristPieceKeys[toPieceIndex];
+      }
       int utilityChange = pieceUtilities[toPieceIndex] - pieceUtilities[fromPieceIndex];
       agentUtilities[colour] += constants.selfWeight*utilityChange;
       agentUtilities[(colour + 1 + ((colour + 2) >> 2)) & 3] -= 10*utilityChange;
       agentUtilities[(colour + 2 + ((colour + 3) >> 2)) & 3] -= 10*utilityChange;
     }
 
+    /** @return the Zobrist hash of this state, calculated from scratch instead of incrementally. **/
+    public final long calculateHash() {
+      long hash = GameConstants.zobristTurnKeys[turnColour];
+      for (int index = 0; index < 96 /* totalSquares */; ++index) {
+        byte piece = pieces[index];
+        if (piece == 0)
+          continue;
+        int colour = piece & 3;
+        int type = (piece >> 2) & 7;
+        hash ^= GameConstants.zobristPieceKeys[colour * (576 /* pieceIndexStride */) + index * (6 /* numPieces */) + type];
+      }
+      return hash;
+    }
+
     /** Calculates the utility of this state for all agents. **/
     public final void calculateUtilities() {
       // We pre-cache these fields to avoid reading them many times.
@@ -539,6 +1230,94 @@ public class GameLogic {
       }
       potentialMovesFlattened = allPotentialMoves.toArray(new Move[0]);
     }
+    /** The packed encoding of every move in potentialMovesFlattened, at the same indices. **/
+    public static final int[] potentialMovesPacked = new int[potentialMovesFlattened.length];
+    static {
+      for (int pieceIndex = 0; pieceIndex < potentialMovesFlattenedDirectives.length; ++pieceIndex) {
+        int colour = pieceIndex / pieceIndexStride;
+        int type = pieceIndex % numPieces;
+        int directive = potentialMovesFlattenedDirectives[pieceIndex];
+        int flatIndex = directive >> 8;
+        int length = directive & 255;
+        for (int moveIndex = 0; moveIndex < length; ++moveIndex) {
+          Move move = potentialMovesFlattened[flatIndex + moveIndex];
+          move.packed = PackedMove.pack(move, colour, type);
+          potentialMovesPacked[flatIndex + moveIndex] = move.packed;
+        }
+      }
+    }
+    /**
+     * For each colour, piece type, and square, a bitboard of the squares that a piece of that colour and type could
+     * capture a piece on the square from if no other pieces were in the way, built from the capturing moves in
+     * potentialMovesFlattened. These are indexed by ((colour * numPieces + type) * totalSquares + square) * 2 + half,
+     * where the two halves use the same layout as the bitboards of GameState.
+     */
+    public static final long[] attackerBitboards = new long[numColours * numPieces * totalSquares * 2];
+    static {
+      for (int pieceIndex = 0; pieceIndex < potentialMovesFlattenedDirectives.length; ++pieceIndex) {
+        int colour = pieceIndex / pieceIndexStride;
+        int index = (pieceIndex % pieceIndexStride) / numPieces;
+        int type = pieceIndex % numPieces;
+        int directive = potentialMovesFlattenedDirectives[pieceIndex];
+        int flatIndex = directive >> 8;
+        int length = directive & 255;
+        for (int moveIndex = 0; moveIndex < length; ++moveIndex) {
+          int move = potentialMovesPacked[flatIndex + moveIndex];
+          int kind = PackedMove.getKind(move);
+          if (kind == PackedMove.PAWN_TAKE || kind == PackedMove.LEAPER || kind == PackedMove.MANY) {
+            int toIndex = PackedMove.getToIndex(move);
+            attackerBitboards[(((colour * numPieces + type) * totalSquares + toIndex) << 1) | (index >> 6)] |= 1L << index;
+          }
+        }
+      }
+    }
+    /**
+     * For each sliding piece type, square, and destination square, the index into potentialMovesFlattened of the move of
+     * a piece of the first colour from the square to the destination, or -1 if there is no such move. These are indexed
+     * by ((type - BISHOP) * totalSquares + square) * totalSquares + destination. The moves of the sliding pieces do not
+     * depend on their colour, so these are used to check whether the path of a sliding piece of any colour is blocked.
+     */
+    public static final int[] sliderMoveIndices = new int[3 * totalSquares * totalSquares];
+    static {
+      Arrays.fill(sliderMoveIndices, -1);
+      for (int type = PieceType.BISHOP.ordinal(); type <= PieceType.QUEEN.ordinal(); ++type) {
+        for (int index = 0; index < totalSquares; ++index) {
+          int directive = potentialMovesFlattenedDirectives[index * numPieces + type];
+          int flatIndex = directive >> 8;
+          int length = directive & 255;
+          for (int moveIndex = 0; moveIndex < length; ++moveIndex) {
+            int tableIndex = ((type - PieceType.BISHOP.ordinal()) * totalSquares + index) * totalSquares
+                + PackedMove.getToIndex(potentialMovesPacked[flatIndex + moveIndex]);
+            if (sliderMoveIndices[tableIndex] >= 0)
+              throw new IllegalStateException("More than one move of a sliding piece from " + index + " to the same square");
+            sliderMoveIndices[tableIndex] = flatIndex + moveIndex;
+          }
+        }
+      }
+    }
+    /**
+     * The Zobrist keys for every colour, square, and piece type, indexed in the same way as potentialMoves.
+     * These use a fixed seed so that hashes are the same between runs.
+     */
+    public static final long[] zobristPieceKeys = new long[totalSquares * numColours * numPieces];
+    /** The Zobrist keys for the colour whose turn it is. **/
+    public static final long[] zobristTurnKeys = new long[numColours];
+    /** The Zobrist keys to apply to a hash when the turn advances from each colour to the next. **/
+    public static final long[] zobristNextTurnKeys = new long[numColours];
+    static {
+      Random zobristRandom = new Random(22494652L);
+      for (int index = 0; index < zobristPieceKeys.length; ++index) {
+        zobristPieceKeys[index] = zobristRandom.nextLong();
+      }
+      for (int index = 0; index < zobristTurnKeys.length; ++index) {
+        zobristTurnKeys[index] = zobristRandom.nextLong();
+      }
+      for (int colour = 0; colour < numColours; ++colour) {
+        zobristNextTurnKeys[colour] = zobristTurnKeys[colour] ^ zobristTurnKeys[(colour + 1) % numColours];
+      }
+    }
+    /** An upper bound on the number of moves that can be available from any state. **/
+    public static final int maxAvailableMoves = 16 /* max pieces per colour */ * (totalSquares - 1);
 
     /** The weight given to the utility of an agents own pieces. **/
     public int selfWeight;
@@ -774,6 +1553,12 @@ public class GameLogic {
      */
     public int skipIndex;
 
+    /**
+     * This move encoded into a single int, as described in {@link PackedMove}.
+     * This is calculated after the list of all available moves is constructed.
+     */
+    public int packed;
+
     public Move(int fromIndex, int toIndex) {
       this.fromIndex = fromIndex;
       this.toIndex = toIndex;
@@ -795,6 +1580,121 @@ public class GameLogic {
     }
   }
 
+  /**
+   * Encodes moves into a single int so that they can be generated into
+   * int buffers and checked using table lookups, instead of virtual calls.
+   *
+   * Packed Move Bits:
+   *  0 C C T T T S S S S S S S S R K K K O O O O O O O F F F F F F F
+   *
+   * F - The index of the square that the piece is moved from.
+   * O - The index of the square that the piece is moved to.
+   * K - The kind of the move, which determines how it is checked and applied.
+   * R - 1 if the pawn is promoted to a queen by this move, 0 otherwise.
+   * S - The index to skip forward to in the moves array if a MoveMany move hits a piece.
+   * T - The type of the piece that is moved.
+   * C - The colour of the piece that is moved.
+   */
+  public static final class PackedMove {
+
+    public static final int PAWN_ONE_FORWARD = 0;
+    public static final int PAWN_TWO_FORWARD = 1;
+    public static final int PAWN_TAKE = 2;
+    public static final int LEAPER = 3;
+    public static final int MANY = 4;
+    public static final int CASTLE_LEFT = 5;
+    public static final int CASTLE_RIGHT = 6;
+
+    private PackedMove() {}
+
+    /** @return the packed encoding of {@param move}, for a piece of the given {@param colour} and {@param type}. **/
+    public static int pack(Move move, int colour, int type) {
+      int kind;
+      boolean promoteToQueen = false;
+      if (move instanceof PawnMove) {
+        promoteToQueen = ((PawnMove) move).promoteToQueen;
+        if (move instanceof PawnMoveOneForward) {
+          kind = PAWN_ONE_FORWARD;
+        } else if (move instanceof PawnMoveTwoForward) {
+          kind = PAWN_TWO_FORWARD;
+        } else {
+          kind = PAWN_TAKE;
+        }
+      } else if (move instanceof MoveMany) {
+        kind = MANY;
+      } else if (move instanceof KingMoveCastleLeft) {
+        kind = CASTLE_LEFT;
+      } else if (move instanceof KingMoveCastleRight) {
+        kind = CASTLE_RIGHT;
+      } else {
+        kind = LEAPER;
+      }
+      if (move.skipIndex > 255)
+        throw new IllegalStateException("skipIndex does not fit in 8 bits: " + move.skipIndex);
+
+      return move.fromIndex
+          | move.toIndex << 7
+          | kind << 14
+          | (promoteToQueen ? 1 << 17 : 0)
+          | move.skipIndex << 18
+          | type << 26
+          | colour << 29;
+    }
+
+    /** @return the index of the square that the piece of the packed move {@param move} is moved from. **/
+    public static int getFromIndex(int move) {
+      return move & 127;
+    }
+
+    /** @return the index of the square that the piece of the packed move {@param move} is moved to. **/
+    public static int getToIndex(int move) {
+      return (move >> 7) & 127;
+    }
+
+    /** @return the kind of the packed move {@param move}. **/
+    public static int getKind(int move) {
+      return (move >> 14) & 7;
+    }
+
+    /** @return whether the packed move {@param move} promotes a pawn to a queen. **/
+    public static boolean isPromotion(int move) {
+      return (move & (1 << 17)) != 0;
+    }
+
+    /** @return the index to skip forward to in the moves array if the packed MoveMany move {@param move} hits a piece. **/
+    public static int getSkipIndex(int move) {
+      return (move >> 18) & 255;
+    }
+
+    /** @return the type of the piece that is moved by the packed move {@param move}. **/
+    public static int getType(int move) {
+      return (move >> 26) & 7;
+    }
+
+    /** @return the colour of the piece that is moved by the packed move {@param move}. **/
+    public static int getColour(int move) {
+      return (move >> 29) & 3;
+    }
+
+    /** @return the Move object that was packed into {@param move}. **/
+    public static Move unpack(int move) {
+      int pieceIndex = getColour(move) * (576 /* pieceIndexStride */) + getFromIndex(move) * (6 /* numPieces */) + getType(move);
+      int directive = GameConstants.potentialMovesFlattenedDirectives[pieceIndex];
+      int flatIndex = directive >> 8;
+      int length = directive & 255;
+      for (int moveIndex = 0; moveIndex < length; ++moveIndex) {
+        if (GameConstants.potentialMovesPacked[flatIndex + moveIndex] == move)
+          return GameConstants.potentialMovesFlattened[flatIndex + moveIndex];
+      }
+      throw new IllegalArgumentException("Unknown packed move: " + move);
+    }
+
+    /** @return a human-readable string representation of the packed move {@param move}. **/
+    public static String toString(int move) {
+      return unpack(move).toString();
+    }
+  }
+
   /**
    * Models the possible moves of pawns.
    */
@@ -4,9 +4,22 @@ import threeChess.*;
 import threeChess.agents.GameLogic.GameState;
 import threeChess.agents.GameLogic.Move;
 import threeChess.agents.GameLogic.MoveMany;
+import threeChess.agents.GameLogic.PackedMove;
 import threeChess.agents.GameLogic.GameConstants;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * Tests the GameLogic class to ensure it produces the
@@ -49,9 +62,403 @@ public class GameLogicTest {
     for (Position pos : Position.values()) {
       verifyPositionMatches(board, state, pos, evaluateMoves);
     }
+    verifyBitboardsMatch(state);
+    verifyPackedMovesMatch(state);
+    verifyHashMatches(state);
   }
 
-  public static void verifyPositionMatches(Board board, GameState state, Position pos, boolean evaluateMoves) {
+  /**
+   * Walks every move sequence of up to {@param depth} moves from both {@param board} and {@param state} in lockstep,
+   * applying the moves to copies of them. This ensures that the same moves are available from both after every
+   * move, and that the pieces, bitboards, hash, utilities, and attacks of the state still match after every move.
+   * Unlike {@link #verifyBoardMatches}, this always verifies the states, as it is only used by perft.
+   *
+   * @return the number of move sequences of length {@param depth}, which should match the perft of {@param state}.
+   */
+  public static long verifyPerft(Board board, GameState state, int depth) {
+    boolean stateGameOver = (state.gameOverPacked != 0);
+    if (board.gameOver() != stateGameOver)
+      throw new VerificationException("board.gameOver=" + board.gameOver() + " doesn't match stateGameOver=" + stateGameOver);
+    if (board.getTurn().ordinal() != state.turnColour)
+      throw new VerificationException("boardTurn=" + board.getTurn().ordinal() + ", but stateTurn=" + state.turnColour);
+    for (Position pos : Position.values()) {
+      verifyPieceMatches(board, state, pos);
+    }
+    verifyBitboardsMatch(state);
+    verifyHashMatches(state);
+    verifyUtilitiesMatch(state);
+    verifyAttacksMatch(state);
+    verifyBinaryRoundTrip(board);
+
+    if (depth == 0)
+      return 1;
+    if (stateGameOver)
+      return 0;
+
+    // Find the legal moves of the board, and make sure the state has the same moves available.
+    Set<Integer> boardMoves = new HashSet<>();
+    for (Position start : board.getPositions(board.getTurn())) {
+      for (Position end : Position.values()) {
+        if (board.isLegalMove(start, end)) {
+          boardMoves.add(GameConstants.getIndex(start) * GameConstants.totalSquares + GameConstants.getIndex(end));
+        }
+      }
+    }
+    Set<Integer> generatedBoardMoves = new HashSet<>();
+    for (Position[] move : board.getLegalMoves()) {
+      if (!generatedBoardMoves.add(GameConstants.getIndex(move[0]) * GameConstants.totalSquares + GameConstants.getIndex(move[1])))
+        throw new VerificationException("Move " + Arrays.toString(move) + " is in the legal moves of the board more than once");
+    }
+    if (!boardMoves.equals(generatedBoardMoves)) {
+      Set<Integer> missing = new HashSet<>(boardMoves);
+      missing.removeAll(generatedBoardMoves);
+      Set<Integer> extra = new HashSet<>(generatedBoardMoves);
+      extra.removeAll(boardMoves);
+      throw new VerificationException(
+          "Legal moves of board don't match its legal move checks, missing " + describeMoves(missing) + ", extra " + describeMoves(extra)
+      );
+    }
+
+    List<Move> moves = new ArrayList<>();
+    state.computeAvailableMoves(moves);
+    Set<Integer> stateMoves = new HashSet<>();
+    for (Move move : moves) {
+      if (!stateMoves.add(move.fromIndex * GameConstants.totalSquares + move.toIndex))
+        throw new VerificationException("Move " + move + " is available more than once from state");
+    }
+    if (!boardMoves.equals(stateMoves)) {
+      Set<Integer> missing = new HashSet<>(boardMoves);
+      missing.removeAll(stateMoves);
+      Set<Integer> extra = new HashSet<>(stateMoves);
+      extra.removeAll(boardMoves);
+      throw new VerificationException(
+          "Moves available from state don't match board, missing " + describeMoves(missing) + ", extra " + describeMoves(extra) + "\n" + state
+      );
+    }
+
+    // Apply every move to copies of the board and state, and verify the move sequences from them.
+    long nodes = 0;
+    for (Move move : moves) {
+      Board testBoard;
+      try {
+        testBoard = (Board) board.clone();
+        Position[] movePositions = GameConstants.convertMoveToPositions(move);
+        testBoard.move(movePositions[0], movePositions[1]);
+      } catch (CloneNotSupportedException | ImpossiblePositionException e) {
+        throw new VerificationException("exception cloning board and playing move " + move, e);
+      }
+
+      GameState testState = new GameState(state.constants);
+      testState.copyFrom(state);
+      testState.applyMove(move);
+      try {
+        nodes += verifyPerft(testBoard, testState, depth - 1);
+      } catch (VerificationException e) {
+        throw new VerificationException("verification exception after applying move " + move, e);
+      }
+    }
+    return nodes;
+  }
+
+  /** Ensures that {@param board} is read back the same after being written using {@link Board#writeTo}. **/
+  public static void verifyBinaryRoundTrip(Board board) {
+    Board readBoard;
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      board.writeTo(new DataOutputStream(bytes));
+      readBoard = Board.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    } catch (IOException e) {
+      throw new VerificationException("exception writing and reading board", e);
+    }
+    verifyBoardsMatch(board, readBoard);
+  }
+
+  /**
+   * The moves and the milliseconds taken for each move of a game, and a Board that was serialized after those moves
+   * using the original Board class, encoded in Base64. This was written before the pieces, captures and times of
+   * boards were stored in arrays instead of maps.
+   */
+  private static final String ORIGINAL_SERIALIZED_MOVES =
+      "BG1-BH3 GC2-GC3 RH2-RH4 BH3-BF4 GD2-GD3 RC2-RC3 BE2-BE3 GE2-GE4 RH4-GA4 BD1-BG4 GD3-GD4 RB1-RA3 " +
+      "BB1-BA3 GD1-GG4 RB2-RB3 BC2-BC4 GE1-GD2 RA3-RB1 BC4-GE4 GD2-GE3 RC1-RA3 BD2-BD3 GG4-BA4 RD1-RC1";
+  private static final String[] ORIGINAL_SERIALIZED_BOARD = {
+      "rO0ABXNyABB0aHJlZUNoZXNzLkJvYXJkiWAzrKsi/s4CAAZaAAhnYW1lT3ZlckwABWJvYXJkdAATTGphdmEvdXRpbC9IYXNoTWFw",
+      "O0wACGNhcHR1cmVkcQB+AAFMAAdoaXN0b3J5dAAVTGphdmEvdXRpbC9BcnJheUxpc3Q7TAAIdGltZUxlZnRxAH4AAUwABHR1cm50",
+      "ABNMdGhyZWVDaGVzcy9Db2xvdXI7eHAAc3IAEWphdmEudXRpbC5IYXNoTWFwBQfawcMWYNEDAAJGAApsb2FkRmFjdG9ySQAJdGhy",
+      "ZXNob2xkeHA/QAAAAAAAMHcIAAAAQAAAAC9+cgATdGhyZWVDaGVzcy5Qb3NpdGlvbgAAAAAAAAAAEgAAeHIADmphdmEubGFuZy5F",
+      "bnVtAAAAAAAAAAASAAB4cHQAA0dIMXNyABB0aHJlZUNoZXNzLlBpZWNleYiW6CdsveECAAJMAAZjb2xvdXJxAH4AA0wABHR5cGV0",
+      "ABZMdGhyZWVDaGVzcy9QaWVjZVR5cGU7eHB+cgARdGhyZWVDaGVzcy5Db2xvdXIAAAAAAAAAABIAAHhxAH4ACHQABUdSRUVOfnIA",
+      "FHRocmVlQ2hlc3MuUGllY2VUeXBlAAAAAAAAAAASAAB4cQB+AAh0AARST09LfnEAfgAHdAADUkUyc3EAfgALfnEAfgAOdAADUkVE",
+      "fnEAfgARdAAEUEFXTn5xAH4AB3QAA1JDM3NxAH4AC3EAfgAXcQB+ABl+cQB+AAd0AANHRzJzcQB+AAtxAH4AD3EAfgAZfnEAfgAH",
+      "dAADR0E0c3EAfgALcQB+ABdxAH4AGX5xAH4AB3QAA0JEM3NxAH4AC35xAH4ADnQABEJMVUVxAH4AGX5xAH4AB3QAA0dDMXNxAH4A",
+      "C3EAfgAPfnEAfgARdAAGQklTSE9QfnEAfgAHdAADR0U0c3EAfgALcQB+ACdxAH4AGX5xAH4AB3QAA0JCMnNxAH4AC3EAfgAncQB+",
+      "ABl+cQB+AAd0AANCQTRzcQB+AAtxAH4AD35xAH4AEXQABVFVRUVOfnEAfgAHdAADQkYxc3EAfgALcQB+ACdxAH4ALH5xAH4AB3QA",
+      "A1JHMXNxAH4AC3EAfgAXfnEAfgARdAAGS05JR0hUfnEAfgAHdAADUkExc3EAfgALcQB+ABdxAH4AEn5xAH4AB3QAA0JDMXNxAH4A",
+      "C3EAfgAncQB+ACx+cQB+AAd0AANHRjFzcQB+AAtxAH4AD3EAfgAsfnEAfgAHdAADQkcyc3EAfgALcQB+ACdxAH4AGX5xAH4AB3QA",
+      "A1JEMnNxAH4AC3EAfgAXcQB+ABl+cQB+AAd0AANHQjFzcQB+AAtxAH4AD3EAfgA/fnEAfgAHdAADUkgxc3EAfgALcQB+ABdxAH4A",
+      "En5xAH4AB3QAA1JHMnNxAH4AC3EAfgAXcQB+ABl+cQB+AAd0AANSQjNzcQB+AAtxAH4AF3EAfgAZfnEAfgAHdAADR0Uzc3EAfgAL",
+      "cQB+AA9+cQB+ABF0AARLSU5HfnEAfgAHdAADR0Yyc3EAfgALcQB+AA9xAH4AGX5xAH4AB3QAA1JBMnNxAH4AC3EAfgAXcQB+ABl+",
+      "cQB+AAd0AANCSDJzcQB+AAtxAH4AJ3EAfgAZfnEAfgAHdAADR0cxc3EAfgALcQB+AA9xAH4AP35xAH4AB3QAA0JFM3NxAH4AC3EA",
+      "fgAncQB+ABl+cQB+AAd0AANCRjJzcQB+AAtxAH4AJ3EAfgAZfnEAfgAHdAADQkEyc3EAfgALcQB+ACdxAH4AGX5xAH4AB3QAA1JG",
+      "MXNxAH4AC3EAfgAXcQB+ACx+cQB+AAd0AANHQTJzcQB+AAtxAH4AD3EAfgAZfnEAfgAHdAADR0Mzc3EAfgALcQB+AA9xAH4AGX5x",
+      "AH4AB3QAA0JBM3NxAH4AC3EAfgAncQB+AD9+cQB+AAd0AANSQzFzcQB+AAtxAH4AF3EAfgA3fnEAfgAHdAADR0Exc3EAfgALcQB+",
+      "AA9xAH4AEn5xAH4AB3QAA1JGMnNxAH4AC3EAfgAXcQB+ABl+cQB+AAd0AANSQTNzcQB+AAtxAH4AF3EAfgAsfnEAfgAHdAADQkY0",
+      "c3EAfgALcQB+ACdxAH4AP35xAH4AB3QAA0JHNHNxAH4AC3EAfgAncQB+ADd+cQB+AAd0AANCQTFzcQB+AAtxAH4AJ3EAfgASfnEA",
+      "fgAHdAADR0gyc3EAfgALcQB+AA9xAH4AGX5xAH4AB3QAA0JIMXNxAH4AC3EAfgAncQB+ABJ+cQB+AAd0AANSRTFzcQB+AAtxAH4A",
+      "F3EAfgBffnEAfgAHdAADQkUxc3EAfgALcQB+ACdxAH4AX35xAH4AB3QAA0dCMnNxAH4AC3EAfgAPcQB+ABl+cQB+AAd0AANHRDRz",
+      "cQB+AAtxAH4AD3EAfgAZfnEAfgAHdAADUkIxc3EAfgALcQB+ABdxAH4AP3hzcQB+AAU/QAAAAAAADHcIAAAAEAAAAANxAH4AD3Ny",
+      "ABNqYXZhLnV0aWwuQXJyYXlMaXN0eIHSHZnHYZ0DAAFJAARzaXpleHAAAAAAdwQAAAAAeHEAfgAnc3EAfgCtAAAAAXcEAAAAAXNx",
+      "AH4AC3EAfgAPcQB+ABl4cQB+ABdzcQB+AK0AAAAAdwQAAAAAeHhzcQB+AK0AAAAYdwQAAAAYdXIAFltMdGhyZWVDaGVzcy5Qb3Np",
+      "dGlvbjtiNGtygqjvowIAAHhwAAAAAn5xAH4AB3QAA0JHMX5xAH4AB3QAA0JIM3VxAH4AswAAAAJ+cQB+AAd0AANHQzJxAH4AfHVx",
+      "AH4AswAAAAJ+cQB+AAd0AANSSDJ+cQB+AAd0AANSSDR1cQB+ALMAAAACcQB+ALdxAH4AjnVxAH4AswAAAAJ+cQB+AAd0AANHRDJ+",
+      "cQB+AAd0AANHRDN1cQB+ALMAAAACfnEAfgAHdAADUkMycQB+ABt1cQB+ALMAAAACfnEAfgAHdAADQkUycQB+AG11cQB+ALMAAAAC",
+      "fnEAfgAHdAADR0UycQB+AC51cQB+ALMAAAACcQB+AL9xAH4AIXVxAH4AswAAAAJ+cQB+AAd0AANCRDFxAH4AkXVxAH4AswAAAAJx",
+      "AH4AxXEAfgCmdXEAfgCzAAAAAnEAfgCpcQB+AIt1cQB+ALMAAAACfnEAfgAHdAADQkIxcQB+AH91cQB+ALMAAAACfnEAfgAHdAAD",
+      "R0QxfnEAfgAHdAADR0c0dXEAfgCzAAAAAn5xAH4AB3QAA1JCMnEAfgBZdXEAfgCzAAAAAn5xAH4AB3QAA0JDMn5xAH4AB3QAA0JD",
+      "NHVxAH4AswAAAAJ+cQB+AAd0AANHRTFxAH4Aw3VxAH4AswAAAAJxAH4Ai3EAfgCpdXEAfgCzAAAAAnEAfgDkcQB+AC51cQB+ALMA",
+      "AAACcQB+AMNxAH4AXHVxAH4AswAAAAJxAH4AgnEAfgCLdXEAfgCzAAAAAn5xAH4AB3QAA0JEMnEAfgAkdXEAfgCzAAAAAnEAfgDc",
+      "cQB+ADR1cQB+ALMAAAACfnEAfgAHdAADUkQxcQB+AIJ4c3EAfgAFP0AAAAAAAAx3CAAAABAAAAADcQB+AA9zcgARamF2YS5sYW5n",
+      "LkludGVnZXIS4qCk94GHOAIAAUkABXZhbHVleHIAEGphdmEubGFuZy5OdW1iZXKGrJUdC5TgiwIAAHhwAADZ9HEAfgAnc3EAfgD1",
+      "AADbHHEAfgAXc3EAfgD1AADYzHhxAH4AJw=="
+  };
+
+  /**
+   * Ensures that a board serialized using the original Board class can still be read, and matches the same game
+   * played using the current Board class. Also ensures that boards are read back the same after being serialized.
+   */
+  public static void verifySerializedBoards() {
+    Board expected = new Board(60000);
+    String[] moves = ORIGINAL_SERIALIZED_MOVES.split(" ");
+    try {
+      for (int index = 0; index < moves.length; ++index) {
+        String[] positions = moves[index].split("-");
+        expected.move(Position.valueOf(positions[0]), Position.valueOf(positions[1]), 100 + 37 * index);
+      }
+    } catch (ImpossiblePositionException e) {
+      throw new VerificationException("exception playing the moves of the original serialized board", e);
+    }
+
+    Board original = readSerializedBoard(Base64.getDecoder().decode(String.join("", ORIGINAL_SERIALIZED_BOARD)));
+    verifyBoardsMatch(expected, original);
+
+    Board readBoard;
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+        out.writeObject(original);
+      }
+      readBoard = readSerializedBoard(bytes.toByteArray());
+    } catch (IOException e) {
+      throw new VerificationException("exception serializing board", e);
+    }
+    verifyBoardsMatch(expected, readBoard);
+  }
+
+  /** @return the board serialized in {@param bytes}. **/
+  private static Board readSerializedBoard(byte[] bytes) {
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+      return (Board) in.readObject();
+    } catch (IOException | ClassNotFoundException e) {
+      throw new VerificationException("exception reading serialized board", e);
+    }
+  }
+
+  /** Ensures that the pieces, turn, times, captures and history of {@param board} and {@param readBoard} match. **/
+  private static void verifyBoardsMatch(Board board, Board readBoard) {
+    for (Position pos : Position.values()) {
+      String piece = String.valueOf(board.getPiece(pos));
+      String readPiece = String.valueOf(readBoard.getPiece(pos));
+      if (!piece.equals(readPiece))
+        throw new VerificationException("piece=" + piece + ", yet readPiece=" + readPiece + ", @ " + pos);
+    }
+    if (board.getTurn() != readBoard.getTurn() || board.gameOver() != readBoard.gameOver())
+      throw new VerificationException("turn or game over of board does not match the board read back");
+    for (Colour colour : Colour.values()) {
+      if (board.getTimeLeft(colour) != readBoard.getTimeLeft(colour))
+        throw new VerificationException(colour + " time left does not match the board read back");
+      if (!board.getCaptured(colour).toString().equals(readBoard.getCaptured(colour).toString()))
+        throw new VerificationException(colour + " captured pieces do not match the board read back");
+    }
+    if (board.getMoveCount() != readBoard.getMoveCount())
+      throw new VerificationException("moveCount=" + board.getMoveCount() + ", yet readMoveCount=" + readBoard.getMoveCount());
+    for (int index = 0; index < board.getMoveCount(); ++index) {
+      if (!Arrays.equals(board.getMove(index), readBoard.getMove(index)))
+        throw new VerificationException("move " + index + " does not match the board read back");
+    }
+  }
+
+  /** @return a description of the moves in {@param moves}, which are encoded as fromIndex * totalSquares + toIndex. **/
+  private static String describeMoves(Set<Integer> moves) {
+    List<String> descriptions = new ArrayList<>();
+    for (int move : moves) {
+      Position from = GameConstants.convertIndexToPosition(move / GameConstants.totalSquares);
+      Position to = GameConstants.convertIndexToPosition(move % GameConstants.totalSquares);
+      descriptions.add(from + " -> " + to);
+    }
+    return descriptions.toString();
+  }
+
+  /**
+   * Ensures that the static exchange evaluation of captures in positions with known exchanges is correct.
+   * The pieces are given as the colour, type, and position of each piece, such as "BLUE ROOK BA1".
+   */
+  public static void verifyExchangeGains() {
+    // An undefended knight taken by a rook gains the knight.
+    verifyExchangeGain(3, Position.BA1, Position.BA4, "BLUE ROOK BA1", "GREEN KNIGHT BA4");
+    // A pawn defended by a pawn taken by a rook loses the rook for the pawn.
+    verifyExchangeGain(-4, Position.BH4, Position.BE4, "GREEN ROOK BH4", "BLUE PAWN BE4", "BLUE PAWN BD3");
+    // An undefended pawn of blue taken by the queen of green loses the queen to the rook of red.
+    verifyExchangeGain(-8, Position.BH4, Position.BE4, "GREEN QUEEN BH4", "BLUE PAWN BE4", "RED ROOK BE1");
+    // Red passes on taking the rook of green, as the pawn of blue would then take the rook of red.
+    verifyExchangeGain(
+        -4, Position.BH4, Position.BE4, "GREEN ROOK BH4", "BLUE PAWN BE4", "BLUE PAWN BD3", "RED ROOK BE1"
+    );
+  }
+
+  /**
+   * Ensures that the capture from {@param from} to {@param to}, in a position containing only {@param pieces},
+   * is evaluated to gain {@param expectedGain} material by {@link GameState#computeExchangeGain}.
+   */
+  private static void verifyExchangeGain(int expectedGain, Position from, Position to, String... pieces) {
+    GameState state = new GameState(GameLogic.CombinedGameConstants.START_GAME);
+    state.copyFrom(new Board(0));
+    Arrays.fill(state.pieces, (byte) 0);
+    Arrays.fill(state.colourBitboards, 0);
+    Arrays.fill(state.typeBitboards, 0);
+    for (String piece : pieces) {
+      String[] parts = piece.split(" ");
+      int colour = Colour.valueOf(parts[0]).ordinal();
+      int type = PieceType.valueOf(parts[1]).ordinal();
+      int index = GameConstants.getIndex(Position.valueOf(parts[2]));
+      state.pieces[index] = (byte) (32 | (type << 2) | colour);
+      state.colourBitboards[(colour << 1) | (index >> 6)] |= 1L << index;
+      state.typeBitboards[(type << 1) | (index >> 6)] |= 1L << index;
+    }
+    state.turnColour = (state.pieces[GameConstants.getIndex(from)] & 3);
+    state.calculateUtilities();
+    state.hash = state.calculateHash();
+
+    int[] moves = new int[GameConstants.maxAvailableMoves];
+    int count = state.computeAvailableMoves(moves);
+    for (int index = 0; index < count; ++index) {
+      int move = moves[index];
+      if ((move & 127) != GameConstants.getIndex(from) || ((move >> 7) & 127) != GameConstants.getIndex(to))
+        continue;
+
+      int gain = state.computeExchangeGain(move);
+      String description = from + "-" + to + " with " + Arrays.toString(pieces);
+      if (gain != expectedGain)
+        throw new VerificationException(description + " gains " + gain + ", but should gain " + expectedGain);
+      if (state.isLosingCapture(move) != (expectedGain < 0))
+        throw new VerificationException(description + " should " + (expectedGain < 0 ? "" : "not ") + "be a losing capture");
+      return;
+    }
+    throw new VerificationException(from + "-" + to + " is not an available move with " + Arrays.toString(pieces));
+  }
+
+  /** Ensures that the incrementally updated utilities of {@param state} match its utilities calculated from scratch. **/
+  public static void verifyUtilitiesMatch(GameState state) {
+    GameState freshState = new GameState(state.constants);
+    freshState.copyFrom(state);
+    freshState.calculateUtilities();
+    for (Colour colour : Colour.values()) {
+      int updated = state.getUtility(colour.ordinal());
+      int fresh = freshState.getUtility(colour.ordinal());
+      if (updated != fresh)
+        throw new VerificationException(colour + " utility does not match, " + updated + " != " + fresh);
+    }
+  }
+
+  /** Ensures that the incrementally updated hash of {@param state} matches its hash calculated from scratch. **/
+  public static void verifyHashMatches(GameState state) {
+    long calculated = state.calculateHash();
+    if (state.hash != calculated)
+      throw new VerificationException("hash=" + state.hash + " doesn't match calculated hash=" + calculated);
+  }
+
+  /**
+   * Ensures that the attacks of each colour found by {@link GameState#computeAttacks}, {@link GameState#isAttacked},
+   * and {@link GameState#countAttackers} match the attacks found by checking every capturing move of every piece.
+   */
+  public static void verifyAttacksMatch(GameState state) {
+    long[] attacks = new long[2];
+    for (int colour = 0; colour < GameConstants.numColours; ++colour) {
+      // Count the pieces of the colour that have an unblocked capturing move to each square.
+      int[] expectedCounts = new int[GameConstants.totalSquares];
+      for (int index = 0; index < GameConstants.totalSquares; ++index) {
+        byte piece = state.pieces[index];
+        if (piece == 0 || (piece & 3) != colour)
+          continue;
+
+        Set<Integer> attackedSquares = new HashSet<>();
+        int type = (piece >> 2) & 7;
+        for (Move move : GameConstants.potentialMoves[colour * GameConstants.pieceIndexStride + index * GameConstants.numPieces + type]) {
+          int kind = PackedMove.getKind(move.packed);
+          if (kind == PackedMove.MANY ? move.isValidMove(state) : (kind == PackedMove.PAWN_TAKE || kind == PackedMove.LEAPER)) {
+            attackedSquares.add(move.toIndex);
+          }
+        }
+        for (int square : attackedSquares) {
+          expectedCounts[square] += 1;
+        }
+      }
+
+      state.computeAttacks(colour, attacks);
+      for (int square = 0; square < GameConstants.totalSquares; ++square) {
+        int expected = expectedCounts[square];
+        boolean computed = (attacks[square >> 6] & (1L << square)) != 0;
+        if (computed != (expected > 0))
+          throw new VerificationException("colour " + colour + " attack bitboard is " + computed + ", yet " + expected + " attackers @ " + square);
+        boolean attacked = state.isAttacked(colour, square);
+        if (attacked != (expected > 0))
+          throw new VerificationException("colour " + colour + " isAttacked is " + attacked + ", yet " + expected + " attackers @ " + square);
+        int counted = state.countAttackers(colour, square);
+        if (counted != expected)
+          throw new VerificationException("colour " + colour + " has " + counted + " counted attackers, yet " + expected + " attackers @ " + square);
+      }
+    }
+  }
+
+  /** Ensures that the packed moves generated from {@param state} match its list of available moves. **/
+  public static void verifyPackedMovesMatch(GameState state) {
+    List<Move> moveList = new ArrayList<>();
+    state.computeAvailableMoves(moveList);
+    int[] packedMoves = new int[GameConstants.maxAvailableMoves];
+    int count = state.computeAvailableMoves(packedMoves);
+    if (count != moveList.size())
+      throw new VerificationException("packed move count " + count + " doesn't match move list size " + moveList.size());
+
+    for (int index = 0; index < count; ++index) {
+      Move move = moveList.get(index);
+      if (move.packed != packedMoves[index] || PackedMove.unpack(packedMoves[index]) != move)
+        throw new VerificationException("packed move " + PackedMove.toString(packedMoves[index]) + " doesn't match " + move);
+    }
+  }
+
+  /** Ensures that the bitboards of {@param state} match its pieces array. **/
+  public static void verifyBitboardsMatch(GameState state) {
+    for (int index = 0; index < GameConstants.totalSquares; ++index) {
+      byte piece = state.pieces[index];
+      int half = index >> 6;
+      long bit = 1L << index;
+
+      for (int colour = 0; colour < GameConstants.numColours; ++colour) {
+        boolean expected = (piece != 0 && (piece & 3) == colour);
+        boolean actual = (state.colourBitboards[(colour << 1) | half] & bit) != 0;
+        if (expected != actual)
+          throw new VerificationException("colour " + colour + " bitboard is " + actual + ", yet piece=" + piece + " @ " + index);
+      }
+      for (int type = 0; type < GameConstants.numPieces; ++type) {
+        boolean expected = (piece != 0 && ((piece >> 2) & 7) == type);
+        boolean actual = (state.typeBitboards[(type << 1) | half] & bit) != 0;
+        if (expected != actual)
+          throw new VerificationException("type " + type + " bitboard is " + actual + ", yet piece=" + piece + " @ " + index);
+      }
+    }
+  }
+
+  /** Ensures that the piece at {@param pos} of {@param board} matches the piece at the same position of {@param state}. **/
+  public static void verifyPieceMatches(Board board, GameState state, Position pos) {
     int index = GameConstants.getIndex(pos);
     Piece boardPiece = board.getPiece(pos);
     byte statePiece = state.pieces[index];
@@ -75,6 +482,19 @@ public class GameLogicTest {
     int boardColour = boardPiece.getColour().ordinal();
     if (stateColour != boardColour)
       throw new VerificationException("boardColour=" + boardColour + ", yet stateColour=" + stateColour + ", @ " + pos);
+  }
+
+  public static void verifyPositionMatches(Board board, GameState state, Position pos, boolean evaluateMoves) {
+    verifyPieceMatches(board, state, pos);
+    Piece boardPiece = board.getPiece(pos);
+    if (boardPiece == null)
+      return;
+
+    int index = GameConstants.getIndex(pos);
+    byte statePiece = state.pieces[index];
+    int stateColour = statePiece & 3;
+    int stateType = (statePiece >> 2) & 7;
+    int boardColour = boardPiece.getColour().ordinal();
 
     // Check that the list of valid moves matches.
     if (boardColour == board.getTurn().ordinal() && state.gameOverPacked == 0) {
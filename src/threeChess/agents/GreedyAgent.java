@@ -33,49 +33,24 @@ public class GreedyAgent extends Agent{
     int bestTakeValue = 0;
     List<Position[]> bestMoves = new ArrayList<>();
 
-    // For every piece of ours on the board.
-    Colour turnColour = board.getTurn();
-    for (Position start : board.getPositions(turnColour)) {
-      Piece piece = board.getPiece(start);
-      PieceType type = piece.getType();
-
-      // For every possible move that piece could take.
-      for (Direction[] step : type.getSteps()) {
-        try {
-          Position end = start;
-          for (int reps = 0; reps < type.getStepReps(); ++reps) {
-            Position last = end;
-            end = board.step(piece, step, end);
-            if (!board.isLegalMove(start, end))
-              break;
-
-            // If the move is to take another piece, record the value of the take.
-            Piece endPiece = board.getPiece(end);
-            if (endPiece != null) {
-              if (endPiece.getColour() != turnColour) {
-                int takeValue = endPiece.getType().getValue();
-                if (takeValue > bestTakeValue) {
-                  bestMoves.clear();
-                }
-                if (takeValue >= bestTakeValue) {
-                  bestTakeValue = takeValue;
-                  bestMoves.add(new Position[] {start, end});
-                }
-              }
-              break;
-            } else if (bestTakeValue == 0) {
-              bestMoves.add(new Position[] {start, end});
-            }
-
-            // Reverse the step once crossing into another section.
-            if (last.getColour() != end.getColour()) {
-              step = Direction.reverse(step);
-            }
-          }
-        } catch (ImpossiblePositionException e) { /* Ignored. */ }
+    // For every legal move on the board.
+    for (Position[] move : board.getLegalMoves()) {
+      // If the move is to take another piece, record the value of the take.
+      Piece endPiece = board.getPiece(move[1]);
+      if (endPiece != null) {
+        int takeValue = endPiece.getType().getValue();
+        if (takeValue > bestTakeValue) {
+          bestMoves.clear();
+        }
+        if (takeValue >= bestTakeValue) {
+          bestTakeValue = takeValue;
+          bestMoves.add(move);
+        }
+      } else if (bestTakeValue == 0) {
+        bestMoves.add(move);
       }
     }
-    return bestMoves.get(random.nextInt(bestMoves.size()));
+    return bestMoves.get(random.nextInt(bestMoves.size())).clone();
   }
 
   /** @return the Agent's name, for annotating game description. **/
@@ -35,7 +35,7 @@ public class NaiveThreePlyAgent extends Agent{
     int bestUtility = Integer.MIN_VALUE;
     List<Position[]> bestMoves = new ArrayList<>();
 
-    List<Position[]> availableMoves = getAvailableMoves(board);
+    List<Position[]> availableMoves = board.getLegalMoves();
     Colour colour = board.getTurn();
 
     for (Position[] move : availableMoves) {
@@ -58,7 +58,7 @@ public class NaiveThreePlyAgent extends Agent{
         bestMoves.add(move);
       }
     }
-    return bestMoves.get(random.nextInt(bestMoves.size()));
+    return bestMoves.get(random.nextInt(bestMoves.size())).clone();
   }
 
   /**
@@ -66,7 +66,7 @@ public class NaiveThreePlyAgent extends Agent{
    * each player on the board of the chosen representative state.
    */
   public int[] performMaxMaxMax(Board board, int depth) {
-    List<Position[]> availableMoves = getAvailableMoves(board);
+    List<Position[]> availableMoves = board.getLegalMoves();
 
     Colour colour = board.getTurn();
     Colour otherColour1 = Colour.values()[(colour.ordinal() + 1) % 3];
@@ -110,42 +110,6 @@ public class NaiveThreePlyAgent extends Agent{
     return bestUtilities;
   }
 
-  /**
-   * @return the list of available moves on {@param board}.
-   */
-  public List<Position[]> getAvailableMoves(Board board) {
-    List<Position[]> available = new ArrayList<>();
-
-    // For every piece of ours on the board.
-    Colour turnColour = board.getTurn();
-    for (Position start : board.getPositions(turnColour)) {
-      Piece piece = board.getPiece(start);
-      PieceType type = piece.getType();
-
-      // For every possible move that piece could take.
-      for (Direction[] step : type.getSteps()) {
-        try {
-          Position end = start;
-          for (int reps = 0; reps < type.getStepReps(); ++reps) {
-            Position last = end;
-            end = board.step(piece, step, end);
-            if (!board.isLegalMove(start, end))
-              break;
-
-            // Add the move to the available moves.
-            available.add(new Position[] {start, end});
-
-            // Reverse the step once crossing into another section.
-            if (last.getColour() != end.getColour()) {
-              step = Direction.reverse(step);
-            }
-          }
-        } catch (ImpossiblePositionException e) { /* Ignored. */ }
-      }
-    }
-    return available;
-  }
-
   /** @return the Agent's name, for annotating game description. **/
   @Override public String toString(){return name;}
 
@@ -2,6 +2,7 @@ package threeChess.agents;
 
 import threeChess.*;
 
+import java.util.List;
 import java.util.Random;
 
 /**
@@ -39,22 +40,8 @@ public class RandomAgent extends Agent{
    * position to move that piece to.
    * **/
   public Position[] playMove(Board board){
-    Position[] pieces = board.getPositions(board.getTurn()).toArray(new Position[0]);
-    Position start = pieces[0];
-    Position end = pieces[0]; //dummy illegal move
-    while (!board.isLegalMove(start, end)){
-      start = pieces[random.nextInt(pieces.length)];
-      Piece mover = board.getPiece(start);
-      Direction[][] steps = mover.getType().getSteps();
-      Direction[] step = steps[random.nextInt(steps.length)];
-      int reps = 1 + random.nextInt(mover.getType().getStepReps());
-      end = start;
-      try{
-        for(int i = 0; i<reps; i++)
-          end = board.step(mover, step, end, start.getColour()!=end.getColour());
-      }catch(ImpossiblePositionException e){}
-    }
-    return new Position[] {start,end};
+    List<Position[]> moves = board.getLegalMoves();
+    return moves.get(random.nextInt(moves.size())).clone();
   }
 
   /**
@@ -0,0 +1,162 @@
+package threeChess.agents;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * A fixed-size cache of the utilities found by searches from each position, so that
+ * positions that are reached through different orders of moves only need to be searched once.
+ *
+ * The entries are found using the low bits of the Zobrist hash of the position. When two positions
+ * share a slot, the entry that was searched to the greater depth is kept, unless the other entry
+ * is from an older search.
+ *
+ * This table may be probed and stored into by many search threads at once without locking.
+ * Each entry is packed into four longs, the first of which is the hash of the position XOR'd
+ * with the other three. If two threads write the same entry at once, the longs of the entry may
+ * be mixed between their writes, but then the XOR of the longs will no longer match the hash,
+ * and the entry will be treated as missing when it is probed.
+ *
+ * @author Paddy Lamont, 22494652
+ */
+public class TranspositionTable {
+
+  /** Used to access the entries of the table without the overhead of volatile reads and writes. **/
+  private static final VarHandle ENTRIES = MethodHandles.arrayElementVarHandle(long[].class);
+
+  /** The result of a probe that did not find an entry. **/
+  public static final int MISS = -1;
+  /** The result of a probe that found an entry for a position with no moves available. **/
+  public static final int NO_MOVES = 0;
+  /** The result of a probe that found an entry, and copied its utilities. **/
+  public static final int HIT = 1;
+
+  /**
+   * Entry Longs:
+   *  0 - The hash of the position XOR'd with the three other longs.
+   *  1 - The utilities of the first and second colours, in the low and high 32 bits.
+   *  2 - The utility of the third colour and the packed best move, in the low and high 32 bits.
+   *  3 - The info of the entry.
+   *
+   * Info Bits:
+   *  ... G G G G G G G G G G G G G G G G 0 0 0 0 0 0 0 U D D D D D D D D
+   *
+   * G - The generation of the search that stored the entry, or 0 if the slot is empty.
+   * U - 1 if the entry has utilities, or 0 if no moves were available from the position.
+   * D - The depth that the position was searched to.
+   */
+  private static final int ENTRY_LONGS = 4;
+  private static final int HAS_UTILITIES_BIT = 1 << 8;
+
+  private final int indexMask;
+  private final long[] entries;
+
+  /** The generation of the current search, so that entries from previous searches can be ignored. **/
+  private volatile int generation = 1;
+
+  public TranspositionTable(int capacity) {
+    if (capacity <= 0 || ((capacity & (capacity - 1)) != 0))
+      throw new IllegalArgumentException("capacity must be a power of 2");
+
+    this.indexMask = capacity - 1;
+    this.entries = new long[capacity * ENTRY_LONGS];
+  }
+
+  /**
+   * Starts a new search, after which all existing entries will be ignored. This should be
+   * called whenever the constants used to calculate utilities change, such as every turn.
+   * This should not be called while other threads are searching using this table.
+   */
+  public void newSearch() {
+    int next = generation + 1;
+    if (next > 0xFFFF) {
+      clear();
+    } else {
+      generation = next;
+    }
+  }
+
+  /**
+   * Removes all of the entries from this table.
+   * This should not be called while other threads are searching using this table.
+   */
+  public void clear() {
+    Arrays.fill(entries, 0);
+    generation = 1;
+  }
+
+  /**
+   * Finds the entry for the position with the hash {@param key} that was searched
+   * to at least the given {@param depth} in the current search.
+   *
+   * @param dest the array to copy the utilities of the entry into if it is found.
+   * @return {@link #HIT} if the entry was found and its utilities were copied into {@param dest},
+   *         {@link #NO_MOVES} if the entry was found but there were no moves available from the
+   *         position, or {@link #MISS} if there is no such entry.
+   */
+  public int probe(long key, int depth, int[] dest) {
+    int offset = ((int) key & indexMask) * ENTRY_LONGS;
+    long check = (long) ENTRIES.getOpaque(entries, offset);
+    long utilities01 = (long) ENTRIES.getOpaque(entries, offset + 1);
+    long utilities2Move = (long) ENTRIES.getOpaque(entries, offset + 2);
+    long info = (long) ENTRIES.getOpaque(entries, offset + 3);
+    if ((check ^ utilities01 ^ utilities2Move ^ info) != key)
+      return MISS;
+    if ((info >>> 16) != generation || (info & 255) < depth)
+      return MISS;
+    if ((info & HAS_UTILITIES_BIT) == 0)
+      return NO_MOVES;
+
+    dest[0] = (int) utilities01;
+    dest[1] = (int) (utilities01 >> 32);
+    dest[2] = (int) utilities2Move;
+    return HIT;
+  }
+
+  /**
+   * @return the packed best move found from the position with the hash {@param key}
+   *         in the current search, or 0 if there is no entry for the position.
+   */
+  public int probeBestMove(long key) {
+    int offset = ((int) key & indexMask) * ENTRY_LONGS;
+    long check = (long) ENTRIES.getOpaque(entries, offset);
+    long utilities01 = (long) ENTRIES.getOpaque(entries, offset + 1);
+    long utilities2Move = (long) ENTRIES.getOpaque(entries, offset + 2);
+    long info = (long) ENTRIES.getOpaque(entries, offset + 3);
+    if ((check ^ utilities01 ^ utilities2Move ^ info) != key || (info >>> 16) != generation)
+      return 0;
+    return (int) (utilities2Move >>> 32);
+  }
+
+  /**
+   * Stores the result of searching the position with the hash {@param key} to the given {@param depth}.
+   * This replaces the existing entry in its slot if it is from an older search, or if it was not searched
+   * as deeply as this result.
+   *
+   * @param utilities the utilities found for the position, or null if there were no moves available.
+   * @param bestMove the packed best move found from the position.
+   */
+  public void store(long key, int depth, int[] utilities, int bestMove) {
+    int offset = ((int) key & indexMask) * ENTRY_LONGS;
+    int generation = this.generation;
+
+    // A torn read of the existing info only affects whether we replace the entry.
+    long existingInfo = (long) ENTRIES.getOpaque(entries, offset + 3);
+    if ((existingInfo >>> 16) == generation && (existingInfo & 255) > depth)
+      return;
+
+    long utilities01 = 0;
+    long utilities2Move = (long) bestMove << 32;
+    long info = (long) generation << 16 | Math.min(depth, 255);
+    if (utilities != null) {
+      utilities01 = (utilities[0] & 0xFFFFFFFFL) | (long) utilities[1] << 32;
+      utilities2Move |= utilities[2] & 0xFFFFFFFFL;
+      info |= HAS_UTILITIES_BIT;
+    }
+    ENTRIES.setOpaque(entries, offset, key ^ utilities01 ^ utilities2Move ^ info);
+    ENTRIES.setOpaque(entries, offset + 1, utilities01);
+    ENTRIES.setOpaque(entries, offset + 2, utilities2Move);
+    ENTRIES.setOpaque(entries, offset + 3, info);
+  }
+}
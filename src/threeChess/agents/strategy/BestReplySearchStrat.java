@@ -0,0 +1,233 @@
+package threeChess.agents.strategy;
+
+import threeChess.agents.GameLogic.GameConstants;
+import threeChess.agents.GameLogic.GameState;
+import threeChess.agents.GameLogic.Move;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Best-Reply Search treats both opponents as one player, so that the search behaves like
+ * two-player alpha-beta. At each opponent layer, the moves of both opponents are searched,
+ * but only the single move that is worst for us out of all of them is played, and the other
+ * opponent passes their turn. Each ply is therefore either our move or one opponent move,
+ * instead of minimax where it takes three plies to complete a round of moves.
+ *
+ * This allows searching much deeper in the same time, at the cost of sometimes
+ * searching positions that cannot be reached, as one opponent always passes.
+ *
+ * The depth of the search is also reduced using null-move pruning and late move
+ * reductions, as configured by the {@link SearchReductions} of each instance.
+ *
+ * Paper on Best-Reply Search:
+ * Schadd and Winands, "Best Reply Search for Multiplayer Games", IEEE TCIAIG, 2011.
+ *
+ * @author Paddy Lamont, 22494652
+ */
+public class BestReplySearchStrat extends MoveStrat {
+
+  /** Used to randomly select between equivalently good moves. **/
+  private static final Random random = new Random();
+
+  /** The depth to check, where each ply is either our move or one opponent move. **/
+  protected final int ply;
+  /** A list used to store all of the available moves from the initial state. **/
+  protected final List<Move> initialMoveList;
+  /** The state that moves are made and unmade on during the search. **/
+  protected final GameState searchState;
+  /** Orders the moves at each depth of the search, with room for the moves of both opponents. **/
+  protected final MoveOrdering moveOrdering;
+  /** The settings of the null-move pruning and late move reductions used to reduce the depth of the search. **/
+  protected final SearchReductions reductions;
+
+  /** Whether the next state searched was reached by passing the turn, in which case it is not passed again. **/
+  private boolean passedTurn;
+
+  /** @param reductions the settings of the null-move pruning and late move reductions to use. **/
+  public BestReplySearchStrat(GameConstants constants, int ply, SearchReductions reductions) {
+    if (reductions == null)
+      throw new IllegalArgumentException("reductions cannot be null");
+
+    this.ply = ply;
+    this.initialMoveList = new ArrayList<>(128);
+    this.searchState = new GameState(constants);
+    this.moveOrdering = new MoveOrdering(ply, 2 * GameConstants.maxAvailableMoves);
+    this.reductions = reductions;
+  }
+
+  public BestReplySearchStrat(GameConstants constants, int ply) {
+    this(constants, ply, SearchReductions.createDefault());
+  }
+
+  @Override public long getTotalMoves() {
+    return searchState.totalMoves;
+  }
+
+  /** @return the best move for the current agent by using Best-Reply Search. **/
+  @Override public Move decideMove(GameState initialState) {
+    // We pre-cache these fields to avoid reading them many times.
+    GameState state = searchState;
+    state.copyFrom(initialState);
+    int turnColour = state.turnColour;
+    int depth = ply;
+
+    // The killers and history from previous searches used different constants.
+    moveOrdering.clear();
+
+    // A previous search may have been stopped while searching after passing the turn.
+    passedTurn = false;
+
+    // Keep track of the best move we've found so far.
+    int bestUtility = Integer.MIN_VALUE;
+    Move bestMove = null;
+
+    // Loop through all of the possible moves, starting with the best moves of the previous search.
+    List<Move> availableMoves = initialMoveList;
+    state.computeAvailableMoves(availableMoves);
+    orderRootMoves(availableMoves);
+
+    startRootMoves();
+    for (Move move : availableMoves) {
+      long undo = state.makeMove(move);
+
+      // Find the utility of this move. Moves that are worse than the best move only need to be
+      // bounded, but moves that are equal to the best move need their exact utility to randomly
+      // select between them.
+      int utility;
+      if (depth == 1 || state.gameOverPacked != 0) {
+        utility = state.getUtility(turnColour);
+      } else {
+        int alpha = (bestUtility == Integer.MIN_VALUE ? Integer.MIN_VALUE : bestUtility - 1);
+        utility = performBRS(turnColour, state, depth - 1, alpha, Integer.MAX_VALUE);
+      }
+      state.unmakeMove(move, undo);
+
+      // If its the best utility, record this move. Also logic to select from equivalent utility moves.
+      if (utility > bestUtility || (utility == bestUtility && random.nextBoolean())) {
+        bestUtility = utility;
+        bestMove = move;
+      }
+      finishRootMove(move, utility, bestMove);
+    }
+    return bestMove;
+  }
+
+  /**
+   * @return the utility for {@param agentColour} of the given state, as given by Best-Reply Search.
+   *         The state must either be the turn of the agent, or of the opponent after the agent.
+   */
+  private int performBRS(int agentColour, GameState state, int depth, int alpha, int beta) {
+    // Abort the search if this strategy has been stopped.
+    checkStopped();
+
+    // We pre-cache these fields to avoid reading them many times.
+    int turnColour = state.turnColour;
+    MoveOrdering moveOrdering = this.moveOrdering;
+    int[] moves = moveOrdering.getMoves(depth);
+
+    // Maximise when the agent has the current turn, and minimise over the moves of both opponents otherwise.
+    boolean maximise = (turnColour == agentColour);
+
+    // Null-move pruning. If the agent, or both opponents, passing their turn is still so good for their side
+    // that the other side would avoid this state, then making a move is assumed to be at least as good.
+    // This is not done twice in a row, as that would just skip the turn of the other side.
+    boolean canPassTurn = !passedTurn;
+    passedTurn = false;
+    SearchReductions reductions = this.reductions;
+    if (canPassTurn && reductions.shouldTryNullMove(depth)
+        && (maximise ? beta != Integer.MAX_VALUE : alpha != Integer.MIN_VALUE)) {
+      state.passTurn();
+      if (!maximise) {
+        state.passTurn();
+      }
+      passedTurn = true;
+      int nullDepth = depth - 1 - reductions.nullMoveReduction;
+      int utility = (maximise
+          ? performBRS(agentColour, state, nullDepth, beta - 1, beta)
+          : performBRS(agentColour, state, nullDepth, alpha, alpha + 1));
+      passedTurn = false;
+      if (!maximise) {
+        state.unpassTurn();
+      }
+      state.unpassTurn();
+      if (maximise ? utility >= beta : utility <= alpha)
+        return maximise ? beta : alpha;
+    }
+
+    int moveCount = state.computeAvailableMoves(moves);
+    if (!maximise) {
+      state.passTurn();
+      moveCount = state.computeAvailableMoves(moves, moveCount);
+      state.unpassTurn();
+    }
+    if (moveCount == 0)
+      return state.getUtility(agentColour);
+
+    moveOrdering.scoreMoves(state.pieces, depth, moveCount);
+    for (int moveNumber = 0; moveNumber < moveCount; ++moveNumber) {
+      int move = moveOrdering.pickNextMove(depth, moveNumber, moveCount);
+      boolean isCapture = (state.pieces[(move >> 7) & 127] != 0);
+
+      // The opponent that does not make the move passes their turn, so that it is our turn after the move.
+      boolean passBefore = (!maximise && ((move >> 29) & 3) != turnColour);
+      if (passBefore) {
+        state.passTurn();
+      }
+      long undo = state.makeMove(move);
+      boolean passAfter = (!maximise && !passBefore && state.gameOverPacked == 0);
+      if (passAfter) {
+        state.passTurn();
+      }
+
+      // Find a state representative of this move.
+      int utility;
+      if (depth == 1 || state.gameOverPacked != 0) {
+        utility = state.getUtility(agentColour);
+      } else {
+        // Late quiet moves are first searched to a reduced depth using a null window, and are only
+        // searched to the full depth if they look better for this side than the best move so far.
+        boolean searchFullDepth = true;
+        if (reductions.shouldReduceLateMove(depth, moveNumber) && moveOrdering.isOrderedByHistory(depth, moveNumber)) {
+          int reducedDepth = depth - 1 - reductions.lateMoveReduction;
+          searchFullDepth = (maximise
+              ? performBRS(agentColour, state, reducedDepth, alpha, alpha + 1) > alpha
+              : performBRS(agentColour, state, reducedDepth, beta - 1, beta) < beta);
+        }
+        if (searchFullDepth) {
+          utility = performBRS(agentColour, state, depth - 1, alpha, beta);
+        } else {
+          utility = (maximise ? alpha : beta);
+        }
+      }
+
+      // Unmake the move and any passes in the reverse order to how they were made.
+      if (passAfter) {
+        state.unpassTurn();
+      }
+      state.unmakeMove(move, undo);
+      if (passBefore) {
+        state.unpassTurn();
+      }
+
+      // Keep track of the best or worst utility, and stop once the other player would avoid this state.
+      if (maximise) {
+        if (utility > alpha) {
+          alpha = utility;
+        }
+      } else {
+        if (utility < beta) {
+          beta = utility;
+        }
+      }
+      if (alpha >= beta) {
+        if (!isCapture) {
+          moveOrdering.recordCutoff(move, depth);
+        }
+        break;
+      }
+    }
+    return maximise ? alpha : beta;
+  }
+}
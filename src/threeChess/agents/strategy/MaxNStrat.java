@@ -0,0 +1,220 @@
+package threeChess.agents.strategy;
+
+import threeChess.agents.GameLogic.GameConstants;
+import threeChess.agents.GameLogic.GameState;
+import threeChess.agents.GameLogic.Move;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Max^n assumes that each agent chooses the move that maximises their own utility, the same as
+ * {@link MaximaxStrat}, but uses shallow pruning to skip moves that cannot change the result.
+ *
+ * Shallow pruning relies on a bound on the sum of the utilities of any two agents. The utility of
+ * each agent is selfWeight * (the value of its pieces) - 10 * (the value of its opponents' pieces),
+ * so the sum of the utilities of two agents is (selfWeight - 10) * (the value of all the pieces)
+ * - (selfWeight + 10) * (the value of the third agent's pieces). This is bounded above by how much
+ * the value of all the pieces on the board can grow during the search. Once an agent finds a move
+ * that is so good for them that the previous agent's utility must be below the best that the
+ * previous agent has already found, the previous agent will never choose this state, and so the
+ * rest of the moves from this state do not need to be searched.
+ *
+ * Paper on shallow pruning:
+ * Korf, "Multi-player alpha-beta pruning", Artificial Intelligence, 1991.
+ *
+ * @author Paddy Lamont, 22494652
+ */
+public class MaxNStrat extends MoveStrat {
+
+  /** Used to randomly select between equivalently good moves. **/
+  private static final Random random = new Random();
+
+  /** The utility of the agent that neither won or lost the game, when the game is over. **/
+  private static final int GAME_OVER_OTHER_UTILITY = -500_000;
+
+  /** The depth to check using max^n. **/
+  protected final int ply;
+  /** A list used to store all of the available moves from the initial state. **/
+  protected final List<Move> initialMoveList;
+  /** The state that moves are made and unmade on during the search. **/
+  protected final GameState searchState;
+  /** An array of utility vectors to use in storing the utilities of the best found states. **/
+  protected final int[][] bestUtilities;
+  /** Orders the moves at each depth of the search so that good moves are found, and pruned on, early. **/
+  protected final MoveOrdering moveOrdering;
+
+  /**
+   * An upper bound on the sum of the utilities of any two agents in the states that are
+   * not game over in the current search, or Long.MAX_VALUE if no bound could be found.
+   */
+  private long pairUtilityBound;
+
+  public MaxNStrat(GameConstants constants, int ply) {
+    this.ply = ply;
+    this.initialMoveList = new ArrayList<>(128);
+    this.searchState = new GameState(constants);
+    this.bestUtilities = new int[ply][GameConstants.numColours];
+    this.moveOrdering = new MoveOrdering(ply);
+  }
+
+  @Override public long getTotalMoves() {
+    return searchState.totalMoves;
+  }
+
+  /** @return the best move for the current agent by using max^n with shallow pruning. **/
+  @Override public Move decideMove(GameState initialState) {
+    // We pre-cache these fields to avoid reading them many times.
+    GameState state = searchState;
+    state.copyFrom(initialState);
+    int turnColour = state.turnColour;
+
+    // The bound and the killers and history from previous searches used different constants.
+    pairUtilityBound = calculatePairUtilityBound(state, ply);
+    moveOrdering.clear();
+
+    // Keep track of the best move we've found so far.
+    int bestUtility = Integer.MIN_VALUE;
+    Move bestMove = null;
+
+    // Loop through all of the possible moves, starting with the best moves of the previous search.
+    List<Move> availableMoves = initialMoveList;
+    state.computeAvailableMoves(availableMoves);
+    orderRootMoves(availableMoves);
+
+    startRootMoves();
+    for (Move move : availableMoves) {
+      long undo = state.makeMove(move);
+
+      // Find the utility of this move. Moves that are equal to the best move are not pruned,
+      // so that we can randomly select between them.
+      int[] representativeUtilities;
+      if (state.gameOverPacked != 0) {
+        state.unmakeMove(move, undo);
+        return move;
+      } else if (ply == 1) {
+        representativeUtilities = state.agentUtilities;
+      } else {
+        int pruneBelow = (bestUtility == Integer.MIN_VALUE ? Integer.MIN_VALUE : bestUtility - 1);
+        representativeUtilities = findMaxNRepresentativeUtilities(state, ply - 1, pruneBelow);
+      }
+      int utility = (representativeUtilities != null ? representativeUtilities[turnColour] : NO_UTILITY);
+      state.unmakeMove(move, undo);
+
+      // If its the best utility, record this move. Also logic to select from equivalent utility moves.
+      if (utility != NO_UTILITY && (utility > bestUtility || (utility == bestUtility && random.nextBoolean()))) {
+        bestUtility = utility;
+        bestMove = move;
+      }
+      finishRootMove(move, utility, bestMove);
+    }
+
+    // If we couldn't find any suitable moves, just return a random move.
+    return bestMove != null ? bestMove : availableMoves.get(random.nextInt(availableMoves.size()));
+  }
+
+  /**
+   * @return an upper bound on the sum of the utilities of any two agents, in any state that is not game
+   *         over and is reachable from {@param state} within {@param depth} moves, or Long.MAX_VALUE
+   *         if the piece utilities of the constants do not allow a bound to be found.
+   */
+  private static long calculatePairUtilityBound(GameState state, int depth) {
+    // We pre-cache these fields to avoid reading them many times.
+    byte[] pieces = state.pieces;
+    short[] pieceUtilities = state.constants.pieceUtilities;
+    int selfWeight = state.constants.selfWeight;
+
+    // The bound relies on the value of every agent's pieces being at least zero.
+    int minPieceUtility = Integer.MAX_VALUE;
+    int maxPieceUtility = Integer.MIN_VALUE;
+    for (short pieceUtility : pieceUtilities) {
+      minPieceUtility = Math.min(minPieceUtility, pieceUtility);
+      maxPieceUtility = Math.max(maxPieceUtility, pieceUtility);
+    }
+    if (minPieceUtility < 0)
+      return Long.MAX_VALUE;
+
+    // Find the value of all the pieces on the board. Captures only decrease this value, and each move
+    // can increase it by at most the change in utility of two pieces, in the case of castling.
+    long totalValue = 0;
+    for (int index = 0; index < 96 /* totalSquares */; ++index) {
+      byte piece = pieces[index];
+      if (piece == 0)
+        continue;
+      int colour = piece & 3;
+      int type = (piece >> 2) & 7;
+      totalValue += pieceUtilities[colour * (576 /* pieceIndexStride */) + index * (6 /* numPieces */) + type];
+    }
+    long maxTotalValue = totalValue + 2L * depth * (maxPieceUtility - minPieceUtility);
+    return (selfWeight >= 10 ? (selfWeight - 10) * maxTotalValue : 0);
+  }
+
+  /**
+   * Finds the utilities of the predicted end state {@param depth} turns into the future by using max^n.
+   * The moves are made and unmade on {@param state}, so it is unchanged once this returns.
+   *
+   * @param previousBest the best utility that the agent who moved into this state has found from its
+   *                     previous state. If this state is found to be no better than that for the previous
+   *                     agent, the search of this state is stopped early, and the utilities returned are
+   *                     only guaranteed to be no better than {@param previousBest} for the previous agent.
+   * @return the utilities of the predicted end state, or null if there are no moves available.
+   */
+  protected int[] findMaxNRepresentativeUtilities(GameState state, int depth, int previousBest) {
+    // Abort the search if this strategy has been stopped.
+    checkStopped();
+
+    // We pre-cache these fields to avoid reading them many times.
+    int turnColour = state.turnColour;
+    int[] agentUtilities = state.agentUtilities;
+    int[] bestUtilities = this.bestUtilities[depth - 1];
+    MoveOrdering moveOrdering = this.moveOrdering;
+    long pairUtilityBound = this.pairUtilityBound;
+
+    // We keep track of the utilities of the best state we've found so far.
+    int bestUtility = Integer.MIN_VALUE;
+
+    int moveCount = state.computeAvailableMoves(moveOrdering.getMoves(depth));
+    moveOrdering.scoreMoves(state.pieces, depth, moveCount);
+    for (int moveNumber = 0; moveNumber < moveCount; ++moveNumber) {
+      int move = moveOrdering.pickNextMove(depth, moveNumber, moveCount);
+      boolean isCapture = (state.pieces[(move >> 7) & 127] != 0);
+
+      // Apply the move.
+      long undo = state.makeMove(move);
+
+      // Find a state representative of this move.
+      int[] representativeUtilities;
+      if (state.gameOverPacked != 0) {
+        // Instant win, return this move.
+        System.arraycopy(agentUtilities, 0, bestUtilities, 0, 3 /* numColours */);
+        state.unmakeMove(move, undo);
+        return bestUtilities;
+      } else if (depth == 1) {
+        representativeUtilities = agentUtilities;
+      } else {
+        representativeUtilities = findMaxNRepresentativeUtilities(state, depth - 1, bestUtility);
+      }
+
+      // Keep track of the best option available for this agent.
+      if (representativeUtilities != null && representativeUtilities[turnColour] > bestUtility) {
+        bestUtility = representativeUtilities[turnColour];
+        System.arraycopy(representativeUtilities, 0, bestUtilities, 0, 3 /* numColours */);
+      }
+      state.unmakeMove(move, undo);
+
+      // Shallow pruning. Any state we choose will give us at least bestUtility, so the previous agent will get
+      // at most pairUtilityBound - bestUtility, unless the game is over. If the game is over, we must have won
+      // as our utility is above GAME_OVER_OTHER_UTILITY, and so the previous agent gets at most that.
+      if (bestUtility > GAME_OVER_OTHER_UTILITY
+          && GAME_OVER_OTHER_UTILITY <= previousBest
+          && pairUtilityBound <= (long) previousBest + bestUtility) {
+        if (!isCapture) {
+          moveOrdering.recordCutoff(move, depth);
+        }
+        break;
+      }
+    }
+    return (bestUtility > Integer.MIN_VALUE ? bestUtilities : null);
+  }
+}
@@ -6,16 +6,16 @@ import java.util.Random;
 
 import threeChess.agents.GameLogic;
 import threeChess.agents.GameLogic.Move;
-import threeChess.agents.GameLogic.MoveMany;
 import threeChess.agents.GameLogic.GameState;
 import threeChess.agents.GameLogic.GameConstants;
+import threeChess.agents.TranspositionTable;
 
 /**
  * Maximax assumes that each agent chooses the move that maximises their own utility.
  *
  * @author Paddy Lamont, 22494652
  */
-public class MaximaxStrat extends MoveStrat {
+public class MaximaxStrat extends MoveStrat implements RootMoveEvaluator {
 
   /** Used to randomly select between equivalently good moves. **/
   private static final Random random = new Random();
@@ -24,137 +24,179 @@ public class MaximaxStrat extends MoveStrat {
   protected final int ply;
   /** A list used to store all of the available moves from the initial state. **/
   protected final List<Move> initialMoveList;
-  /** An array of state objects to use in simulation of moves. **/
-  protected final GameState[] moveStates;
-  /** An array of state objects to use in storing the best found states. **/
-  protected final GameState[] bestStates;
+  /** The state that moves are made and unmade on during the search. **/
+  protected final GameState searchState;
+  /** An array of utility vectors to use in storing the utilities of the best found states. **/
+  protected final int[][] bestUtilities;
+  /** The table used to cache the utilities of searched positions, or null if no table is used. **/
+  protected TranspositionTable transpositionTable;
 
   public MaximaxStrat(GameConstants constants, int ply) {
     this.ply = ply;
     this.initialMoveList = new ArrayList<>(128);
-    this.moveStates = new GameState[ply];
-    this.bestStates = new GameState[ply];
-    for (int index = 0; index < ply; ++index) {
-      moveStates[index] = new GameState(constants);
-      bestStates[index] = new GameState(constants);
-    }
+    this.searchState = new GameState(constants);
+    this.bestUtilities = new int[ply][GameConstants.numColours];
+  }
+
+  @Override public void setTranspositionTable(TranspositionTable table) {
+    this.transpositionTable = table;
+  }
+
+  @Override public boolean usesTranspositionTable() {
+    return true;
+  }
+
+  @Override public long getTotalMoves() {
+    return searchState.totalMoves;
   }
 
   /** @return the best move for the current agent by using max-max-max. **/
-  @Override public Move decideMove(GameState state) {
+  @Override public Move decideMove(GameState initialState) {
     // We pre-cache these fields to avoid reading them many times.
-    int turnColour = state.turnColour;
-    int depth = ply;
+    GameState state = searchState;
+    state.copyFrom(initialState);
 
     // Keep track of the best move we've found so far.
     int bestUtility = Integer.MIN_VALUE;
     Move bestMove = null;
 
-    // Loop through all of the possible moves.
-    GameState moveState = moveStates[depth - 1];
+    // Loop through all of the possible moves, starting with the best moves of the previous search.
     List<Move> availableMoves = initialMoveList;
     state.computeAvailableMoves(availableMoves);
+    orderRootMoves(availableMoves);
 
+    startRootMoves();
     for (Move move : availableMoves) {
-      // Apply the move.
-      moveState.copyFrom(state);
-      moveState.applyMove(move);
-
-      // Find the utility of this move.
-      GameState representativeState;
-      if (moveState.gameOverPacked != 0) {
-        // Instant win, return this move.
+      int utility = evaluateRootMove(state, move);
+      if (utility == INSTANT_WIN_UTILITY)
         return move;
-      } else if (depth == 1) {
-        representativeState = moveState;
-      } else {
-        representativeState = findMaxMaxMaxRepresentativeState(moveState, depth - 1);
-        if (representativeState == null)
-          continue;
-      }
-      int utility = representativeState.getUtility(turnColour);
 
       // If its the best utility, record this move. Also logic to select from equivalent utility moves.
-      if (utility > bestUtility || (utility == bestUtility && random.nextBoolean())) {
+      if (utility != NO_UTILITY && (utility > bestUtility || (utility == bestUtility && random.nextBoolean()))) {
         bestUtility = utility;
         bestMove = move;
       }
+      finishRootMove(move, utility, bestMove);
     }
 
     // If we couldn't find any suitable moves, just return a random move.
     return bestMove != null ? bestMove : availableMoves.get(random.nextInt(availableMoves.size()));
   }
 
-  /** @return the predicted end state {@param depth} turns into the future by using minimax. **/
-  protected GameState findMaxMaxMaxRepresentativeState(GameState state, int depth) {
+  /** @return the utility of the root move {@param move} for the current agent by using max-max-max. **/
+  @Override public int evaluateRootMove(GameState state, Move move) {
+    int turnColour = state.turnColour;
+    long undo = state.makeMove(move);
+
+    // Find the utility of this move.
+    int[] representativeUtilities;
+    if (state.gameOverPacked != 0) {
+      state.unmakeMove(move, undo);
+      return INSTANT_WIN_UTILITY;
+    } else if (ply == 1) {
+      representativeUtilities = state.agentUtilities;
+    } else {
+      representativeUtilities = findMaxMaxMaxRepresentativeUtilities(state, ply - 1);
+    }
+    int utility = (representativeUtilities != null ? representativeUtilities[turnColour] : NO_UTILITY);
+    state.unmakeMove(move, undo);
+    return utility;
+  }
+
+  /**
+   * Finds the utilities of the predicted end state {@param depth} turns into the future by using maximax.
+   * The moves are made and unmade on {@param state}, so it is unchanged once this returns.
+   *
+   * @return the utilities of the predicted end state, or null if there are no moves available.
+   */
+  protected int[] findMaxMaxMaxRepresentativeUtilities(GameState state, int depth) {
+    // Abort the search if this strategy has been stopped.
+    checkStopped();
+
     // We pre-cache these fields to avoid reading them many times.
     int turnColour = state.turnColour;
     byte[] pieces = state.pieces;
-    Move[] potentialMoves = GameLogic.GameConstants.potentialMovesFlattened;
+    long[] colourBitboards = state.colourBitboards;
+    int[] agentUtilities = state.agentUtilities;
+    int[] potentialMoves = GameLogic.GameConstants.potentialMovesPacked;
     int[] potentialMoveDirectives = GameLogic.GameConstants.potentialMovesFlattenedDirectives;
+    TranspositionTable table = this.transpositionTable;
+    int[] bestUtilities = this.bestUtilities[depth - 1];
+
+    // Check if we have already searched this position through a different order of moves.
+    if (table != null) {
+      int probeResult = table.probe(state.hash, depth, bestUtilities);
+      if (probeResult != TranspositionTable.MISS)
+        return probeResult == TranspositionTable.HIT ? bestUtilities : null;
+    }
 
-    // We keep track of the best state we've found so far.
+    // We keep track of the utilities of the best state we've found so far.
     int bestUtility = Integer.MIN_VALUE;
-    GameState bestState = bestStates[depth - 1];
-    GameState moveState = moveStates[depth - 1];
-
-    // Loop through all of the available moves from this state.
-    int pieceIndex = (turnColour + 1) * (576 /* pieceIndexStride */);
-    for (int index = 96 /* totalSquares */; --index >= 0;) {
-      pieceIndex -= 6 /* numPieces */;
-
-      // Find the colour and type of this index, and filter out empty squares and pieces we can't move.
-      byte piece = pieces[index];
-      int colour = piece & 3;
-      if (piece == 0 || colour != turnColour)
-        continue;
-      int type = (piece >> 2) & 7;
-
-      // Find the potential move array for this piece.
-      int directive = potentialMoveDirectives[pieceIndex + type];
-      int fromIndex = directive >> 8;
-      int length = directive & 255;
-      for (int moveIndex = 0; moveIndex < length; ++moveIndex) {
-        Move move = potentialMoves[fromIndex + moveIndex];
-
-        byte toPiece = pieces[move.toIndex];
-        int toColour = toPiece & 3;
-        // For MoveMany moves we can skip forward moves when we hit a piece.
-        if (move instanceof MoveMany) {
-          if (toPiece != 0) {
-            moveIndex = ((MoveMany) move).skipIndex - 1;
-            if (toColour == colour)
-              continue;
-          }
-        } else if ((toPiece != 0 && toColour == colour) || !move.isValidMove(state))
-          continue;
-
-        // Apply the move.
-        moveState.copyFrom(state);
-        moveState.applyMove(move);
-
-        // Find a state representative of this move.
-        GameState representativeState;
-        if (moveState.gameOverPacked != 0) {
-          // Instant win, return this move.
-          bestState.softCopyFrom(moveState);
-          return bestState;
-        } else if (depth == 1) {
-          representativeState = moveState;
-        } else {
-          representativeState = findMaxMaxMaxRepresentativeState(moveState, depth - 1);
-          if (representativeState == null)
+    int bestMove = 0;
+
+    // Loop through all of the available moves from this state, jumping straight to our pieces using the bitboards.
+    int basePieceIndex = turnColour * (576 /* pieceIndexStride */);
+    for (int half = 1; half >= 0; --half) {
+      long remaining = colourBitboards[(turnColour << 1) | half];
+      while (remaining != 0) {
+        int bit = 63 - Long.numberOfLeadingZeros(remaining);
+        remaining ^= 1L << bit;
+        int index = (half << 6) | bit;
+        int type = (pieces[index] >> 2) & 7;
+
+        // Find the potential move array for this piece.
+        int directive = potentialMoveDirectives[basePieceIndex + index * (6 /* numPieces */) + type];
+        int fromIndex = directive >> 8;
+        int length = directive & 255;
+        for (int moveIndex = 0; moveIndex < length; ++moveIndex) {
+          int move = potentialMoves[fromIndex + moveIndex];
+
+          byte toPiece = pieces[(move >> 7) & 127];
+          int toColour = toPiece & 3;
+          // For MoveMany moves we can skip forward moves when we hit a piece.
+          if (((move >> 14) & 7) == 4 /* MANY */) {
+            if (toPiece != 0) {
+              moveIndex = ((move >> 18) & 255) - 1;
+              if (toColour == turnColour)
+                continue;
+            }
+          } else if ((toPiece != 0 && toColour == turnColour) || !state.isValidMove(move))
             continue;
-        }
-        int utility = representativeState.getUtility(turnColour);
 
-        // Keep track of the best option available for this agent.
-        if (utility > bestUtility) {
-          bestUtility = utility;
-          bestState.softCopyFrom(representativeState);
+          // Apply the move.
+          long undo = state.makeMove(move);
+
+          // Find a state representative of this move.
+          int[] representativeUtilities;
+          if (state.gameOverPacked != 0) {
+            // Instant win, return this move.
+            System.arraycopy(agentUtilities, 0, bestUtilities, 0, 3 /* numColours */);
+            state.unmakeMove(move, undo);
+            if (table != null) {
+              table.store(state.hash, depth, bestUtilities, move);
+            }
+            return bestUtilities;
+          } else if (depth == 1) {
+            representativeUtilities = agentUtilities;
+          } else {
+            representativeUtilities = findMaxMaxMaxRepresentativeUtilities(state, depth - 1);
+          }
+
+          // Keep track of the best option available for this agent.
+          if (representativeUtilities != null && representativeUtilities[turnColour] > bestUtility) {
+            bestUtility = representativeUtilities[turnColour];
+            System.arraycopy(representativeUtilities, 0, bestUtilities, 0, 3 /* numColours */);
+            bestMove = move;
+          }
+          state.unmakeMove(move, undo);
         }
       }
     }
-    return bestUtility > Integer.MIN_VALUE ? bestState : null;
+
+    int[] result = (bestUtility > Integer.MIN_VALUE ? bestUtilities : null);
+    if (table != null) {
+      table.store(state.hash, depth, result, bestMove);
+    }
+    return result;
   }
 }
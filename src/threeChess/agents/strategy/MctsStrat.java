@@ -0,0 +1,421 @@
+package threeChess.agents.strategy;
+
+import threeChess.agents.GameLogic.GameConstants;
+import threeChess.agents.GameLogic.GameState;
+import threeChess.agents.GameLogic.Move;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Monte-Carlo Tree Search using UCT. Each iteration selects a path down the tree by balancing the
+ * reward and the number of visits of each move, expands the tree, plays out the rest of the game
+ * using quick random or greedy moves, and then adds the resulting reward to every node on the path.
+ * Every node holds a reward for each of the three agents, and at each node the moves are selected
+ * using the rewards of the agent whose turn it is, so each agent is assumed to play for itself.
+ *
+ * The nodes are stored in flat arrays that are allocated once, and the moves are made and unmade
+ * on a single state using the packed move tables, so that iterations do not allocate any objects.
+ *
+ * This is an anytime strategy. It searches until the deadline given to {@link #setDeadline(long)},
+ * or for a fixed number of iterations if no deadline has been given.
+ *
+ * @author Paddy Lamont, 22494652
+ */
+public class MctsStrat extends MoveStrat {
+
+  /** The default number of iterations to search for when there is no deadline. **/
+  public static final int DEFAULT_ITERATIONS = 10_000;
+  /** The default maximum number of nodes in the tree. **/
+  public static final int DEFAULT_NODE_CAPACITY = 1 << 19;
+  /** The default number of moves to play out from each new node before evaluating the state. **/
+  public static final int DEFAULT_PLAYOUT_LENGTH = 12;
+  /** The exploration constant used in UCT. **/
+  static final double EXPLORATION = 0.7;
+  /** The number of iterations between each check of the deadline. **/
+  static final int DEADLINE_CHECK_INTERVAL = 64;
+  /** Marks a node whose children have not been generated. **/
+  static final int UNEXPANDED = -1;
+
+  /** The number of iterations to search for when there is no deadline. **/
+  protected final int iterations;
+  /** The maximum number of nodes in the tree, after which the tree is no longer expanded. **/
+  protected final int nodeCapacity;
+  /** The number of moves to play out from each new node before evaluating the state. **/
+  protected final int playoutLength;
+  /** Whether the play outs take the most valuable capture available, instead of only random moves. **/
+  protected final boolean greedyPlayouts;
+
+  /** A list used to store all of the available moves from the initial state. **/
+  protected final List<Move> initialMoveList;
+  /** The state that moves are made and unmade on during the search. **/
+  protected final GameState searchState;
+  /** The buffer used to generate moves for expansions and play outs. **/
+  private final int[] moveBuffer;
+  /** The undo records for the moves made in the current iteration, from the tree and then the play out. **/
+  private long[] undoRecords;
+  /** The moves made in the current iteration, from the tree and then the play out. **/
+  private int[] madeMoves;
+  /** The nodes visited in the current iteration, starting at the root. **/
+  private int[] path;
+
+  /**
+   * Node Arrays:
+   *  nodeMoves       - The packed move that leads to the node from its parent.
+   *  nodeFirstChild  - The index of the node's first child, or UNEXPANDED. Children are stored contiguously.
+   *  nodeChildCount  - The number of children of the node.
+   *  nodeVisits      - The number of iterations that have passed through the node.
+   *  nodeRewards     - The total reward of each agent from the iterations that have passed through the node,
+   *                    at index node * 3 + colour.
+   *
+   * These are only allocated once the strategy is first used, as AgentBrutus creates many instances.
+   */
+  private int[] nodeMoves;
+  private int[] nodeFirstChild;
+  private int[] nodeChildCount;
+  private int[] nodeVisits;
+  private float[] nodeRewards;
+  /** The number of nodes in the tree. **/
+  private int nodeCount;
+  /** The number of iterations that were run by the last search. **/
+  private int iterationsRun;
+
+  /** The state of the xorshift random number generator used to select play out moves. **/
+  private long randomState = System.nanoTime() | 1;
+
+  public MctsStrat(GameConstants constants, int iterations, int nodeCapacity, int playoutLength, boolean greedyPlayouts) {
+    if (iterations <= 0)
+      throw new IllegalArgumentException("iterations must be positive");
+    if (nodeCapacity <= GameConstants.maxAvailableMoves)
+      throw new IllegalArgumentException("nodeCapacity must be greater than the maximum available moves");
+
+    this.iterations = iterations;
+    this.nodeCapacity = nodeCapacity;
+    this.playoutLength = playoutLength;
+    this.greedyPlayouts = greedyPlayouts;
+    this.initialMoveList = new ArrayList<>(128);
+    this.searchState = new GameState(constants);
+    this.moveBuffer = new int[GameConstants.maxAvailableMoves];
+    this.undoRecords = new long[64];
+    this.madeMoves = new int[64];
+    this.path = new int[64];
+  }
+
+  /** Uses the default node capacity and play out length, with greedy play outs. **/
+  public MctsStrat(GameConstants constants, int iterations) {
+    this(constants, iterations, DEFAULT_NODE_CAPACITY, DEFAULT_PLAYOUT_LENGTH, true);
+  }
+
+  /** Uses the default number of iterations, node capacity, and play out length, with greedy play outs. **/
+  public MctsStrat(GameConstants constants) {
+    this(constants, DEFAULT_ITERATIONS);
+  }
+
+  @Override public boolean isAnytime() {
+    return true;
+  }
+
+  /** @return the number of iterations that were run by the last call to {@link #decideMove}. **/
+  public int getIterationsRun() {
+    return iterationsRun;
+  }
+
+  @Override public long getTotalMoves() {
+    return searchState.totalMoves;
+  }
+
+  /** @return the most visited move from the initial state after searching using MCTS. **/
+  @Override public Move decideMove(GameState initialState) {
+    // We pre-cache these fields to avoid reading them many times.
+    GameState state = searchState;
+    state.copyFrom(initialState);
+    long deadlineNanos = getDeadlineNanos();
+    if (nodeMoves == null) {
+      allocateNodes();
+    }
+
+    // Create the root node, and expand it using the moves in the initial move list.
+    List<Move> availableMoves = initialMoveList;
+    state.computeAvailableMoves(availableMoves);
+    int moveCount = availableMoves.size();
+    if (moveCount == 0)
+      return null;
+
+    nodeCount = 0;
+    int root = allocateNode(0);
+    nodeFirstChild[root] = nodeCount;
+    nodeChildCount[root] = moveCount;
+    for (Move move : availableMoves) {
+      allocateNode(move.packed);
+    }
+
+    // Run iterations until the deadline, or until we have run the fixed number of iterations.
+    iterationsRun = 0;
+    for (int iteration = 0; ; ++iteration) {
+      if (deadlineNanos != 0) {
+        if (iteration % DEADLINE_CHECK_INTERVAL == 0 && iteration > 0 && System.nanoTime() >= deadlineNanos)
+          break;
+      } else if (iteration >= iterations)
+        break;
+
+      // Abort the search if this strategy has been stopped.
+      checkStopped();
+      runIteration(state, root);
+      iterationsRun += 1;
+    }
+
+    // Select the move that has been visited the most, as its reward is the most reliable.
+    int firstChild = nodeFirstChild[root];
+    int bestChild = firstChild;
+    for (int child = firstChild + 1; child < firstChild + moveCount; ++child) {
+      if (nodeVisits[child] > nodeVisits[bestChild]) {
+        bestChild = child;
+      }
+    }
+    return availableMoves.get(bestChild - firstChild);
+  }
+
+  /**
+   * Adds the number of visits of each move from the initial state in the last search into {@param totals},
+   * in the order of the moves available from the initial state. This allows the results of many
+   * independent searches from the same state to be combined.
+   */
+  void addRootVisits(long[] totals) {
+    int firstChild = nodeFirstChild[0];
+    int childCount = nodeChildCount[0];
+    for (int index = 0; index < childCount; ++index) {
+      totals[index] += nodeVisits[firstChild + index];
+    }
+  }
+
+  /** Runs one iteration of selection, expansion, play out, and back-propagation from the {@param root} node. **/
+  private void runIteration(GameState state, int root) {
+    // We pre-cache these fields to avoid reading them many times.
+    int[] nodeFirstChild = this.nodeFirstChild;
+    int[] nodeVisits = this.nodeVisits;
+    float[] nodeRewards = this.nodeRewards;
+
+    // Selection. Walk down the tree until reaching a node that has not been expanded, or that ends the game.
+    int node = root;
+    int pathLength = 0;
+    int movesMade = 0;
+    path[pathLength++] = node;
+    while (nodeFirstChild[node] != UNEXPANDED && nodeChildCount[node] > 0 && state.gameOverPacked == 0) {
+      node = selectChild(node, state.turnColour);
+      ensurePathCapacity(pathLength + 1);
+      path[pathLength++] = node;
+      movesMade = makeMove(state, nodeMoves[node], movesMade);
+    }
+
+    // Expansion. We only expand nodes once they have been visited before, to save on nodes.
+    if (state.gameOverPacked == 0 && nodeFirstChild[node] == UNEXPANDED && nodeVisits[node] > 0 && expand(state, node)) {
+      if (nodeChildCount[node] > 0) {
+        node = nodeFirstChild[node] + (int) (nextRandom() % nodeChildCount[node]);
+        ensurePathCapacity(pathLength + 1);
+        path[pathLength++] = node;
+        movesMade = makeMove(state, nodeMoves[node], movesMade);
+      }
+    }
+
+    // Play out the rest of the game from the new node, and find the reward of the resulting state.
+    for (int move = 0; move < playoutLength && state.gameOverPacked == 0; ++move) {
+      int playoutMove = selectPlayoutMove(state, moveBuffer, greedyPlayouts, nextRandom());
+      if (playoutMove == 0)
+        break;
+      movesMade = makeMove(state, playoutMove, movesMade);
+    }
+    int reward = calculateReward(state);
+
+    // Return the state to the root.
+    while (movesMade > 0) {
+      movesMade -= 1;
+      state.unmakeMove(madeMoves[movesMade], undoRecords[movesMade]);
+    }
+
+    // Back-propagation. Add the reward to every node on the path.
+    float reward0 = (reward & 255) * 0.25f;
+    float reward1 = ((reward >> 8) & 255) * 0.25f;
+    float reward2 = (reward >> 16) * 0.25f;
+    for (int index = 0; index < pathLength; ++index) {
+      int pathNode = path[index];
+      nodeVisits[pathNode] += 1;
+      nodeRewards[pathNode * 3] += reward0;
+      nodeRewards[pathNode * 3 + 1] += reward1;
+      nodeRewards[pathNode * 3 + 2] += reward2;
+    }
+  }
+
+  /** @return the child of {@param node} with the greatest UCT value for the agent of colour {@param colour}. **/
+  private int selectChild(int node, int colour) {
+    // We pre-cache these fields to avoid reading them many times.
+    int[] nodeVisits = this.nodeVisits;
+    float[] nodeRewards = this.nodeRewards;
+    int firstChild = nodeFirstChild[node];
+    int lastChild = firstChild + nodeChildCount[node];
+    double logParentVisits = Math.log(Math.max(1, nodeVisits[node]));
+
+    int bestChild = firstChild;
+    double bestValue = Double.NEGATIVE_INFINITY;
+    for (int child = firstChild; child < lastChild; ++child) {
+      int visits = nodeVisits[child];
+      // Always try moves that have not been visited first.
+      if (visits == 0)
+        return child;
+
+      double value = nodeRewards[child * 3 + colour] / visits + EXPLORATION * Math.sqrt(logParentVisits / visits);
+      if (value > bestValue) {
+        bestValue = value;
+        bestChild = child;
+      }
+    }
+    return bestChild;
+  }
+
+  /**
+   * Generates the children of {@param node} from the moves available in {@param state}.
+   * @return whether there was enough room left in the tree to expand the node.
+   */
+  private boolean expand(GameState state, int node) {
+    int[] moves = moveBuffer;
+    int moveCount = state.computeAvailableMoves(moves);
+    if (nodeCount + moveCount > nodeCapacity)
+      return false;
+
+    nodeFirstChild[node] = nodeCount;
+    nodeChildCount[node] = moveCount;
+    for (int index = 0; index < moveCount; ++index) {
+      allocateNode(moves[index]);
+    }
+    return true;
+  }
+
+  /**
+   * Selects a move to play out from {@param state}. Greedy play outs take the most valuable
+   * capture if there are any available, and otherwise a random move is selected.
+   *
+   * @param moves a buffer to generate the available moves into.
+   * @param random a non-negative random number used to select a random move.
+   * @return the packed move, or 0 if there are no moves available.
+   */
+  static int selectPlayoutMove(GameState state, int[] moves, boolean greedyPlayouts, long random) {
+    int moveCount = state.computeAvailableMoves(moves);
+    if (moveCount == 0)
+      return 0;
+
+    if (greedyPlayouts) {
+      byte[] pieces = state.pieces;
+      int bestCapture = 0;
+      int bestVictimType = -1;
+      for (int index = 0; index < moveCount; ++index) {
+        int move = moves[index];
+        byte toPiece = pieces[(move >> 7) & 127];
+        if (toPiece != 0) {
+          int victimType = (toPiece >> 2) & 7;
+          if (victimType > bestVictimType) {
+            bestVictimType = victimType;
+            bestCapture = move;
+          }
+        }
+      }
+      if (bestCapture != 0)
+        return bestCapture;
+    }
+    return moves[(int) (random % moveCount)];
+  }
+
+  /**
+   * Calculates the reward of each agent in {@param state}. The winner of the game gets a reward of 1,
+   * the loser gets 0, and the other agent gets 0.5. If the game is not over, the agents are rewarded
+   * in the same way by the rank of their utility, with tied agents sharing the rewards of their ranks.
+   * The rewards of all the agents therefore always sum to 1.5.
+   *
+   * Reward Bits:
+   *  ... 2 2 2 2 2 2 2 2 1 1 1 1 1 1 1 1 0 0 0 0 0 0 0 0
+   *
+   * 0, 1, 2 - The reward of the agent with that colour, in quarters.
+   *
+   * @return the packed rewards of the agents.
+   */
+  static int calculateReward(GameState state) {
+    if (state.gameOverPacked != 0) {
+      int winner = state.gameOverPacked >> 2;
+      int loser = state.gameOverPacked & 3;
+      return 4 << (winner << 3) | 2 << ((3 - winner - loser) << 3);
+    }
+
+    int[] utilities = state.agentUtilities;
+    int reward = 0;
+    for (int colour = 0; colour < 3 /* numColours */; ++colour) {
+      int quarters = 0;
+      for (int other = 0; other < 3 /* numColours */; ++other) {
+        if (other == colour)
+          continue;
+        if (utilities[colour] > utilities[other]) {
+          quarters += 2;
+        } else if (utilities[colour] == utilities[other]) {
+          quarters += 1;
+        }
+      }
+      reward |= quarters << (colour << 3);
+    }
+    return reward;
+  }
+
+  /**
+   * Makes the packed {@param move} on {@param state}, recording it so that it can be unmade at the end of the iteration.
+   * @return the number of moves that have been made in this iteration.
+   */
+  private int makeMove(GameState state, int move, int movesMade) {
+    if (movesMade == madeMoves.length) {
+      madeMoves = Arrays.copyOf(madeMoves, 2 * madeMoves.length);
+      undoRecords = Arrays.copyOf(undoRecords, 2 * undoRecords.length);
+    }
+    madeMoves[movesMade] = move;
+    undoRecords[movesMade] = state.makeMove(move);
+    return movesMade + 1;
+  }
+
+  /** Makes sure that {@link #path} can hold at least {@param length} nodes. **/
+  private void ensurePathCapacity(int length) {
+    if (length > path.length) {
+      path = Arrays.copyOf(path, Math.max(length, 2 * path.length));
+    }
+  }
+
+  /** Allocates the arrays used to store the nodes of the tree. **/
+  private void allocateNodes() {
+    nodeMoves = new int[nodeCapacity];
+    nodeFirstChild = new int[nodeCapacity];
+    nodeChildCount = new int[nodeCapacity];
+    nodeVisits = new int[nodeCapacity];
+    nodeRewards = new float[nodeCapacity * 3];
+  }
+
+  /** @return the index of a new unexpanded node, reached using the packed {@param move}. **/
+  private int allocateNode(int move) {
+    int node = nodeCount++;
+    nodeMoves[node] = move;
+    nodeFirstChild[node] = UNEXPANDED;
+    nodeChildCount[node] = 0;
+    nodeVisits[node] = 0;
+    nodeRewards[node * 3] = 0;
+    nodeRewards[node * 3 + 1] = 0;
+    nodeRewards[node * 3 + 2] = 0;
+    return node;
+  }
+
+  /** @return a non-negative random number, using xorshift to avoid the synchronisation of {@link java.util.Random}. **/
+  private long nextRandom() {
+    randomState = xorshift(randomState);
+    return randomState >>> 1;
+  }
+
+  /** @return the next state of a xorshift random number generator, after the state {@param x}. **/
+  static long xorshift(long x) {
+    x ^= x << 13;
+    x ^= x >>> 7;
+    x ^= x << 17;
+    return x;
+  }
+}
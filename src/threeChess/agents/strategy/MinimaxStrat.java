@@ -3,7 +3,6 @@ package threeChess.agents.strategy;
 import threeChess.agents.GameLogic.GameConstants;
 import threeChess.agents.GameLogic.GameState;
 import threeChess.agents.GameLogic.Move;
-import threeChess.agents.GameLogic.MoveMany;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -23,21 +22,24 @@ public class MinimaxStrat extends MoveStrat {
   protected final int ply;
   /** A list used to store all of the available moves from the initial state. **/
   protected final List<Move> initialMoveList;
-  /** An array of state objects to use in simulation of moves. **/
-  protected final GameState[] moveStates;
+  /** The state that moves are made and unmade on during the search. **/
+  protected final GameState searchState;
 
   public MinimaxStrat(GameConstants constants, int ply) {
     this.ply = ply;
     this.initialMoveList = new ArrayList<>(128);
-    this.moveStates = new GameState[ply];
-    for (int index = 0; index < ply; ++index) {
-      moveStates[index] = new GameState(constants);
-    }
+    this.searchState = new GameState(constants);
+  }
+
+  @Override public long getTotalMoves() {
+    return searchState.totalMoves;
   }
 
   /** @return the best move for the current agent by using minimax. **/
-  @Override public Move decideMove(GameState state) {
+  @Override public Move decideMove(GameState initialState) {
     // We pre-cache these fields to avoid reading them many times.
+    GameState state = searchState;
+    state.copyFrom(initialState);
     int turnColour = state.turnColour;
     int depth = ply;
 
@@ -45,41 +47,46 @@ public class MinimaxStrat extends MoveStrat {
     int bestUtility = Integer.MIN_VALUE;
     Move bestMove = null;
 
-    // Loop through all of the possible moves.
-    GameState moveState = moveStates[depth - 1];
+    // Loop through all of the possible moves, starting with the best moves of the previous search.
     List<Move> availableMoves = initialMoveList;
     state.computeAvailableMoves(availableMoves);
+    orderRootMoves(availableMoves);
 
+    startRootMoves();
     for (Move move : availableMoves) {
       // Apply the move.
-      moveState.copyFrom(state);
-      moveState.applyMove(move);
+      long undo = state.makeMove(move);
 
       // Find the utility of this move.
       int utility;
-      if (depth == 1 || moveState.gameOverPacked != 0) {
-        utility = moveState.getUtility(turnColour);
+      if (depth == 1 || state.gameOverPacked != 0) {
+        utility = state.getUtility(turnColour);
       } else {
-        utility = performMinimax(turnColour, moveState, depth - 1);
+        utility = performMinimax(turnColour, state, depth - 1);
       }
+      state.unmakeMove(move, undo);
 
       // If its the best utility, record this move. Also logic to select from equivalent utility moves.
       if (utility > bestUtility || (utility == bestUtility && random.nextBoolean())) {
         bestUtility = utility;
         bestMove = move;
       }
+      finishRootMove(move, utility, bestMove);
     }
     return bestMove;
   }
 
   /** @return the score of the given state given by minimax. **/
   private int performMinimax(int agentColour, GameState state, int depth) {
+    // Abort the search if this strategy has been stopped.
+    checkStopped();
+
     // We pre-cache these fields to avoid reading them many times.
     int turnColour = state.turnColour;
     byte[] pieces = state.pieces;
-    Move[] potentialMoves = GameConstants.potentialMovesFlattened;
+    long[] colourBitboards = state.colourBitboards;
+    int[] potentialMoves = GameConstants.potentialMovesPacked;
     int[] potentialMoveDirectives = GameConstants.potentialMovesFlattenedDirectives;
-    GameState moveState = moveStates[depth - 1];
 
     // Maximise when the agent has the current turn.
     boolean maximise = (turnColour == agentColour);
@@ -87,57 +94,56 @@ public class MinimaxStrat extends MoveStrat {
     // Keep track of the best or worst utility.
     int notableUtility = (maximise ? Integer.MIN_VALUE : Integer.MAX_VALUE);
 
-    // Loop through all of the available moves from this state.
-    int pieceIndex = (turnColour + 1) * (576 /* pieceIndexStride */);
-    for (int index = 96 /* totalSquares */; --index >= 0;) {
-      pieceIndex -= 6 /* numPieces */;
-
-      // Find the colour and type of this index, and filter out empty squares and pieces we can't move.
-      byte piece = pieces[index];
-      int colour = piece & 3;
-      if (piece == 0 || colour != turnColour)
-        continue;
-      int type = (piece >> 2) & 7;
-
-      // Find the potential move array for this piece.
-      int directive = potentialMoveDirectives[pieceIndex + type];
-      int fromIndex = directive >> 8;
-      int length = directive & 255;
-      for (int moveIndex = 0; moveIndex < length; ++moveIndex) {
-        Move move = potentialMoves[fromIndex + moveIndex];
-
-        byte toPiece = pieces[move.toIndex];
-        int toColour = toPiece & 3;
-        // For MoveMany moves we can skip forward moves when we hit a piece.
-        if (move instanceof MoveMany) {
-          if (toPiece != 0) {
-            moveIndex = ((MoveMany) move).skipIndex - 1;
-            if (toColour == colour)
-              continue;
-          }
-        } else if ((toPiece != 0 && toColour == colour) || !move.isValidMove(state))
-          continue;
-
-        // Apply the move.
-        moveState.copyFrom(state);
-        moveState.applyMove(move);
-
-        // Find a state representative of this move.
-        int utility;
-        if (depth == 1 || moveState.gameOverPacked != 0) {
-          utility = moveState.getUtility(agentColour);
-        } else {
-          utility = performMinimax(agentColour, moveState, depth - 1);
-        }
-
-        // Keep track of the best option available for this agent.
-        if (maximise) {
-          if (utility > notableUtility) {
-            notableUtility = utility;
+    // Loop through all of the available moves from this state, jumping straight to our pieces using the bitboards.
+    int basePieceIndex = turnColour * (576 /* pieceIndexStride */);
+    for (int half = 1; half >= 0; --half) {
+      long remaining = colourBitboards[(turnColour << 1) | half];
+      while (remaining != 0) {
+        int bit = 63 - Long.numberOfLeadingZeros(remaining);
+        remaining ^= 1L << bit;
+        int index = (half << 6) | bit;
+        int type = (pieces[index] >> 2) & 7;
+
+        // Find the potential move array for this piece.
+        int directive = potentialMoveDirectives[basePieceIndex + index * (6 /* numPieces */) + type];
+        int fromIndex = directive >> 8;
+        int length = directive & 255;
+        for (int moveIndex = 0; moveIndex < length; ++moveIndex) {
+          int move = potentialMoves[fromIndex + moveIndex];
+
+          byte toPiece = pieces[(move >> 7) & 127];
+          int toColour = toPiece & 3;
+          // For MoveMany moves we can skip forward moves when we hit a piece.
+          if (((move >> 14) & 7) == 4 /* MANY */) {
+            if (toPiece != 0) {
+              moveIndex = ((move >> 18) & 255) - 1;
+              if (toColour == turnColour)
+                continue;
+            }
+          } else if ((toPiece != 0 && toColour == turnColour) || !state.isValidMove(move))
+            continue;
+
+          // Apply the move.
+          long undo = state.makeMove(move);
+
+          // Find a state representative of this move.
+          int utility;
+          if (depth == 1 || state.gameOverPacked != 0) {
+            utility = state.getUtility(agentColour);
+          } else {
+            utility = performMinimax(agentColour, state, depth - 1);
           }
-        } else {
-          if (utility < notableUtility) {
-            notableUtility = utility;
+          state.unmakeMove(move, undo);
+
+          // Keep track of the best option available for this agent.
+          if (maximise) {
+            if (utility > notableUtility) {
+              notableUtility = utility;
+            }
+          } else {
+            if (utility < notableUtility) {
+              notableUtility = utility;
+            }
           }
         }
       }
@@ -0,0 +1,164 @@
+package threeChess.agents.strategy;
+
+import threeChess.agents.GameLogic.GameConstants;
+
+import java.util.Arrays;
+
+/**
+ * Orders the moves available from each state of a search, so that the moves most
+ * likely to cause cutoffs are searched first. Captures are searched first, ordered by
+ * most-valuable-victim/least-valuable-attacker. These are followed by the killer moves
+ * that caused cutoffs at the same depth, and then by the rest of the moves ordered by
+ * how often they have caused cutoffs anywhere in the search.
+ *
+ * Each depth of the search has its own move buffer, so one instance can be used by a
+ * recursive search, but it must not be shared between threads.
+ *
+ * @author Paddy Lamont, 22494652
+ */
+public class MoveOrdering {
+
+  /**
+   * Move Score Bands:
+   *  Priority - PRIORITY_SCORE for a move given to {@link #prioritiseMove}, such as a principal variation move.
+   *  Captures - CAPTURE_SCORE + the type of the victim * 8 - the type of the attacker.
+   *  Killers  - KILLER_SCORE for the newest killer, and KILLER_SCORE - 1 for the older killer.
+   *  Others   - The history score of the move, which is capped below KILLER_SCORE - 1.
+   */
+  private static final int PRIORITY_SCORE = Integer.MAX_VALUE;
+  private static final int CAPTURE_SCORE = 1 << 30;
+  private static final int KILLER_SCORE = 1 << 29;
+  private static final int MAX_HISTORY_SCORE = KILLER_SCORE - 2;
+
+  /** The buffers used to store the moves available at each depth. **/
+  private final int[][] moveBuffers;
+  /** The buffers used to store the ordering scores of the moves available at each depth. **/
+  private final int[][] scoreBuffers;
+  /** The two most recent quiet moves that caused a cutoff at each depth. **/
+  private final int[][] killerMoves;
+  /** How much each quiet move has caused cutoffs, indexed by the from and to squares of the packed move. **/
+  private final int[] historyScores;
+
+  /**
+   * @param maxDepth the maximum depth that moves will be ordered at.
+   * @param movesPerDepth the maximum number of moves that may be ordered at once at each depth.
+   */
+  public MoveOrdering(int maxDepth, int movesPerDepth) {
+    this.moveBuffers = new int[maxDepth + 1][movesPerDepth];
+    this.scoreBuffers = new int[maxDepth + 1][movesPerDepth];
+    this.killerMoves = new int[maxDepth + 1][2];
+    this.historyScores = new int[1 << 14];
+  }
+
+  /** Orders up to {@link GameConstants#maxAvailableMoves} moves at each depth up to {@param maxDepth}. **/
+  public MoveOrdering(int maxDepth) {
+    this(maxDepth, GameConstants.maxAvailableMoves);
+  }
+
+  /** Forgets all of the killer moves and history, which should be done whenever the utility constants change. **/
+  public void clear() {
+    for (int[] killers : killerMoves) {
+      Arrays.fill(killers, 0);
+    }
+    Arrays.fill(historyScores, 0);
+  }
+
+  /** @return the buffer that the moves to be ordered at {@param depth} should be written into. **/
+  public int[] getMoves(int depth) {
+    return moveBuffers[depth];
+  }
+
+  /**
+   * Scores the first {@param moveCount} moves in the move buffer of {@param depth} for ordering.
+   * @param pieces the pieces of the state that the moves are available from.
+   */
+  public void scoreMoves(byte[] pieces, int depth, int moveCount) {
+    // We pre-cache these fields to avoid reading them many times.
+    int[] moves = moveBuffers[depth];
+    int[] scores = scoreBuffers[depth];
+    int[] historyScores = this.historyScores;
+    int killer0 = killerMoves[depth][0];
+    int killer1 = killerMoves[depth][1];
+
+    for (int index = 0; index < moveCount; ++index) {
+      int move = moves[index];
+      byte toPiece = pieces[(move >> 7) & 127];
+      int score;
+      if (toPiece != 0) {
+        int victimType = (toPiece >> 2) & 7;
+        int attackerType = (move >> 26) & 7;
+        score = CAPTURE_SCORE + victimType * 8 - attackerType;
+      } else if (move == killer0) {
+        score = KILLER_SCORE;
+      } else if (move == killer1) {
+        score = KILLER_SCORE - 1;
+      } else {
+        score = historyScores[move & 0x3FFF];
+      }
+      scores[index] = score;
+    }
+  }
+
+  /**
+   * Makes sure that the packed {@param move} is picked first out of the first {@param moveCount} moves
+   * at {@param depth}, if it is one of them. This should be called after {@link #scoreMoves}.
+   */
+  public void prioritiseMove(int depth, int moveCount, int move) {
+    int[] moves = moveBuffers[depth];
+    for (int index = 0; index < moveCount; ++index) {
+      if (moves[index] == move) {
+        scoreBuffers[depth][index] = PRIORITY_SCORE;
+        return;
+      }
+    }
+  }
+
+  /**
+   * Selects the highest scoring move out of the moves from {@param from} onwards at {@param depth},
+   * and swaps it into {@param from}. This is done one move at a time instead of sorting all of the
+   * moves up-front, as after a cutoff the rest of the moves never need to be ordered.
+   *
+   * @return the selected move.
+   */
+  public int pickNextMove(int depth, int from, int moveCount) {
+    int[] moves = moveBuffers[depth];
+    int[] scores = scoreBuffers[depth];
+
+    int bestIndex = from;
+    int bestScore = scores[from];
+    for (int index = from + 1; index < moveCount; ++index) {
+      if (scores[index] > bestScore) {
+        bestScore = scores[index];
+        bestIndex = index;
+      }
+    }
+
+    int move = moves[bestIndex];
+    if (bestIndex != from) {
+      moves[bestIndex] = moves[from];
+      scores[bestIndex] = scores[from];
+      moves[from] = move;
+      scores[from] = bestScore;
+    }
+    return move;
+  }
+
+  /**
+   * @return whether the move picked into {@param index} at {@param depth} is a quiet move that was ordered
+   *         by its history score, and is therefore not a capture, a killer move, or a prioritised move.
+   */
+  public boolean isOrderedByHistory(int depth, int index) {
+    return scoreBuffers[depth][index] < KILLER_SCORE - 1;
+  }
+
+  /** Records that the quiet {@param move} caused a cutoff at {@param depth}, so that it is searched earlier later. **/
+  public void recordCutoff(int move, int depth) {
+    int[] killers = killerMoves[depth];
+    if (killers[0] != move) {
+      killers[1] = killers[0];
+      killers[0] = move;
+    }
+    int historyIndex = move & 0x3FFF;
+    historyScores[historyIndex] = Math.min(MAX_HISTORY_SCORE, historyScores[historyIndex] + depth * depth);
+  }
+}
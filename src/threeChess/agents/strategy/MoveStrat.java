@@ -2,6 +2,10 @@ package threeChess.agents.strategy;
 
 import threeChess.agents.GameLogic.Move;
 import threeChess.agents.GameLogic.GameState;
+import threeChess.agents.TranspositionTable;
+
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * A strategy for deciding moves that can be used with Brutus or a fixed ply agent.
@@ -10,8 +14,327 @@ import threeChess.agents.GameLogic.GameState;
  */
 public abstract class MoveStrat {
 
+  /**
+   * Thrown from within a search to abort it once the strategy has been stopped.
+   * This is pre-allocated and has no stack trace, so that it is cheap to throw.
+   */
+  public static final class SearchStoppedException extends RuntimeException {
+    private static final long serialVersionUID = -120950224990492782L;
+    private static final SearchStoppedException INSTANCE = new SearchStoppedException();
+
+    private SearchStoppedException() {
+      super("The search was stopped", null, false, false);
+    }
+  }
+
+  /** The utility returned by {@link RootMoveEvaluator#evaluateRootMove} for a move that wins the game instantly. **/
+  public static final int INSTANT_WIN_UTILITY = Integer.MAX_VALUE;
+  /** The utility returned by {@link RootMoveEvaluator#evaluateRootMove} for a move that should not be considered. **/
+  public static final int NO_UTILITY = Integer.MIN_VALUE;
+
+  /** The number of calls to {@link #checkStopped()} between each check of the deadline. **/
+  private static final int NODES_PER_DEADLINE_CHECK = 1024;
+
+  /** Set from another thread to abort any search that is currently being run by this strategy. **/
+  private volatile boolean stopped = false;
+
+  /** The time by which the current search must finish, as measured by {@link System#nanoTime()}, or 0 for no deadline. **/
+  private long deadlineNanos;
+  /** The deadline after which searches are aborted, which is 0 for anytime strategies as they finish by themselves. **/
+  private long abortNanos;
+  /** Counts down the calls to {@link #checkStopped()} until the deadline is next checked. **/
+  private int nodesUntilDeadlineCheck = NODES_PER_DEADLINE_CHECK;
+
+  /** The best root move out of the root moves that the current search has finished searching. **/
+  private Move partialBestMove;
+  /** The number of root moves that the current search has finished searching. **/
+  private int rootMovesSearched;
+  /** The packed root moves that the current search has finished searching, and their utilities, in the order searched. **/
+  private int[] rootMoves = new int[128];
+  private int[] rootUtilities = new int[128];
+  /** The packed moves of the principal variation of the current search, starting with the best root move. **/
+  private int[] principalVariation = new int[16];
+  private int principalVariationLength;
+
+  /**
+   * The results of the previous search from the same state, given to {@link #setPreviousSearch}.
+   * These are used to order the root moves, and to search the previous principal variation first.
+   */
+  private int previousBestMove;
+  private int previousBestUtility;
+  private int[] previousRootMoves = new int[128];
+  private int[] previousRootUtilities = new int[128];
+  private int previousRootMoveCount;
+  private int[] previousPrincipalVariation = new int[16];
+  private int previousPrincipalVariationLength;
+  /** A buffer used to store the ordering keys of the root moves. **/
+  private int[] rootOrderKeys = new int[128];
+
   /**
    * @return the decided move to make using this strategy from the state {@param state}.
+   * @throws SearchStoppedException if {@link #stop()} is called during the search, or if the deadline passes.
    */
   public abstract Move decideMove(GameState state);
+
+  /**
+   * @return the total number of moves that have been made on the states that this strategy searches on,
+   *         which can be compared before and after a search to find the number of nodes it searched.
+   */
+  public abstract long getTotalMoves();
+
+  /**
+   * @return whether this strategy keeps improving its decision until the deadline given to
+   *         {@link #setDeadline(long)}, instead of searching to a fixed ply.
+   */
+  public boolean isAnytime() {
+    return false;
+  }
+
+  /**
+   * Sets the time by which this strategy must decide its move, as measured by {@link System#nanoTime()}.
+   * Anytime strategies finish their search at the deadline and return the best move they have found.
+   * Other strategies abort their search with a {@link SearchStoppedException} shortly after the deadline,
+   * after which the best move of the root moves they finished is available from {@link #getPartialBestMove()}.
+   *
+   * @param deadlineNanos the deadline, or 0 for the strategy to use its default amount of search.
+   */
+  public void setDeadline(long deadlineNanos) {
+    this.deadlineNanos = deadlineNanos;
+    this.abortNanos = (isAnytime() ? 0 : deadlineNanos);
+    this.nodesUntilDeadlineCheck = NODES_PER_DEADLINE_CHECK;
+  }
+
+  /** @return the deadline given to {@link #setDeadline(long)}, or 0 if there is no deadline. **/
+  protected final long getDeadlineNanos() {
+    return deadlineNanos;
+  }
+
+  /**
+   * Stops this strategy, causing any search it is running, and any future searches,
+   * to throw a {@link SearchStoppedException} until {@link #resume()} is called.
+   */
+  public void stop() {
+    stopped = true;
+  }
+
+  /** Allows this strategy to search again after it was stopped. **/
+  public void resume() {
+    stopped = false;
+  }
+
+  /**
+   * Shuts down any threads that this strategy has started to search with, which should be done once it
+   * will not be used for a while, such as at the end of a game. The strategy can still be used afterwards,
+   * and will start new threads the next time it searches.
+   */
+  public void releaseThreads() {}
+
+  /**
+   * Should be called regularly by searches so that they can be aborted. This is called for every node of
+   * a search, so the deadline is only checked every {@link #NODES_PER_DEADLINE_CHECK} calls, as reading
+   * the time is much slower than decrementing a counter.
+   *
+   * @throws SearchStoppedException if this strategy has been stopped, or if the deadline has passed.
+   */
+  protected final void checkStopped() {
+    if (stopped)
+      throw SearchStoppedException.INSTANCE;
+    if (--nodesUntilDeadlineCheck <= 0) {
+      checkDeadline();
+    }
+  }
+
+  /**
+   * Aborts the current search, for searches that find out they must stop in some other way than
+   * {@link #checkStopped()}, such as from the searches of other threads being aborted.
+   *
+   * @throws SearchStoppedException always.
+   */
+  protected static void abortSearch() {
+    throw SearchStoppedException.INSTANCE;
+  }
+
+  /** @throws SearchStoppedException if this strategy should abort its search as the deadline has passed. **/
+  private void checkDeadline() {
+    nodesUntilDeadlineCheck = NODES_PER_DEADLINE_CHECK;
+    if (abortNanos != 0 && System.nanoTime() - abortNanos >= 0)
+      throw SearchStoppedException.INSTANCE;
+  }
+
+  /**
+   * Gives this strategy the results of {@param previous}, which should have just finished a search from
+   * the same state that this strategy will search next, normally to one less ply. The root moves of the
+   * next search are then ordered by their utilities in the previous search, with the previous best move
+   * first, and strategies that support it search the previous principal variation first.
+   *
+   * @param previous the previous search, or null to search the root moves in their original order.
+   */
+  public void setPreviousSearch(MoveStrat previous) {
+    if (previous == null || previous.partialBestMove == null) {
+      previousBestMove = 0;
+      previousRootMoveCount = 0;
+      previousPrincipalVariationLength = 0;
+      return;
+    }
+
+    previousBestMove = previous.partialBestMove.packed;
+    previousRootMoveCount = previous.rootMovesSearched;
+    for (int index = 0; index < previousRootMoveCount; ++index) {
+      if (previous.rootMoves[index] == previousBestMove) {
+        previousBestUtility = previous.rootUtilities[index];
+        break;
+      }
+    }
+    if (previousRootMoves.length < previousRootMoveCount) {
+      previousRootMoves = new int[previous.rootMoves.length];
+      previousRootUtilities = new int[previous.rootMoves.length];
+    }
+    System.arraycopy(previous.rootMoves, 0, previousRootMoves, 0, previousRootMoveCount);
+    System.arraycopy(previous.rootUtilities, 0, previousRootUtilities, 0, previousRootMoveCount);
+
+    previousPrincipalVariationLength = previous.principalVariationLength;
+    if (previousPrincipalVariation.length < previousPrincipalVariationLength) {
+      previousPrincipalVariation = new int[previous.principalVariation.length];
+    }
+    System.arraycopy(previous.principalVariation, 0, previousPrincipalVariation, 0, previousPrincipalVariationLength);
+  }
+
+  /**
+   * Sorts the root {@param moves} so that the best move of the previous search is first, followed by the rest
+   * of the moves in order of their utilities in the previous search. Moves with equal utilities, and moves that
+   * the previous search did not finish, keep their original order after the others. This does nothing if there
+   * was no previous search.
+   */
+  protected final void orderRootMoves(List<Move> moves) {
+    int previousRootMoveCount = this.previousRootMoveCount;
+    if (previousRootMoveCount == 0)
+      return;
+
+    // We pre-cache these fields to avoid reading them many times.
+    int[] previousRootMoves = this.previousRootMoves;
+    int[] previousRootUtilities = this.previousRootUtilities;
+    int moveCount = moves.size();
+    if (rootOrderKeys.length < moveCount) {
+      rootOrderKeys = new int[Math.max(moveCount, 2 * rootOrderKeys.length)];
+    }
+    int[] keys = rootOrderKeys;
+
+    for (int index = 0; index < moveCount; ++index) {
+      int move = moves.get(index).packed;
+      int key = Integer.MIN_VALUE;
+      if (move == previousBestMove) {
+        key = Integer.MAX_VALUE;
+      } else {
+        for (int previousIndex = 0; previousIndex < previousRootMoveCount; ++previousIndex) {
+          if (previousRootMoves[previousIndex] == move) {
+            key = previousRootUtilities[previousIndex];
+            break;
+          }
+        }
+      }
+      keys[index] = key;
+    }
+
+    // Insertion sort, as it is stable and there are never many root moves.
+    for (int index = 1; index < moveCount; ++index) {
+      int key = keys[index];
+      Move move = moves.get(index);
+      int to = index;
+      while (to > 0 && keys[to - 1] < key) {
+        keys[to] = keys[to - 1];
+        moves.set(to, moves.get(to - 1));
+        to -= 1;
+      }
+      keys[to] = key;
+      moves.set(to, move);
+    }
+  }
+
+  /** @return whether {@link #setPreviousSearch} was given the results of a previous search. **/
+  protected final boolean hasPreviousSearch() {
+    return previousRootMoveCount > 0;
+  }
+
+  /** @return the utility of the best move of the previous search, which is only valid if {@link #hasPreviousSearch()}. **/
+  protected final int getPreviousBestUtility() {
+    return previousBestUtility;
+  }
+
+  /** @return the principal variation of the previous search, which is only valid up to {@link #getPreviousPrincipalVariationLength()}. **/
+  protected final int[] getPreviousPrincipalVariation() {
+    return previousPrincipalVariation;
+  }
+
+  /** @return the number of moves in the principal variation of the previous search, or 0 if there is none. **/
+  protected final int getPreviousPrincipalVariationLength() {
+    return previousPrincipalVariationLength;
+  }
+
+  /** Should be called by searches before they start searching the root moves. **/
+  protected final void startRootMoves() {
+    partialBestMove = null;
+    rootMovesSearched = 0;
+    principalVariationLength = 0;
+  }
+
+  /**
+   * Should be called by searches each time they finish searching a root move, so that an
+   * aborted search can still be used, and so that the next search can order its root moves.
+   *
+   * @param move the root move that was searched.
+   * @param utility the utility of {@param move}, which may be a bound if it is worse than the best move.
+   * @param bestMove the best root move found so far, or null if no suitable moves have been found yet.
+   */
+  protected final void finishRootMove(Move move, int utility, Move bestMove) {
+    if (rootMovesSearched == rootMoves.length) {
+      rootMoves = Arrays.copyOf(rootMoves, 2 * rootMoves.length);
+      rootUtilities = Arrays.copyOf(rootUtilities, 2 * rootUtilities.length);
+    }
+    rootMoves[rootMovesSearched] = move.packed;
+    rootUtilities[rootMovesSearched] = utility;
+    rootMovesSearched += 1;
+    partialBestMove = bestMove;
+  }
+
+  /**
+   * Records the principal variation of the current search, which should be updated whenever a new best root move
+   * is found. The principal variation is the best root move {@param rootMove}, followed by the first
+   * {@param lineLength} packed moves of {@param line}, which are the moves expected to be made after it.
+   */
+  protected final void setPrincipalVariation(Move rootMove, int[] line, int lineLength) {
+    if (principalVariation.length < lineLength + 1) {
+      principalVariation = new int[Math.max(lineLength + 1, 2 * principalVariation.length)];
+    }
+    principalVariation[0] = rootMove.packed;
+    System.arraycopy(line, 0, principalVariation, 1, lineLength);
+    principalVariationLength = lineLength + 1;
+  }
+
+  /** @return the best root move out of the root moves that the last search finished, or null if it finished none. **/
+  public Move getPartialBestMove() {
+    return partialBestMove;
+  }
+
+  /** @return whether the last search finished searching the root {@param move}. **/
+  public boolean hasFinishedRootMove(Move move) {
+    for (int index = 0; index < rootMovesSearched; ++index) {
+      if (rootMoves[index] == move.packed)
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Sets the transposition table that this strategy should use to cache the results of its searches.
+   * This allows one table to be shared between the strategies of many ply values.
+   * Strategies that cannot make use of a transposition table ignore it.
+   *
+   * @param table the table to use, or null to not use a transposition table.
+   */
+  public void setTranspositionTable(TranspositionTable table) {}
+
+  /** @return whether this strategy makes use of a transposition table given to {@link #setTranspositionTable}. **/
+  public boolean usesTranspositionTable() {
+    return false;
+  }
 }
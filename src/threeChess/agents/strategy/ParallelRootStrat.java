@@ -0,0 +1,227 @@
+package threeChess.agents.strategy;
+
+import threeChess.agents.GameLogic.GameConstants;
+import threeChess.agents.GameLogic.GameState;
+import threeChess.agents.GameLogic.Move;
+import threeChess.agents.TranspositionTable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiFunction;
+
+/**
+ * Splits the moves available from the root of a search between many threads using a ForkJoinPool.
+ * Each thread evaluates its share of the root moves using its own instance of another strategy,
+ * and its own state to make and unmake moves on. The best move is then selected from the
+ * utilities of all the root moves in their original order, so that equivalently good moves
+ * are randomly selected between in the same way as {@link MaximaxStrat}.
+ *
+ * If any of the workers abort their search, the rest of the workers stop before their next root move,
+ * and the root moves that were finished are recorded so that the best of them can still be used.
+ *
+ * @author Paddy Lamont, 22494652
+ */
+public class ParallelRootStrat extends MoveStrat {
+
+  /** Used to randomly select between equivalently good moves. **/
+  private static final Random random = new Random();
+
+  /** The pool used to evaluate the root moves. **/
+  private final ForkJoinPool pool;
+  /** The strategies used to evaluate the root moves, one for each share of the root moves. **/
+  private final MoveStrat[] workers;
+  /** The same strategies as {@link #workers}, as the evaluators of their shares of the root moves. **/
+  private final RootMoveEvaluator[] evaluators;
+  /** The states that each worker makes and unmakes moves on. **/
+  private final GameState[] workerStates;
+  /** A list used to store all of the available moves from the initial state. **/
+  private final List<Move> initialMoveList;
+  /** The utilities of each of the available moves from the initial state. **/
+  private int[] moveUtilities;
+  /** Whether each of the available moves from the initial state has been evaluated by a worker. **/
+  private boolean[] moveFinished;
+  /** Set by the workers when one of them aborts its search, so that the rest stop and the search is aborted. **/
+  private volatile boolean aborted;
+
+  /**
+   * @param constants the constants to use to evaluate states.
+   * @param ply the depth to search to.
+   * @param strategyGenerator generates the strategies used by each worker.
+   * @param workerCount the number of shares to split the root moves into.
+   * @param pool the pool used to evaluate the shares of root moves.
+   */
+  public <S extends MoveStrat & RootMoveEvaluator> ParallelRootStrat(
+      GameConstants constants, int ply,
+      BiFunction<GameConstants, Integer, S> strategyGenerator,
+      int workerCount, ForkJoinPool pool) {
+
+    if (workerCount <= 0)
+      throw new IllegalArgumentException("workerCount must be positive");
+
+    this.pool = pool;
+    this.workers = new MoveStrat[workerCount];
+    this.evaluators = new RootMoveEvaluator[workerCount];
+    this.workerStates = new GameState[workerCount];
+    for (int index = 0; index < workerCount; ++index) {
+      S worker = strategyGenerator.apply(constants, ply);
+      workers[index] = worker;
+      evaluators[index] = worker;
+      workerStates[index] = new GameState(constants);
+    }
+    this.initialMoveList = new ArrayList<>(128);
+    this.moveUtilities = new int[128];
+    this.moveFinished = new boolean[128];
+  }
+
+  /** Uses the common ForkJoinPool to evaluate the shares of root moves. **/
+  public <S extends MoveStrat & RootMoveEvaluator> ParallelRootStrat(
+      GameConstants constants, int ply,
+      BiFunction<GameConstants, Integer, S> strategyGenerator, int workerCount) {
+
+    this(constants, ply, strategyGenerator, workerCount, ForkJoinPool.commonPool());
+  }
+
+  /** The workers can all share the one table, as it is safe to use from many threads. **/
+  @Override public void setTranspositionTable(TranspositionTable table) {
+    for (MoveStrat worker : workers) {
+      worker.setTranspositionTable(table);
+    }
+  }
+
+  @Override public boolean usesTranspositionTable() {
+    return workers[0].usesTranspositionTable();
+  }
+
+  /** The workers evaluate the root moves on their own states, which are counted as well as the workers' own states. **/
+  @Override public long getTotalMoves() {
+    long totalMoves = 0;
+    for (int index = 0; index < workers.length; ++index) {
+      totalMoves += workers[index].getTotalMoves() + workerStates[index].totalMoves;
+    }
+    return totalMoves;
+  }
+
+  /** The workers abort their searches at the deadline, which we then abort by checking if we are stopped. **/
+  @Override public void setDeadline(long deadlineNanos) {
+    super.setDeadline(deadlineNanos);
+    for (MoveStrat worker : workers) {
+      worker.setDeadline(deadlineNanos);
+    }
+  }
+
+  @Override public void stop() {
+    super.stop();
+    for (MoveStrat worker : workers) {
+      worker.stop();
+    }
+  }
+
+  @Override public void resume() {
+    super.resume();
+    for (MoveStrat worker : workers) {
+      worker.resume();
+    }
+  }
+
+  /** The pool is not owned by this strategy, so only the threads of the workers are released. **/
+  @Override public void releaseThreads() {
+    for (MoveStrat worker : workers) {
+      worker.releaseThreads();
+    }
+  }
+
+  /** @return the best move for the current agent, found by evaluating the root moves in parallel. **/
+  @Override public Move decideMove(GameState initialState) {
+    List<Move> availableMoves = initialMoveList;
+    initialState.computeAvailableMoves(availableMoves);
+    orderRootMoves(availableMoves);
+    int moveCount = availableMoves.size();
+    if (moveUtilities.length < moveCount) {
+      moveUtilities = new int[Math.max(moveCount, 2 * moveUtilities.length)];
+      moveFinished = new boolean[moveUtilities.length];
+    }
+    Arrays.fill(moveUtilities, 0, moveCount, NO_UTILITY);
+    Arrays.fill(moveFinished, 0, moveCount, false);
+
+    // Evaluate all of the root moves, with each worker evaluating one share of them.
+    for (GameState workerState : workerStates) {
+      workerState.copyFrom(initialState);
+    }
+    aborted = false;
+    pool.invoke(new EvaluateSharesTask(0, workers.length, moveCount));
+
+    // Find the best move, in the same order as if we were only using one thread. Only the moves that
+    // the workers finished are considered, so that an aborted search can still be used.
+    startRootMoves();
+    int bestUtility = Integer.MIN_VALUE;
+    Move bestMove = null;
+    for (int index = 0; index < moveCount; ++index) {
+      if (!moveFinished[index])
+        continue;
+
+      Move move = availableMoves.get(index);
+      int utility = moveUtilities[index];
+      if (utility == INSTANT_WIN_UTILITY) {
+        finishRootMove(move, utility, move);
+        return move;
+      }
+
+      // If its the best utility, record this move. Also logic to select from equivalent utility moves.
+      if (utility != NO_UTILITY && (utility > bestUtility || (utility == bestUtility && random.nextBoolean()))) {
+        bestUtility = utility;
+        bestMove = move;
+      }
+      finishRootMove(move, utility, bestMove);
+    }
+    if (aborted) {
+      abortSearch();
+    }
+
+    // If we couldn't find any suitable moves, just return a random move.
+    return bestMove != null ? bestMove : availableMoves.get(random.nextInt(moveCount));
+  }
+
+  /** Recursively splits the shares of root moves between tasks, until each task evaluates one share. **/
+  private final class EvaluateSharesTask extends RecursiveAction {
+    private static final long serialVersionUID = -8784463394439141L;
+
+    private final int fromWorker;
+    private final int toWorker;
+    private final int moveCount;
+
+    private EvaluateSharesTask(int fromWorker, int toWorker, int moveCount) {
+      this.fromWorker = fromWorker;
+      this.toWorker = toWorker;
+      this.moveCount = moveCount;
+    }
+
+    @Override protected void compute() {
+      if (toWorker - fromWorker > 1) {
+        int middle = (fromWorker + toWorker) >>> 1;
+        invokeAll(
+            new EvaluateSharesTask(fromWorker, middle, moveCount),
+            new EvaluateSharesTask(middle, toWorker, moveCount)
+        );
+        return;
+      }
+
+      // Evaluate the share of root moves of this worker. The moves are interleaved between the
+      // workers, as the moves of the same piece are next to each other and often take similar times.
+      RootMoveEvaluator evaluator = evaluators[fromWorker];
+      GameState state = workerStates[fromWorker];
+      try {
+        for (int index = fromWorker; index < moveCount && !aborted; index += workers.length) {
+          moveUtilities[index] = evaluator.evaluateRootMove(state, initialMoveList.get(index));
+          moveFinished[index] = true;
+        }
+      } catch (SearchStoppedException e) {
+        // The search is aborted once all the tasks are complete, using the root moves that were finished.
+        aborted = true;
+      }
+    }
+  }
+}
@@ -0,0 +1,197 @@
+package threeChess.agents.strategy;
+
+import threeChess.agents.GameLogic.GameConstants;
+import threeChess.agents.GameLogic.GameState;
+import threeChess.agents.GameLogic.Move;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Paranoid search assumes that both opponents are working together to minimise our utility.
+ * This reduces the game to a two-player game between us and a coalition of the opponents,
+ * which allows the use of full alpha-beta pruning. Unlike {@link BestReplySearchStrat},
+ * every agent still moves in turn, so it takes three plies to complete a round of moves.
+ *
+ * The depth of the search is also reduced using null-move pruning and late move
+ * reductions, as configured by the {@link SearchReductions} of each instance.
+ *
+ * Paper on the Paranoid algorithm:
+ * Sturtevant and Korf, "On Pruning Techniques for Multi-Player Games", AAAI, 2000.
+ *
+ * @author Paddy Lamont, 22494652
+ */
+public class ParanoidStrat extends MoveStrat {
+
+  /** Used to randomly select between equivalently good moves. **/
+  private static final Random random = new Random();
+
+  /** The depth to check. **/
+  protected final int ply;
+  /** A list used to store all of the available moves from the initial state. **/
+  protected final List<Move> initialMoveList;
+  /** The state that moves are made and unmade on during the search. **/
+  protected final GameState searchState;
+  /** Orders the moves at each depth of the search so that cutoffs happen as early as possible. **/
+  protected final MoveOrdering moveOrdering;
+  /** The settings of the null-move pruning and late move reductions used to reduce the depth of the search. **/
+  protected final SearchReductions reductions;
+
+  /** Whether the next state searched was reached by passing the turn, in which case it is not passed again. **/
+  private boolean passedTurn;
+
+  /** @param reductions the settings of the null-move pruning and late move reductions to use. **/
+  public ParanoidStrat(GameConstants constants, int ply, SearchReductions reductions) {
+    if (reductions == null)
+      throw new IllegalArgumentException("reductions cannot be null");
+
+    this.ply = ply;
+    this.initialMoveList = new ArrayList<>(128);
+    this.searchState = new GameState(constants);
+    this.moveOrdering = new MoveOrdering(ply);
+    this.reductions = reductions;
+  }
+
+  public ParanoidStrat(GameConstants constants, int ply) {
+    this(constants, ply, SearchReductions.createDefault());
+  }
+
+  @Override public long getTotalMoves() {
+    return searchState.totalMoves;
+  }
+
+  /** @return the best move for the current agent by using paranoid alpha-beta. **/
+  @Override public Move decideMove(GameState initialState) {
+    // We pre-cache these fields to avoid reading them many times.
+    GameState state = searchState;
+    state.copyFrom(initialState);
+    int turnColour = state.turnColour;
+    int depth = ply;
+
+    // The killers and history from previous searches used different constants.
+    moveOrdering.clear();
+
+    // A previous search may have been stopped while searching after passing the turn.
+    passedTurn = false;
+
+    // Keep track of the best move we've found so far.
+    int bestUtility = Integer.MIN_VALUE;
+    Move bestMove = null;
+
+    // Loop through all of the possible moves, starting with the best moves of the previous search.
+    List<Move> availableMoves = initialMoveList;
+    state.computeAvailableMoves(availableMoves);
+    orderRootMoves(availableMoves);
+
+    startRootMoves();
+    for (Move move : availableMoves) {
+      long undo = state.makeMove(move);
+
+      // Find the utility of this move. Moves that are worse than the best move only need to be
+      // bounded, but moves that are equal to the best move need their exact utility to randomly
+      // select between them.
+      int utility;
+      if (depth == 1 || state.gameOverPacked != 0) {
+        utility = state.getUtility(turnColour);
+      } else {
+        int alpha = (bestUtility == Integer.MIN_VALUE ? Integer.MIN_VALUE : bestUtility - 1);
+        utility = performAlphaBeta(turnColour, state, depth - 1, alpha, Integer.MAX_VALUE);
+      }
+      state.unmakeMove(move, undo);
+
+      // If its the best utility, record this move. Also logic to select from equivalent utility moves.
+      if (utility > bestUtility || (utility == bestUtility && random.nextBoolean())) {
+        bestUtility = utility;
+        bestMove = move;
+      }
+      finishRootMove(move, utility, bestMove);
+    }
+    return bestMove;
+  }
+
+  /** @return the utility for {@param agentColour} of the given state, as given by paranoid alpha-beta. **/
+  private int performAlphaBeta(int agentColour, GameState state, int depth, int alpha, int beta) {
+    // Abort the search if this strategy has been stopped.
+    checkStopped();
+
+    // We pre-cache these fields to avoid reading them many times.
+    MoveOrdering moveOrdering = this.moveOrdering;
+
+    // Maximise when the agent has the current turn, and minimise when either opponent has the current turn.
+    boolean maximise = (state.turnColour == agentColour);
+
+    // Null-move pruning. If the agent whose turn it is passing their turn is still so good for their side that
+    // the other side would avoid this state, then making a move is assumed to be at least as good. This is not
+    // done twice in a row, as that would just skip the turn of another agent.
+    boolean canPassTurn = !passedTurn;
+    passedTurn = false;
+    SearchReductions reductions = this.reductions;
+    if (canPassTurn && reductions.shouldTryNullMove(depth)
+        && (maximise ? beta != Integer.MAX_VALUE : alpha != Integer.MIN_VALUE)) {
+      state.passTurn();
+      passedTurn = true;
+      int nullDepth = depth - 1 - reductions.nullMoveReduction;
+      int utility = (maximise
+          ? performAlphaBeta(agentColour, state, nullDepth, beta - 1, beta)
+          : performAlphaBeta(agentColour, state, nullDepth, alpha, alpha + 1));
+      passedTurn = false;
+      state.unpassTurn();
+      if (maximise ? utility >= beta : utility <= alpha)
+        return maximise ? beta : alpha;
+    }
+
+    int moveCount = state.computeAvailableMoves(moveOrdering.getMoves(depth));
+    if (moveCount == 0)
+      return state.getUtility(agentColour);
+
+    moveOrdering.scoreMoves(state.pieces, depth, moveCount);
+    for (int moveNumber = 0; moveNumber < moveCount; ++moveNumber) {
+      int move = moveOrdering.pickNextMove(depth, moveNumber, moveCount);
+      boolean isCapture = (state.pieces[(move >> 7) & 127] != 0);
+
+      // Apply the move.
+      long undo = state.makeMove(move);
+
+      // Find a state representative of this move.
+      int utility;
+      if (depth == 1 || state.gameOverPacked != 0) {
+        utility = state.getUtility(agentColour);
+      } else {
+        // Late quiet moves are first searched to a reduced depth using a null window, and are only
+        // searched to the full depth if they look better for this side than the best move so far.
+        boolean searchFullDepth = true;
+        if (reductions.shouldReduceLateMove(depth, moveNumber) && moveOrdering.isOrderedByHistory(depth, moveNumber)) {
+          int reducedDepth = depth - 1 - reductions.lateMoveReduction;
+          searchFullDepth = (maximise
+              ? performAlphaBeta(agentColour, state, reducedDepth, alpha, alpha + 1) > alpha
+              : performAlphaBeta(agentColour, state, reducedDepth, beta - 1, beta) < beta);
+        }
+        if (searchFullDepth) {
+          utility = performAlphaBeta(agentColour, state, depth - 1, alpha, beta);
+        } else {
+          utility = (maximise ? alpha : beta);
+        }
+      }
+      state.unmakeMove(move, undo);
+
+      // Keep track of the best or worst utility, and stop once the other side would avoid this state.
+      if (maximise) {
+        if (utility > alpha) {
+          alpha = utility;
+        }
+      } else {
+        if (utility < beta) {
+          beta = utility;
+        }
+      }
+      if (alpha >= beta) {
+        if (!isCapture) {
+          moveOrdering.recordCutoff(move, depth);
+        }
+        break;
+      }
+    }
+    return maximise ? alpha : beta;
+  }
+}
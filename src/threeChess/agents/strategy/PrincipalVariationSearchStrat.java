@@ -3,13 +3,25 @@ package threeChess.agents.strategy;
 import threeChess.agents.GameLogic.GameConstants;
 import threeChess.agents.GameLogic.GameState;
 import threeChess.agents.GameLogic.Move;
-import threeChess.agents.GameLogic.MoveMany;
 
 import java.util.*;
 
 /**
  * Principal Variation Search is a faster alternative to alpha-beta pruning minimax.
  *
+ * The moves from each state are ordered using {@link MoveOrdering} before they
+ * are searched, so that cutoffs happen as early as possible. The principal variation
+ * of the previous search given to {@link #setPreviousSearch} is searched first, as its
+ * moves are the most likely to be the best moves, which avoids many re-searches.
+ *
+ * When there is a previous search, the first root move can be searched using an aspiration window
+ * centred on the utility of the previous search, as narrower windows can cause more cutoffs. If the
+ * utility falls outside the window, the window is widened on that side and the move is re-searched.
+ *
+ * The depth of the search is also reduced using null-move pruning and late move reductions,
+ * as configured by the {@link SearchReductions} of each instance. These are only used in the
+ * null window searches, so that the principal variation is always searched to the full depth.
+ *
  * Paper on Minimal Window Search:
  * http://citeseerx.ist.psu.edu/viewdoc/download?doi=10.1.1.106.2074&rep=rep1&type=pdf
  *
@@ -20,68 +32,229 @@ public class PrincipalVariationSearchStrat extends MoveStrat {
   /** Used to randomly select between equivalently good moves. **/
   private static final Random random = new Random();
 
+  /**
+   * The default distance from the utility of the previous search to each side of the aspiration window.
+   * Aspiration windows are disabled by default, as with the null window searches of the root moves after
+   * the first, narrower windows have not been found to cut any nodes, while every miss costs a re-search.
+   */
+  public static final int DEFAULT_ASPIRATION_WINDOW = 0;
+  /** The factor that the distance to a side of the aspiration window is multiplied by each time it fails. **/
+  private static final int ASPIRATION_WIDENING = 4;
+
   /** The depth to check. **/
   protected final int ply;
   /** A list used to store all of the available moves from the initial state. **/
   protected final List<Move> initialMoveList;
-  /** An array of state objects to use in simulation of moves. **/
-  protected final GameState[] moveStates;
+  /** The state that moves are made and unmade on during the search. **/
+  protected final GameState searchState;
+
+  /** Orders the moves at each depth of the search so that cutoffs happen as early as possible. **/
+  protected final MoveOrdering moveOrdering;
+  /** The initial distance from the utility of the previous search to each side of the aspiration window, or 0 to not use one. **/
+  protected final int aspirationWindow;
+  /** The settings of the null-move pruning and late move reductions used to reduce the depth of the search. **/
+  protected final SearchReductions reductions;
+
+  /**
+   * The principal variation found below each depth of the search, as a triangular table.
+   * The line at each depth starts with the best move found from that depth, followed by the
+   * line of the depth below it after that move was made.
+   */
+  private final int[][] principalLines;
+  private final int[] principalLineLengths;
+
+  /** The principal variation of the previous search. **/
+  private int[] previousPrincipalVariation;
+  private int previousPrincipalVariationLength;
+  /** Whether the next state searched is on the principal variation of the previous search. **/
+  private boolean followingPrincipalVariation;
+  /** Whether the next state searched was reached by passing the turn, in which case it is not passed again. **/
+  private boolean passedTurn;
+
+  /**
+   * Aspiration Counters:
+   *  aspirationSearches    - The number of root moves searched using an aspiration window.
+   *  aspirationHits        - The number of those searches where the utility was inside the initial window.
+   *  aspirationResearches  - The number of times a root move was re-searched after falling outside its window.
+   */
+  private long aspirationSearches;
+  private long aspirationHits;
+  private long aspirationResearches;
+
+  /**
+   * @param aspirationWindow the initial distance from the utility of the previous search to
+   *                         each side of the aspiration window, or 0 to not use aspiration windows.
+   * @param reductions the settings of the null-move pruning and late move reductions to use.
+   */
+  public PrincipalVariationSearchStrat(
+      GameConstants constants, int ply, int aspirationWindow, SearchReductions reductions) {
+
+    if (aspirationWindow < 0)
+      throw new IllegalArgumentException("aspirationWindow cannot be negative");
+    if (reductions == null)
+      throw new IllegalArgumentException("reductions cannot be null");
 
-  public PrincipalVariationSearchStrat(GameConstants constants, int ply) {
     this.ply = ply;
     this.initialMoveList = new ArrayList<>(128);
-    this.moveStates = new GameState[ply];
-    for (int index = 0; index < ply; ++index) {
-      moveStates[index] = new GameState(constants);
-    }
+    this.searchState = new GameState(constants);
+    this.moveOrdering = new MoveOrdering(ply);
+    this.aspirationWindow = aspirationWindow;
+    this.reductions = reductions;
+    this.principalLines = new int[ply][ply];
+    this.principalLineLengths = new int[ply];
+  }
+
+  public PrincipalVariationSearchStrat(GameConstants constants, int ply, int aspirationWindow) {
+    this(constants, ply, aspirationWindow, SearchReductions.createDefault());
+  }
+
+  public PrincipalVariationSearchStrat(GameConstants constants, int ply, SearchReductions reductions) {
+    this(constants, ply, DEFAULT_ASPIRATION_WINDOW, reductions);
+  }
+
+  public PrincipalVariationSearchStrat(GameConstants constants, int ply) {
+    this(constants, ply, DEFAULT_ASPIRATION_WINDOW, SearchReductions.createDefault());
+  }
+
+  /** @return the number of root moves that have been searched using an aspiration window. **/
+  public long getAspirationSearches() {
+    return aspirationSearches;
+  }
+
+  /** @return the number of aspiration window searches where the utility was inside the initial window. **/
+  public long getAspirationHits() {
+    return aspirationHits;
+  }
+
+  /** @return the number of times that root moves were re-searched after falling outside their aspiration window. **/
+  public long getAspirationResearches() {
+    return aspirationResearches;
+  }
+
+  /** Resets the aspiration window counters to zero. **/
+  public void resetAspirationCounters() {
+    aspirationSearches = 0;
+    aspirationHits = 0;
+    aspirationResearches = 0;
+  }
+
+  @Override public long getTotalMoves() {
+    return searchState.totalMoves;
   }
 
   /** @return the best move for the current agent by using Principal Variation Search. **/
-  @Override public Move decideMove(GameState state) {
+  @Override public Move decideMove(GameState initialState) {
     // We pre-cache these fields to avoid reading them many times.
+    GameState state = searchState;
+    state.copyFrom(initialState);
     int turnColour = state.turnColour;
     int depth = ply;
 
+    // The killers and history from previous searches used different constants.
+    moveOrdering.clear();
+    previousPrincipalVariation = getPreviousPrincipalVariation();
+    previousPrincipalVariationLength = getPreviousPrincipalVariationLength();
+
+    // A previous search may have been stopped while searching after passing the turn.
+    passedTurn = false;
+
     // Keep track of the best move we've found so far.
     int bestUtility = Integer.MIN_VALUE;
     Move bestMove = null;
 
-    // Loop through all of the possible moves.
-    GameState moveState = moveStates[depth - 1];
+    // Loop through all of the possible moves, starting with the best moves of the previous search.
     List<Move> availableMoves = initialMoveList;
     state.computeAvailableMoves(availableMoves);
+    orderRootMoves(availableMoves);
 
     // Try to find the best move.
+    startRootMoves();
     for (Move move : availableMoves) {
-      moveState.copyFrom(state);
-      moveState.applyMove(move);
+      long undo = state.makeMove(move);
 
-      // Find the utility of this move.
+      // Find the utility of this move. After the first move, we first check whether each move could be as good as
+      // the best move using a null window, and only search it properly if it could. Moves that are worse than the
+      // best move only need to be bounded, but moves that are equal to the best move need their exact utility to
+      // randomly select between them.
       int utility;
-      if (depth == 1 || moveState.gameOverPacked != 0) {
-        utility = moveState.getUtility(turnColour);
+      principalLineLengths[depth - 1] = 0;
+      if (depth == 1 || state.gameOverPacked != 0) {
+        utility = state.getUtility(turnColour);
+      } else if (bestUtility == Integer.MIN_VALUE) {
+        boolean onPrincipalVariation = (previousPrincipalVariationLength > 1 && move.packed == previousPrincipalVariation[0]);
+        utility = performAspirationSearch(turnColour, state, depth - 1, onPrincipalVariation);
       } else {
-        utility = performPVS(turnColour, moveState, depth - 1, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        int alpha = bestUtility - 1;
+        utility = performPVS(turnColour, state, depth - 1, -alpha - 1, -alpha);
+        if (utility > alpha) {
+          utility = performPVS(turnColour, state, depth - 1, -Integer.MAX_VALUE, -alpha);
+        }
       }
+      state.unmakeMove(move, undo);
 
       // If its the best utility, record this move. Also logic to select from equivalent utility moves.
       if (utility > bestUtility || (utility == bestUtility && random.nextBoolean())) {
         bestUtility = utility;
         bestMove = move;
+        setPrincipalVariation(move, principalLines[depth - 1], principalLineLengths[depth - 1]);
       }
+      finishRootMove(move, utility, bestMove);
     }
     return bestMove;
   }
 
+  /**
+   * @return the exact utility for {@param agentColour} of the given state, using an aspiration window centred on the
+   *         utility of the previous search if there was one, or a full window otherwise.
+   */
+  private int performAspirationSearch(int agentColour, GameState state, int depth, boolean onPrincipalVariation) {
+    if (aspirationWindow == 0 || !hasPreviousSearch()) {
+      followingPrincipalVariation = onPrincipalVariation;
+      return performPVS(agentColour, state, depth, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    // The bounds are kept as longs so that they cannot overflow, and a bound that
+    // reaches the range of an int no longer bounds the search on that side.
+    int expectedUtility = getPreviousBestUtility();
+    long lowerWindow = aspirationWindow;
+    long upperWindow = aspirationWindow;
+    aspirationSearches += 1;
+    for (int attempt = 0; ; ++attempt) {
+      long lower = expectedUtility - lowerWindow;
+      long upper = expectedUtility + upperWindow;
+      boolean lowerBounded = (lower > Integer.MIN_VALUE);
+      boolean upperBounded = (upper < Integer.MAX_VALUE);
+
+      // The state is the turn of the next agent, so the window is negated as in performPVS.
+      int callAlpha = (upperBounded ? (int) -upper : Integer.MIN_VALUE);
+      int callBeta = (lowerBounded ? (int) -lower : Integer.MAX_VALUE);
+      followingPrincipalVariation = onPrincipalVariation;
+      int utility = performPVS(agentColour, state, depth, callAlpha, callBeta);
+
+      // Widen the side of the window that the utility fell outside of, and search again.
+      if (lowerBounded && utility <= lower) {
+        lowerWindow *= ASPIRATION_WIDENING;
+      } else if (upperBounded && utility >= upper) {
+        upperWindow *= ASPIRATION_WIDENING;
+      } else {
+        if (attempt == 0) {
+          aspirationHits += 1;
+        }
+        return utility;
+      }
+      aspirationResearches += 1;
+    }
+  }
+
   /** @return the score of the given state given by principal variation search. **/
   private int performPVS(int agentColour, GameState state, int depth, int alpha, int beta) {
+    // Abort the search if this strategy has been stopped.
+    checkStopped();
+
     // We pre-cache these fields to avoid reading them many times.
     int turnColour = state.turnColour;
     int nextTurnColour = (turnColour + 1) % 3;
-    byte[] pieces = state.pieces;
-    Move[] potentialMoves = GameConstants.potentialMovesFlattened;
-    int[] potentialMoveDirectives = GameConstants.potentialMovesFlattenedDirectives;
-    GameState moveState = moveStates[depth - 1];
+    MoveOrdering moveOrdering = this.moveOrdering;
 
     // We have to selectively negate alpha, beta, and the utility values based on whose turn it is.
     // This is necessary as alpha and beta should not flip between both opponents, but should flip
@@ -90,62 +263,91 @@ public class PrincipalVariationSearchStrat extends MoveStrat {
     int mul = (isAgent ? 1 : -1);
     boolean keepAlphaBeta = (!isAgent && nextTurnColour != agentColour);
 
-    // Loop through all of the available moves from this state.
-    int pieceIndex = (turnColour + 1) * (576 /* pieceIndexStride */);
-    for (int index = 96 /* totalSquares */; --index >= 0;) {
-      pieceIndex -= 6 /* numPieces */;
-
-      // Find the colour and type of this index, and filter out empty squares and pieces we can't move.
-      byte piece = pieces[index];
-      int colour = piece & 3;
-      if (piece == 0 || colour != turnColour)
-        continue;
-      int type = (piece >> 2) & 7;
-
-      // Find the potential move array for this piece.
-      int directive = potentialMoveDirectives[pieceIndex + type];
-      int fromIndex = directive >> 8;
-      int length = directive & 255;
-      for (int moveIndex = 0; moveIndex < length; ++moveIndex) {
-        Move move = potentialMoves[fromIndex + moveIndex];
-
-        byte toPiece = pieces[move.toIndex];
-        int toColour = toPiece & 3;
-        // For MoveMany moves we can skip forward moves when we hit a piece.
-        if (move instanceof MoveMany) {
-          if (toPiece != 0) {
-            moveIndex = ((MoveMany) move).skipIndex - 1;
-            if (toColour == colour)
-              continue;
-          }
-        } else if ((toPiece != 0 && toColour == colour) || !move.isValidMove(state))
-          continue;
-
-        // Apply the move.
-        moveState.copyFrom(state);
-        moveState.applyMove(move);
-
-        // Find a state representative of this move.
-        int utility;
-        if (depth == 1 || moveState.gameOverPacked != 0) {
-          utility = mul * moveState.getUtility(agentColour);
-        } else {
-          int callAlpha, callBeta;
-          callAlpha = (keepAlphaBeta ? alpha : -alpha - 1);
-          callBeta = (keepAlphaBeta ? alpha + 1 : -alpha);
-          utility = mul * performPVS(agentColour, moveState, depth - 1, callAlpha, callBeta);
-          if (alpha < utility && utility < beta) {
-            callAlpha = (keepAlphaBeta ? utility : -beta);
-            callBeta = (keepAlphaBeta ? beta : -utility);
-            utility = mul * performPVS(agentColour, moveState, depth - 1, callAlpha, callBeta);
-          }
+    // Null-move pruning. If the current agent passing their turn is still so good for them that the other
+    // side would avoid this state, then making a move is assumed to be at least as good. This is not done
+    // on the principal variation, or twice in a row, as that would just skip the turn of another agent.
+    boolean canPassTurn = !passedTurn;
+    passedTurn = false;
+    SearchReductions reductions = this.reductions;
+    if (canPassTurn && !followingPrincipalVariation && beta - alpha == 1 && reductions.shouldTryNullMove(depth)) {
+      state.passTurn();
+      passedTurn = true;
+      int callAlpha = (keepAlphaBeta ? alpha : -beta);
+      int callBeta = (keepAlphaBeta ? beta : -alpha);
+      int utility = mul * performPVS(agentColour, state, depth - 1 - reductions.nullMoveReduction, callAlpha, callBeta);
+      passedTurn = false;
+      state.unpassTurn();
+      if (utility >= beta) {
+        principalLineLengths[depth] = 0;
+        return mul * beta;
+      }
+    }
+
+    // Find and score all of the available moves from this state, with the move
+    // from the previous principal variation first if we are still following it.
+    int moveCount = state.computeAvailableMoves(moveOrdering.getMoves(depth));
+    moveOrdering.scoreMoves(state.pieces, depth, moveCount);
+    int principalMove = 0;
+    if (followingPrincipalVariation) {
+      followingPrincipalVariation = false;
+      int distance = ply - depth;
+      if (distance < previousPrincipalVariationLength) {
+        principalMove = previousPrincipalVariation[distance];
+        moveOrdering.prioritiseMove(depth, moveCount, principalMove);
+      }
+    }
+    int[] principalLine = principalLines[depth];
+    int[] childPrincipalLine = principalLines[depth - 1];
+    principalLineLengths[depth] = 0;
+
+    for (int moveNumber = 0; moveNumber < moveCount; ++moveNumber) {
+      int move = moveOrdering.pickNextMove(depth, moveNumber, moveCount);
+      boolean isCapture = (state.pieces[(move >> 7) & 127] != 0);
+
+      // Apply the move.
+      long undo = state.makeMove(move);
+
+      // Find a state representative of this move.
+      int utility;
+      principalLineLengths[depth - 1] = 0;
+      if (depth == 1 || state.gameOverPacked != 0) {
+        utility = mul * state.getUtility(agentColour);
+      } else {
+        int callAlpha, callBeta;
+        callAlpha = (keepAlphaBeta ? alpha : -alpha - 1);
+        callBeta = (keepAlphaBeta ? alpha + 1 : -alpha);
+
+        // Late quiet moves are first searched to a reduced depth, and only searched
+        // to the full depth if they look better than the best move found so far.
+        boolean reduce = (reductions.shouldReduceLateMove(depth, moveNumber)
+            && moveOrdering.isOrderedByHistory(depth, moveNumber));
+        int searchDepth = (reduce ? depth - 1 - reductions.lateMoveReduction : depth - 1);
+        followingPrincipalVariation = (move == principalMove);
+        utility = mul * performPVS(agentColour, state, searchDepth, callAlpha, callBeta);
+        if (reduce && utility > alpha) {
+          utility = mul * performPVS(agentColour, state, depth - 1, callAlpha, callBeta);
+        }
+        if (alpha < utility && utility < beta) {
+          callAlpha = (keepAlphaBeta ? utility : -beta);
+          callBeta = (keepAlphaBeta ? beta : -utility);
+          followingPrincipalVariation = (move == principalMove);
+          utility = mul * performPVS(agentColour, state, depth - 1, callAlpha, callBeta);
         }
+      }
+      state.unmakeMove(move, undo);
 
-        // Keep track of the best option available for this agent.
-        if (utility > alpha) {
-          alpha = utility;
-          if (alpha >= beta)
-            break;
+      // Keep track of the best option available for this agent, and the line that leads to it.
+      if (utility > alpha) {
+        alpha = utility;
+        int childLength = principalLineLengths[depth - 1];
+        principalLine[0] = move;
+        System.arraycopy(childPrincipalLine, 0, principalLine, 1, childLength);
+        principalLineLengths[depth] = childLength + 1;
+        if (alpha >= beta) {
+          if (!isCapture) {
+            moveOrdering.recordCutoff(move, depth);
+          }
+          break;
         }
       }
     }
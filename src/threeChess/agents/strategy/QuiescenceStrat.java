@@ -3,8 +3,8 @@ package threeChess.agents.strategy;
 import threeChess.agents.GameLogic.GameConstants;
 import threeChess.agents.GameLogic.GameState;
 import threeChess.agents.GameLogic.Move;
-import threeChess.agents.GameLogic.MoveMany;
 import threeChess.agents.IdentitySet;
+import threeChess.agents.TranspositionTable;
 
 import java.util.List;
 import java.util.Random;
@@ -20,6 +20,11 @@ public class QuiescenceStrat extends MaximaxStrat {
 
   /** Used to randomly select between equivalently good moves. **/
   private static final Random random = new Random();
+  /**
+   * Mixed into the hashes of positions that were reached by a capturing move before they are cached,
+   * as the quiescence search makes their results differ from the same positions reached by other moves.
+   */
+  private static final long LAST_MOVE_CAPTURED_KEY = 0x6A09E667F3BCC909L;
 
   /** The maximum depth to check all moves. **/
   private final int traditionalPly;
@@ -43,142 +48,183 @@ public class QuiescenceStrat extends MaximaxStrat {
   }
 
   /** @return the best move for the current agent by using max-max-max and quiescence. **/
-  @Override  public final Move decideMove(GameState state) {
+  @Override  public final Move decideMove(GameState initialState) {
     // We pre-cache these fields to avoid reading them many times.
-    int turnColour = state.turnColour;
-    int depth = traditionalPly;
+    GameState state = searchState;
+    state.copyFrom(initialState);
 
     // Keep track of the best move we've found so far.
     int bestUtility = Integer.MIN_VALUE;
     Move bestMove = null;
 
-    // Loop through all of the possible moves.
-    GameState moveState = moveStates[depth - 1];
+    // Loop through all of the possible moves, starting with the best moves of the previous search.
     List<Move> availableMoves = initialMoveList;
     state.computeAvailableMoves(availableMoves);
+    orderRootMoves(availableMoves);
 
+    startRootMoves();
     for (Move move : availableMoves) {
-      // Apply the move.
-      moveState.copyFrom(state);
-      moveState.applyMove(move);
-
-      // Find the utility of this move.
-      GameState representativeState;
-      if (moveState.gameOverPacked != 0) {
-        // Instant win, return this move.
+      int utility = evaluateRootMove(state, move);
+      if (utility == INSTANT_WIN_UTILITY)
         return move;
-      } else if (depth == 1) {
-        representativeState = moveState;
-      } else {
-        boolean isCapture = (state.pieces[move.toIndex] != 0);
-        representativeState = findMaxMaxMaxRepresentativeState(
-            moveState, depth - 1, false, isCapture
-        );
-        if (representativeState == null)
-          continue;
-      }
-      int utility = representativeState.getUtility(turnColour);
 
       // If its the best utility, record this move. Also logic to select from equivalent utility moves.
-      if (utility > bestUtility || (utility == bestUtility && random.nextBoolean())) {
+      if (utility != NO_UTILITY && (utility > bestUtility || (utility == bestUtility && random.nextBoolean()))) {
         bestUtility = utility;
         bestMove = move;
       }
+      finishRootMove(move, utility, bestMove);
     }
     return bestMove;
   }
 
-  /** @return the predicted end state {@param depth} turns into the future by using minimax. **/
-  private GameState findMaxMaxMaxRepresentativeState(
+  /** @return the utility of the root move {@param move} for the current agent by using max-max-max and quiescence. **/
+  @Override public final int evaluateRootMove(GameState state, Move move) {
+    int turnColour = state.turnColour;
+    boolean isCapture = (state.pieces[move.toIndex] != 0);
+    long undo = state.makeMove(move);
+
+    // Find the utility of this move.
+    int[] representativeUtilities;
+    if (state.gameOverPacked != 0) {
+      state.unmakeMove(move, undo);
+      return INSTANT_WIN_UTILITY;
+    } else if (traditionalPly == 1) {
+      representativeUtilities = state.agentUtilities;
+    } else {
+      representativeUtilities = findMaxMaxMaxRepresentativeUtilities(
+          state, traditionalPly - 1, false, isCapture
+      );
+    }
+    int utility = (representativeUtilities != null ? representativeUtilities[turnColour] : NO_UTILITY);
+    state.unmakeMove(move, undo);
+    return utility;
+  }
+
+  /**
+   * Finds the utilities of the predicted end state {@param depth} turns into the future by using maximax.
+   * The moves are made and unmade on {@param state}, so it is unchanged once this returns.
+   *
+   * @return the utilities of the predicted end state, or null if there are no moves available.
+   */
+  private int[] findMaxMaxMaxRepresentativeUtilities(
       GameState state, int depth, boolean inQuiescence, boolean lastMoveCaptured) {
 
+    // Abort the search if this strategy has been stopped.
+    checkStopped();
+
     // We pre-cache these fields to avoid reading them many times.
     int turnColour = state.turnColour;
     byte[] pieces = state.pieces;
-    Move[] potentialMoves = GameConstants.potentialMovesFlattened;
+    long[] colourBitboards = state.colourBitboards;
+    int[] agentUtilities = state.agentUtilities;
+    int[] potentialMoves = GameConstants.potentialMovesPacked;
     int[] potentialMoveDirectives = GameConstants.potentialMovesFlattenedDirectives;
+    int[] bestUtilities = this.bestUtilities[inQuiescence ? ply - depth : depth - 1];
+
+    // Check if we have already searched this position through a different order of moves.
+    // Positions within the quiescence search are not cached, as their results depend on the moves before them.
+    TranspositionTable table = (inQuiescence ? null : this.transpositionTable);
+    long key = state.hash ^ (lastMoveCaptured ? LAST_MOVE_CAPTURED_KEY : 0);
+    if (table != null) {
+      int probeResult = table.probe(key, depth, bestUtilities);
+      if (probeResult != TranspositionTable.MISS)
+        return probeResult == TranspositionTable.HIT ? bestUtilities : null;
+    }
 
-    // We keep track of the best state we've found so far.
+    // We keep track of the utilities of the best state we've found so far.
     int bestUtility = Integer.MIN_VALUE;
-    int stateIndex = (inQuiescence ? ply - depth : depth - 1);
-    GameState bestState = bestStates[stateIndex];
-    GameState moveState = moveStates[stateIndex];
+    int bestMove = 0;
     boolean bestIsCapture = false;
 
-    // Loop through all of the available moves from this state.
-    int pieceIndex = (turnColour + 1) * (576 /* pieceIndexStride */);
-    for (int index = 96 /* totalSquares */; --index >= 0;) {
-      pieceIndex -= 6 /* numPieces */;
-
-      // Find the colour and type of this index, and filter out empty squares and pieces we can't move.
-      byte piece = pieces[index];
-      int colour = piece & 3;
-      if (piece == 0 || colour != turnColour)
-        continue;
-      int type = (piece >> 2) & 7;
-
-      // Find the potential move array for this piece.
-      int directive = potentialMoveDirectives[pieceIndex + type];
-      int fromIndex = directive >> 8;
-      int length = directive & 255;
-      for (int moveIndex = 0; moveIndex < length; ++moveIndex) {
-        Move move = potentialMoves[fromIndex + moveIndex];
-
-        byte toPiece = pieces[move.toIndex];
-        int toColour = toPiece & 3;
-        // For MoveMany moves we can skip forward moves when we hit a piece.
-        if (move instanceof MoveMany) {
-          if (toPiece != 0) {
-            moveIndex = ((MoveMany) move).skipIndex - 1;
-            if (toColour == colour)
-              continue;
-          }
-        } else if ((toPiece != 0 && toColour == colour) || !move.isValidMove(state))
-          continue;
-
-        // Apply the move.
-        moveState.copyFrom(state);
-        moveState.applyMove(move);
-
-        // Find a state representative of this move.
-        GameState representativeState;
-        boolean isCapture = (toPiece != 0);
-        if (moveState.gameOverPacked != 0) {
-          // Instant win, return this move.
-          bestState.softCopyFrom(moveState);
-          return bestState;
-        } else if (inQuiescence && !isCapture && !lastMoveCaptured) {
-          representativeState = moveState;
-        } else if (depth == 1) {
-          // Perform quiescence search if the last move is taking a piece.
-          if (quiescencePly <= 0 || inQuiescence || (!isCapture && !lastMoveCaptured)) {
-            representativeState = moveState;
+    // Loop through all of the available moves from this state, jumping straight to our pieces using the bitboards.
+    int basePieceIndex = turnColour * (576 /* pieceIndexStride */);
+    for (int half = 1; half >= 0; --half) {
+      long remaining = colourBitboards[(turnColour << 1) | half];
+      while (remaining != 0) {
+        int bit = 63 - Long.numberOfLeadingZeros(remaining);
+        remaining ^= 1L << bit;
+        int index = (half << 6) | bit;
+        int type = (pieces[index] >> 2) & 7;
+
+        // Find the potential move array for this piece.
+        int directive = potentialMoveDirectives[basePieceIndex + index * (6 /* numPieces */) + type];
+        int fromIndex = directive >> 8;
+        int length = directive & 255;
+        for (int moveIndex = 0; moveIndex < length; ++moveIndex) {
+          int move = potentialMoves[fromIndex + moveIndex];
+
+          byte toPiece = pieces[(move >> 7) & 127];
+          int toColour = toPiece & 3;
+          // For MoveMany moves we can skip forward moves when we hit a piece.
+          if (((move >> 14) & 7) == 4 /* MANY */) {
+            if (toPiece != 0) {
+              moveIndex = ((move >> 18) & 255) - 1;
+              if (toColour == turnColour)
+                continue;
+            }
+          } else if ((toPiece != 0 && toColour == turnColour) || !state.isValidMove(move))
+            continue;
+
+          // In quiescence, captures that are expected to lose material in the exchange that follows are not searched.
+          // This includes the last ply, as otherwise the default quiescence ply of 1 would never prune them.
+          boolean isCapture = (toPiece != 0);
+          if (inQuiescence && isCapture && state.isLosingCapture(move))
+            continue;
+
+          // Apply the move.
+          long undo = state.makeMove(move);
+
+          // Find a state representative of this move.
+          int[] representativeUtilities;
+          if (state.gameOverPacked != 0) {
+            // Instant win, return this move.
+            System.arraycopy(agentUtilities, 0, bestUtilities, 0, 3 /* numColours */);
+            state.unmakeMove(move, undo);
+            if (table != null) {
+              table.store(key, depth, bestUtilities, move);
+            }
+            return bestUtilities;
+          } else if (inQuiescence && !isCapture && !lastMoveCaptured) {
+            representativeUtilities = agentUtilities;
+          } else if (depth == 1) {
+            // Perform quiescence search if the last move is taking a piece.
+            if (quiescencePly <= 0 || inQuiescence || (!isCapture && !lastMoveCaptured)) {
+              representativeUtilities = agentUtilities;
+            } else {
+              representativeUtilities = findMaxMaxMaxRepresentativeUtilities(
+                  state, quiescencePly, true, isCapture
+              );
+            }
           } else {
-            representativeState = findMaxMaxMaxRepresentativeState(
-                moveState, quiescencePly, true, isCapture
+            representativeUtilities = findMaxMaxMaxRepresentativeUtilities(
+                state, depth - 1, inQuiescence, isCapture
             );
           }
-        } else {
-          representativeState = findMaxMaxMaxRepresentativeState(
-              moveState, depth - 1, inQuiescence, isCapture
-          );
-        }
-        if (representativeState == null)
-          continue;
-        int utility = representativeState.getUtility(turnColour);
-
-        // Keep track of the best option available for this agent.
-        if (utility > bestUtility || (utility == bestUtility && isCapture)) {
-          bestUtility = utility;
-          bestState.softCopyFrom(representativeState);
-          bestIsCapture = isCapture;
+
+          // Keep track of the best option available for this agent.
+          if (representativeUtilities != null) {
+            int utility = representativeUtilities[turnColour];
+            if (utility > bestUtility || (utility == bestUtility && isCapture)) {
+              bestUtility = utility;
+              System.arraycopy(representativeUtilities, 0, bestUtilities, 0, 3 /* numColours */);
+              bestMove = move;
+              bestIsCapture = isCapture;
+            }
+          }
+          state.unmakeMove(move, undo);
         }
       }
     }
-    // If we found a best state, return it. In quiescence, we only return capturing moves.
-    if ((!inQuiescence && bestUtility > Integer.MIN_VALUE) || bestIsCapture)
-      return bestState;
-    // In quiescence, we always want to return a state.
-    return inQuiescence ? state : null;
+    // Outside of quiescence, we return the best state if we found one.
+    if (!inQuiescence) {
+      int[] result = (bestUtility > Integer.MIN_VALUE ? bestUtilities : null);
+      if (table != null) {
+        table.store(key, depth, result, bestMove);
+      }
+      return result;
+    }
+    // In quiescence, we only return capturing moves, but we always want to return a state.
+    return bestIsCapture ? bestUtilities : agentUtilities;
   }
 }
@@ -3,7 +3,6 @@ package threeChess.agents.strategy;
 import threeChess.agents.GameLogic.GameConstants;
 import threeChess.agents.GameLogic.GameState;
 import threeChess.agents.GameLogic.Move;
-import threeChess.agents.GameLogic.MoveMany;
 import threeChess.agents.IdentitySet;
 
 import java.util.List;
@@ -27,10 +26,8 @@ public class RestrictedQuiescenceStrat extends MaximaxStrat {
   private final int quiescencePly;
   /** An array of lists to use in determination of the available moves before quiescence search. **/
   private final IdentitySet<Move>[] moveLists;
-  /** An array of state objects to use in simulation of moves for quiescence search. **/
-  private final GameState[] quiescenceMoveStates;
-  /** An array of state objects to use in storing the best found states for quiescence search. **/
-  private final GameState[] quiescenceBestStates;
+  /** An array of utility vectors to use in storing the utilities of the best found states for quiescence search. **/
+  private final int[][] quiescenceBestUtilities;
   /** An array of lists to use in determination of the available moves for quiescence search. **/
   private final IdentitySet<Move>[] quiescenceMoveLists;
 
@@ -47,12 +44,9 @@ public class RestrictedQuiescenceStrat extends MaximaxStrat {
       moveLists[index] = newSet();
     }
 
-    this.quiescenceMoveStates = new GameState[quiescencePly];
-    this.quiescenceBestStates = new GameState[quiescencePly];
+    this.quiescenceBestUtilities = new int[quiescencePly][GameConstants.numColours];
     this.quiescenceMoveLists = new IdentitySet[quiescencePly];
     for (int index = 0; index < quiescencePly; ++index) {
-      quiescenceMoveStates[index] = new GameState(constants);
-      quiescenceBestStates[index] = new GameState(constants);
       quiescenceMoveLists[index] = newSet();
     }
   }
@@ -63,8 +57,10 @@ public class RestrictedQuiescenceStrat extends MaximaxStrat {
   }
 
   /** @return the best move for the current agent by using max-max-max and quiescence. **/
-  @Override  public final Move decideMove(GameState state) {
+  @Override  public final Move decideMove(GameState initialState) {
     // We pre-cache these fields to avoid reading them many times.
+    GameState state = searchState;
+    state.copyFrom(initialState);
     int turnColour = state.turnColour;
     int depth = ply;
 
@@ -80,140 +76,148 @@ public class RestrictedQuiescenceStrat extends MaximaxStrat {
     cMoves1Up.clear();
     cMoves2Up.clear();
 
-    // Loop through all of the possible moves.
-    GameState moveState = moveStates[depth - 1];
+    // Loop through all of the possible moves, starting with the best moves of the previous search.
     List<Move> availableMoves = initialMoveList;
     state.computeAvailableMoves(availableMoves);
+    orderRootMoves(availableMoves);
 
+    startRootMoves();
     for (Move move : availableMoves) {
       // Apply the move.
-      moveState.copyFrom(state);
-      moveState.applyMove(move);
+      boolean isCapture = (state.pieces[move.toIndex] != 0);
+      long undo = state.makeMove(move);
 
       // Find the utility of this move.
-      GameState representativeState;
-      if (moveState.gameOverPacked != 0) {
+      int[] representativeUtilities;
+      if (state.gameOverPacked != 0) {
         // Instant win, return this move.
+        state.unmakeMove(move, undo);
         return move;
       } else if (depth == 1) {
-        representativeState = moveState;
+        representativeUtilities = state.agentUtilities;
       } else {
-        boolean isCapture = (state.pieces[move.toIndex] != 0);
-        representativeState = findMaxMaxMaxRepresentativeState(
-            moveState, depth - 1, isCapture,
+        representativeUtilities = findMaxMaxMaxRepresentativeUtilities(
+            state, depth - 1, isCapture,
             capturingMoves, cMoves1Up, cMoves2Up
         );
-        if (representativeState == null)
-          continue;
       }
-      int utility = representativeState.getUtility(turnColour);
+      int utility = (representativeUtilities != null ? representativeUtilities[turnColour] : Integer.MIN_VALUE);
+      state.unmakeMove(move, undo);
 
       // If its the best utility, record this move. Also logic to select from equivalent utility moves.
-      if (utility > bestUtility || (utility == bestUtility && random.nextBoolean())) {
+      if (representativeUtilities != null && (utility > bestUtility || (utility == bestUtility && random.nextBoolean()))) {
         bestUtility = utility;
         bestMove = move;
       }
+      finishRootMove(move, utility, bestMove);
     }
 
     // If we couldn't find any suitable moves, just return a random move.
     return bestMove != null ? bestMove : availableMoves.get(random.nextInt(availableMoves.size()));
   }
 
-  /** @return the predicted end state {@param depth} turns into the future by using minimax. **/
-  private GameState findMaxMaxMaxRepresentativeState(
+  /**
+   * Finds the utilities of the predicted end state {@param depth} turns into the future by using maximax.
+   * The moves are made and unmade on {@param state}, so it is unchanged once this returns.
+   *
+   * @return the utilities of the predicted end state, or null if there are no moves available.
+   */
+  private int[] findMaxMaxMaxRepresentativeUtilities(
       GameState state, int depth, boolean lastMoveCaptured,
       IdentitySet<Move> cMoves1Up, IdentitySet<Move> cMoves2Up, IdentitySet<Move> cMoves3Up) {
 
+    // Abort the search if this strategy has been stopped.
+    checkStopped();
+
     // We pre-cache these fields to avoid reading them many times.
     int turnColour = state.turnColour;
     byte[] pieces = state.pieces;
-    Move[] potentialMoves = GameConstants.potentialMovesFlattened;
+    long[] colourBitboards = state.colourBitboards;
+    int[] agentUtilities = state.agentUtilities;
+    int[] potentialMoves = GameConstants.potentialMovesPacked;
+    Move[] potentialMoveObjects = GameConstants.potentialMovesFlattened;
     int[] potentialMoveDirectives = GameConstants.potentialMovesFlattenedDirectives;
 
     // Update the capturing move lists.
     IdentitySet<Move> capturingMoves = moveLists[depth - 1];
     state.computeCapturingMoves(capturingMoves);
 
-    // We keep track of the best state we've found so far.
+    // We keep track of the utilities of the best state we've found so far.
     int bestUtility = Integer.MIN_VALUE;
-    GameState bestState = bestStates[depth - 1];
-    GameState moveState = moveStates[depth - 1];
-
-    // Loop through all of the available moves from this state.
-    int pieceIndex = (turnColour + 1) * (576 /* pieceIndexStride */);
-    for (int index = 96 /* totalSquares */; --index >= 0;) {
-      pieceIndex -= 6 /* numPieces */;
-
-      // Find the colour and type of this index, and filter out empty squares and pieces we can't move.
-      byte piece = pieces[index];
-      int colour = piece & 3;
-      if (piece == 0 || colour != turnColour)
-        continue;
-      int type = (piece >> 2) & 7;
-
-      // Find the potential move array for this piece.
-      int directive = potentialMoveDirectives[pieceIndex + type];
-      int fromIndex = directive >> 8;
-      int length = directive & 255;
-      for (int moveIndex = 0; moveIndex < length; ++moveIndex) {
-        Move move = potentialMoves[fromIndex + moveIndex];
-
-        byte toPiece = pieces[move.toIndex];
-        int toColour = toPiece & 3;
-        // For MoveMany moves we can skip forward moves when we hit a piece.
-        if (move instanceof MoveMany) {
-          if (toPiece != 0) {
-            moveIndex = ((MoveMany) move).skipIndex - 1;
-            if (toColour == colour)
-              continue;
-          }
-        } else if ((toPiece != 0 && toColour == colour) || !move.isValidMove(state))
-          continue;
-
-        // Apply the move.
-        moveState.copyFrom(state);
-        moveState.applyMove(move);
-
-        // Find a state representative of this move.
-        GameState representativeState;
-        if (moveState.gameOverPacked != 0) {
-          // Instant win, return this move.
-          bestState.softCopyFrom(moveState);
-          return bestState;
-        } else if (depth == 1) {
-          // Perform quiescence search if the last move is taking a piece.
+    int[] bestUtilities = this.bestUtilities[depth - 1];
+
+    // Loop through all of the available moves from this state, jumping straight to our pieces using the bitboards.
+    int basePieceIndex = turnColour * (576 /* pieceIndexStride */);
+    for (int half = 1; half >= 0; --half) {
+      long remaining = colourBitboards[(turnColour << 1) | half];
+      while (remaining != 0) {
+        int bit = 63 - Long.numberOfLeadingZeros(remaining);
+        remaining ^= 1L << bit;
+        int index = (half << 6) | bit;
+        int type = (pieces[index] >> 2) & 7;
+
+        // Find the potential move array for this piece.
+        int directive = potentialMoveDirectives[basePieceIndex + index * (6 /* numPieces */) + type];
+        int fromIndex = directive >> 8;
+        int length = directive & 255;
+        for (int moveIndex = 0; moveIndex < length; ++moveIndex) {
+          int move = potentialMoves[fromIndex + moveIndex];
+
+          byte toPiece = pieces[(move >> 7) & 127];
+          int toColour = toPiece & 3;
+          // For MoveMany moves we can skip forward moves when we hit a piece.
+          if (((move >> 14) & 7) == 4 /* MANY */) {
+            if (toPiece != 0) {
+              moveIndex = ((move >> 18) & 255) - 1;
+              if (toColour == turnColour)
+                continue;
+            }
+          } else if ((toPiece != 0 && toColour == turnColour) || !state.isValidMove(move))
+            continue;
+
+          // Apply the move.
+          long undo = state.makeMove(move);
+
+          // Find a state representative of this move.
+          int[] representativeUtilities;
           boolean isCapture = (toPiece != 0);
-          if (quiescencePly == 0 || (!isCapture && !lastMoveCaptured) || cMoves3Up.contains(move)) {
-            representativeState = moveState;
+          if (state.gameOverPacked != 0) {
+            // Instant win, return this move.
+            System.arraycopy(agentUtilities, 0, bestUtilities, 0, 3 /* numColours */);
+            state.unmakeMove(move, undo);
+            return bestUtilities;
+          } else if (depth == 1) {
+            // Perform quiescence search if the last move is taking a piece.
+            if (quiescencePly == 0 || (!isCapture && !lastMoveCaptured) || cMoves3Up.contains(potentialMoveObjects[fromIndex + moveIndex])) {
+              representativeUtilities = agentUtilities;
+            } else {
+              representativeUtilities = performQuiescenceSearch(
+                  state, quiescencePly, isCapture,
+                  capturingMoves, cMoves1Up, cMoves2Up
+              );
+            }
           } else {
-            representativeState = performQuiescenceSearch(
-                moveState, quiescencePly, isCapture,
-                capturingMoves, cMoves1Up, cMoves2Up
+            representativeUtilities = findMaxMaxMaxRepresentativeUtilities(
+                state, depth - 1, isCapture,
+                cMoves1Up, cMoves2Up, cMoves3Up
             );
           }
-        } else {
-          boolean isCapture = (toPiece != 0);
-          representativeState = findMaxMaxMaxRepresentativeState(
-              moveState, depth - 1, isCapture,
-              cMoves1Up, cMoves2Up, cMoves3Up
-          );
-          if (representativeState == null)
-            continue;
-        }
-        int utility = representativeState.getUtility(turnColour);
 
-        // Keep track of the best option available for this agent.
-        if (utility > bestUtility) {
-          bestUtility = utility;
-          bestState.softCopyFrom(representativeState);
+          // Keep track of the best option available for this agent.
+          if (representativeUtilities != null && representativeUtilities[turnColour] > bestUtility) {
+            bestUtility = representativeUtilities[turnColour];
+            System.arraycopy(representativeUtilities, 0, bestUtilities, 0, 3 /* numColours */);
+          }
+          state.unmakeMove(move, undo);
         }
       }
     }
-    return bestUtility > Integer.MIN_VALUE ? bestState : null;
+    return bestUtility > Integer.MIN_VALUE ? bestUtilities : null;
   }
 
   /**
    * Performs a quiescence search for selectively deepening evaluation of capturing leaf nodes.
+   * The moves are made and unmade on {@param state}, so it is unchanged once this returns.
    *
    * @param state the game state after the last capturing move.
    * @param depth the maximum depth to perform the quiescence search to.
@@ -222,18 +226,24 @@ public class RestrictedQuiescenceStrat extends MaximaxStrat {
    * @param cMoves2Up the capturing moves available before the two previous moves.
    * @param cMoves3Up the capturing moves available before the three previous moves.
    *
-   * @return a representative state after the quiescence search is complete.
+   * @return the utilities of a representative state after the quiescence search is complete.
    */
-  public final GameState performQuiescenceSearch(
+  public final int[] performQuiescenceSearch(
       GameState state, int depth, boolean lastMoveCaptured,
       IdentitySet<Move> cMoves1Up,
       IdentitySet<Move> cMoves2Up,
       IdentitySet<Move> cMoves3Up) {
 
+    // Abort the search if this strategy has been stopped.
+    checkStopped();
+
     // We pre-cache these fields to avoid reading them many times.
     int turnColour = state.turnColour;
     byte[] pieces = state.pieces;
-    Move[] potentialMoves = GameConstants.potentialMovesFlattened;
+    long[] colourBitboards = state.colourBitboards;
+    int[] agentUtilities = state.agentUtilities;
+    int[] potentialMoves = GameConstants.potentialMovesPacked;
+    Move[] potentialMoveObjects = GameConstants.potentialMovesFlattened;
     int[] potentialMoveDirectives = GameConstants.potentialMovesFlattenedDirectives;
 
     // Compute all of the capturing moves in the new state.
@@ -242,71 +252,73 @@ public class RestrictedQuiescenceStrat extends MaximaxStrat {
 
     // We keep track if we find any enticing captures.
     int bestUtility = Integer.MIN_VALUE;
-    GameState bestState = quiescenceBestStates[depth - 1];
-    GameState moveState = quiescenceMoveStates[depth - 1];
+    int[] bestUtilities = quiescenceBestUtilities[depth - 1];
     boolean bestMoveIsCapture = false;
 
-    // Loop through all of the available moves from this state.
-    int pieceIndex = (turnColour + 1) * (576 /* pieceIndexStride */);
-    for (int index = 96 /* totalSquares */; --index >= 0;) {
-      pieceIndex -= 6 /* numPieces */;
-
-      // Find the colour and type of this index, and filter out empty squares and pieces we can't move.
-      byte piece = pieces[index];
-      int colour = piece & 3;
-      if (piece == 0 || colour != turnColour)
-        continue;
-      int type = (piece >> 2) & 7;
-
-      // Find the potential move array for this piece.
-      int directive = potentialMoveDirectives[pieceIndex + type];
-      int fromIndex = directive >> 8;
-      int length = directive & 255;
-      for (int moveIndex = 0; moveIndex < length; ++moveIndex) {
-        Move move = potentialMoves[fromIndex + moveIndex];
-
-        byte toPiece = pieces[move.toIndex];
-        int toColour = toPiece & 3;
-        // For MoveMany moves we can skip forward moves when we hit a piece.
-        if (move instanceof MoveMany) {
-          if (toPiece != 0) {
-            moveIndex = ((MoveMany) move).skipIndex - 1;
-            if (toColour == colour)
-              continue;
-          }
-        } else if ((toPiece != 0 && toColour == colour) || !move.isValidMove(state))
-          continue;
-
-        // Apply the move.
-        moveState.copyFrom(state);
-        moveState.applyMove(move);
-
-        // Find a state representative of this move.
-        GameState representativeState;
-        boolean isCapture = (toPiece != 0);
-        if (moveState.gameOverPacked != 0) {
-          // Instant win, return this move.
-          bestState.softCopyFrom(moveState);
-          return bestState;
-        } else if (depth == 1 || (!isCapture && !lastMoveCaptured) || cMoves3Up.contains(move)) {
-          representativeState = moveState;
-        } else {
-          representativeState = performQuiescenceSearch(
-              moveState, depth - 1, isCapture, capturingMoves, cMoves1Up, cMoves2Up
-          );
-          if (representativeState == null)
+    // Loop through all of the available moves from this state, jumping straight to our pieces using the bitboards.
+    int basePieceIndex = turnColour * (576 /* pieceIndexStride */);
+    for (int half = 1; half >= 0; --half) {
+      long remaining = colourBitboards[(turnColour << 1) | half];
+      while (remaining != 0) {
+        int bit = 63 - Long.numberOfLeadingZeros(remaining);
+        remaining ^= 1L << bit;
+        int index = (half << 6) | bit;
+        int type = (pieces[index] >> 2) & 7;
+
+        // Find the potential move array for this piece.
+        int directive = potentialMoveDirectives[basePieceIndex + index * (6 /* numPieces */) + type];
+        int fromIndex = directive >> 8;
+        int length = directive & 255;
+        for (int moveIndex = 0; moveIndex < length; ++moveIndex) {
+          int move = potentialMoves[fromIndex + moveIndex];
+
+          byte toPiece = pieces[(move >> 7) & 127];
+          int toColour = toPiece & 3;
+          // For MoveMany moves we can skip forward moves when we hit a piece.
+          if (((move >> 14) & 7) == 4 /* MANY */) {
+            if (toPiece != 0) {
+              moveIndex = ((move >> 18) & 255) - 1;
+              if (toColour == turnColour)
+                continue;
+            }
+          } else if ((toPiece != 0 && toColour == turnColour) || !state.isValidMove(move))
+            continue;
+
+          // Captures that are expected to lose material in the exchange that follows are not searched.
+          // This includes the last ply, as otherwise the default quiescence ply of 1 would never prune them.
+          boolean isCapture = (toPiece != 0);
+          if (isCapture && state.isLosingCapture(move))
             continue;
-        }
-        int utility = representativeState.getUtility(turnColour);
 
-        // Keep track of the best option available for this agent.
-        if (utility > bestUtility || (utility == bestUtility && isCapture)) {
-          bestUtility = utility;
-          bestState.softCopyFrom(representativeState);
-          bestMoveIsCapture = isCapture;
+          // Apply the move.
+          long undo = state.makeMove(move);
+
+          // Find a state representative of this move.
+          int[] representativeUtilities;
+          if (state.gameOverPacked != 0) {
+            // Instant win, return this move.
+            System.arraycopy(agentUtilities, 0, bestUtilities, 0, 3 /* numColours */);
+            state.unmakeMove(move, undo);
+            return bestUtilities;
+          } else if (depth == 1 || (!isCapture && !lastMoveCaptured) || cMoves3Up.contains(potentialMoveObjects[fromIndex + moveIndex])) {
+            representativeUtilities = agentUtilities;
+          } else {
+            representativeUtilities = performQuiescenceSearch(
+                state, depth - 1, isCapture, capturingMoves, cMoves1Up, cMoves2Up
+            );
+          }
+
+          // Keep track of the best option available for this agent.
+          int utility = representativeUtilities[turnColour];
+          if (utility > bestUtility || (utility == bestUtility && isCapture)) {
+            bestUtility = utility;
+            System.arraycopy(representativeUtilities, 0, bestUtilities, 0, 3 /* numColours */);
+            bestMoveIsCapture = isCapture;
+          }
+          state.unmakeMove(move, undo);
         }
       }
     }
-    return bestMoveIsCapture ? bestState : state;
+    return bestMoveIsCapture ? bestUtilities : agentUtilities;
   }
 }
@@ -0,0 +1,26 @@
+package threeChess.agents.strategy;
+
+import threeChess.agents.GameLogic.GameState;
+import threeChess.agents.GameLogic.Move;
+
+/**
+ * A strategy that can evaluate each of the moves available from the root of a search separately,
+ * so that the root moves of a search can be split between many threads by {@link ParallelRootStrat}.
+ *
+ * @author Paddy Lamont, 22494652
+ */
+public interface RootMoveEvaluator {
+
+  /**
+   * Evaluates one of the moves available from the root of a search. The move is made
+   * and unmade on {@param state}, so it is unchanged once this returns.
+   *
+   * @param state the state to search from, which must not be shared with other threads.
+   * @param move the move to evaluate, which must be available from {@param state}.
+   * @return the utility of {@param move} for the agent whose turn it is in {@param state},
+   *         {@link MoveStrat#INSTANT_WIN_UTILITY} if the move wins instantly, or
+   *         {@link MoveStrat#NO_UTILITY} if the move should not be considered.
+   * @throws MoveStrat.SearchStoppedException if the strategy is stopped during the search, or if the deadline passes.
+   */
+  int evaluateRootMove(GameState state, Move move);
+}
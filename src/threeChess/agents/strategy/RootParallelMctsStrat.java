@@ -0,0 +1,190 @@
+package threeChess.agents.strategy;
+
+import threeChess.agents.GameLogic.GameConstants;
+import threeChess.agents.GameLogic.GameState;
+import threeChess.agents.GameLogic.Move;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Root-parallel Monte-Carlo Tree Search, where each thread searches its own independent tree
+ * using {@link MctsStrat}. Once every thread is finished, the visits of each move from the root
+ * of all the trees are summed, and the move with the most visits in total is selected.
+ *
+ * As the threads share nothing while they search, they never contend with each other,
+ * but the trees all repeat the work of searching the most promising moves.
+ *
+ * Unlike {@link ParallelRootStrat}, this uses its own threads instead of a ForkJoinPool, as every
+ * worker must run at the same time for them all to search until the deadline.
+ *
+ * @author Paddy Lamont, 22494652
+ */
+public class RootParallelMctsStrat extends MoveStrat {
+
+  /** The strategies used to search, one for each thread. **/
+  private final MctsStrat[] workers;
+  /** The states that each worker searches from. **/
+  private final GameState[] workerStates;
+  /** Runs every worker except the first, or null if it has not been started or has been released. **/
+  private ExecutorService executor;
+  /** A list used to store all of the available moves from the initial state. **/
+  private final List<Move> initialMoveList;
+  /** The total visits of each of the available moves from the initial state. **/
+  private long[] moveVisits;
+
+  /**
+   * @param threads the number of independent trees to search, each on their own thread,
+   *                including the thread that calls {@link #decideMove}.
+   * @param iterations the total number of iterations to split between the threads when there is no deadline.
+   */
+  public RootParallelMctsStrat(
+      GameConstants constants, int threads, int iterations,
+      int nodeCapacity, int playoutLength, boolean greedyPlayouts) {
+
+    if (threads <= 0)
+      throw new IllegalArgumentException("threads must be positive");
+
+    int workerIterations = Math.max(1, (iterations + threads - 1) / threads);
+    this.workers = new MctsStrat[threads];
+    this.workerStates = new GameState[threads];
+    for (int index = 0; index < threads; ++index) {
+      workers[index] = new MctsStrat(constants, workerIterations, nodeCapacity, playoutLength, greedyPlayouts);
+      workerStates[index] = new GameState(constants);
+    }
+    this.initialMoveList = new ArrayList<>(128);
+    this.moveVisits = new long[128];
+  }
+
+  /** Uses the default number of iterations, node capacity, and play out length of {@link MctsStrat}. **/
+  public RootParallelMctsStrat(GameConstants constants, int threads) {
+    this(
+        constants, threads, MctsStrat.DEFAULT_ITERATIONS,
+        MctsStrat.DEFAULT_NODE_CAPACITY, MctsStrat.DEFAULT_PLAYOUT_LENGTH, true
+    );
+  }
+
+  @Override public boolean isAnytime() {
+    return true;
+  }
+
+  @Override public long getTotalMoves() {
+    long totalMoves = 0;
+    for (MctsStrat worker : workers) {
+      totalMoves += worker.getTotalMoves();
+    }
+    return totalMoves;
+  }
+
+  @Override public void releaseThreads() {
+    if (executor != null) {
+      executor.shutdown();
+      executor = null;
+    }
+  }
+
+  /** @return the executor that runs every worker except the first, which is started if it is not running. **/
+  private ExecutorService getExecutor() {
+    if (executor == null) {
+      executor = Executors.newFixedThreadPool(workers.length - 1, runnable -> {
+        Thread thread = new Thread(runnable, "RootParallelMcts-Worker");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    return executor;
+  }
+
+  @Override public void stop() {
+    super.stop();
+    for (MoveStrat worker : workers) {
+      worker.stop();
+    }
+  }
+
+  @Override public void resume() {
+    super.resume();
+    for (MoveStrat worker : workers) {
+      worker.resume();
+    }
+  }
+
+  /** @return the number of iterations that were run by all the threads in the last call to {@link #decideMove}. **/
+  public int getIterationsRun() {
+    int iterationsRun = 0;
+    for (MctsStrat worker : workers) {
+      iterationsRun += worker.getIterationsRun();
+    }
+    return iterationsRun;
+  }
+
+  /** @return the move with the most visits in total from all of the independent trees. **/
+  @Override public Move decideMove(GameState initialState) {
+    List<Move> availableMoves = initialMoveList;
+    initialState.computeAvailableMoves(availableMoves);
+    int moveCount = availableMoves.size();
+    if (moveCount == 0)
+      return null;
+    if (moveVisits.length < moveCount) {
+      moveVisits = new long[Math.max(moveCount, 2 * moveVisits.length)];
+    }
+
+    // Search the independent trees, with the first worker running on this thread.
+    long deadlineNanos = getDeadlineNanos();
+    for (int index = 0; index < workers.length; ++index) {
+      workers[index].setDeadline(deadlineNanos);
+      workerStates[index].copyFrom(initialState);
+    }
+    List<Future<?>> futures = new ArrayList<>(workers.length - 1);
+    try {
+      for (int index = 1; index < workers.length; ++index) {
+        int workerIndex = index;
+        futures.add(getExecutor().submit(() -> runWorker(workerIndex)));
+      }
+      runWorker(0);
+    } finally {
+      for (Future<?> future : futures) {
+        try {
+          future.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+          throw new RuntimeException("Exception in MCTS worker thread", e.getCause());
+        }
+      }
+    }
+    checkStopped();
+
+    // Merge the visits of the root moves of every tree. The workers generate the root moves
+    // from the same state, so their root moves are in the same order as ours.
+    long[] moveVisits = this.moveVisits;
+    for (int index = 0; index < moveCount; ++index) {
+      moveVisits[index] = 0;
+    }
+    for (MctsStrat worker : workers) {
+      worker.addRootVisits(moveVisits);
+    }
+
+    // Select the move that has been visited the most, as its reward is the most reliable.
+    int bestIndex = 0;
+    for (int index = 1; index < moveCount; ++index) {
+      if (moveVisits[index] > moveVisits[bestIndex]) {
+        bestIndex = index;
+      }
+    }
+    return availableMoves.get(bestIndex);
+  }
+
+  /** Searches the tree of the worker at {@param index}. **/
+  private void runWorker(int index) {
+    try {
+      workers[index].decideMove(workerStates[index]);
+    } catch (SearchStoppedException e) {
+      // The search has been stopped, which is checked once all the workers are complete.
+    }
+  }
+}
@@ -0,0 +1,118 @@
+package threeChess.agents.strategy;
+
+import threeChess.agents.GameLogic;
+
+/**
+ * The settings of the depth reductions used by the alpha-beta searches that reduce the game
+ * to two sides, {@link PrincipalVariationSearchStrat}, {@link ParanoidStrat}, and
+ * {@link BestReplySearchStrat}. These are immutable, and can be randomised and mutated
+ * in the same way as the game constants so that they can be tuned by a genetic algorithm.
+ *
+ * Null-move pruning: Before searching the moves from a state, the agent whose turn it is passes
+ * their turn instead, and the state after that is searched to a reduced depth. If the agent's side
+ * is still doing so well that the other side would avoid this state, then making a move is assumed
+ * to be at least as good, and so the state is pruned without searching any of its moves.
+ *
+ * Late move reductions: Quiet moves that are ordered after the captures, the killer moves, and the
+ * first few moves are unlikely to be the best move. They are first searched to a reduced depth, and
+ * are only searched to the full depth if they look better than the best move found so far.
+ *
+ * @author Paddy Lamont, 22494652
+ */
+public final class SearchReductions {
+
+  /** Settings that do not reduce the depth of any searches. **/
+  public static final SearchReductions NONE = new SearchReductions(0, 0, 0, 0, 0);
+
+  /**
+   * Null Move Settings:
+   *  nullMoveReduction - The number of extra plies the search is reduced by after passing the turn, or 0 to disable.
+   *  nullMoveMinDepth  - The minimum remaining depth of a state to try passing the turn from.
+   */
+  public final int nullMoveReduction;
+  public final int nullMoveMinDepth;
+
+  /**
+   * Late Move Settings:
+   *  lateMoveReduction - The number of plies that late quiet moves are reduced by, or 0 to disable.
+   *  lateMoveMinDepth  - The minimum remaining depth of a state to reduce its late moves.
+   *  lateMoveMinNumber - The number of moves that are searched from each state before moves are reduced.
+   */
+  public final int lateMoveReduction;
+  public final int lateMoveMinDepth;
+  public final int lateMoveMinNumber;
+
+  public SearchReductions(
+      int nullMoveReduction, int nullMoveMinDepth,
+      int lateMoveReduction, int lateMoveMinDepth, int lateMoveMinNumber) {
+
+    if (nullMoveReduction < 0)
+      throw new IllegalArgumentException("nullMoveReduction cannot be negative");
+    if (lateMoveReduction < 0)
+      throw new IllegalArgumentException("lateMoveReduction cannot be negative");
+    if (lateMoveMinNumber < 0)
+      throw new IllegalArgumentException("lateMoveMinNumber cannot be negative");
+
+    // The reduced searches must still search at least one ply.
+    if (nullMoveReduction > 0 && nullMoveMinDepth < nullMoveReduction + 2)
+      throw new IllegalArgumentException("nullMoveMinDepth must be at least nullMoveReduction + 2");
+    if (lateMoveReduction > 0 && lateMoveMinDepth < lateMoveReduction + 2)
+      throw new IllegalArgumentException("lateMoveMinDepth must be at least lateMoveReduction + 2");
+
+    this.nullMoveReduction = nullMoveReduction;
+    this.nullMoveMinDepth = nullMoveMinDepth;
+    this.lateMoveReduction = lateMoveReduction;
+    this.lateMoveMinDepth = lateMoveMinDepth;
+    this.lateMoveMinNumber = lateMoveMinNumber;
+  }
+
+  /** @return whether the state at {@param depth} should be pruned by passing the turn. **/
+  public boolean shouldTryNullMove(int depth) {
+    return nullMoveReduction > 0 && depth >= nullMoveMinDepth;
+  }
+
+  /** @return whether the quiet move at {@param moveNumber} of the state at {@param depth} should be reduced. **/
+  public boolean shouldReduceLateMove(int depth, int moveNumber) {
+    return lateMoveReduction > 0 && depth >= lateMoveMinDepth && moveNumber >= lateMoveMinNumber;
+  }
+
+  /**
+   * @return the default search reductions, which only reduce late moves. Passing the turn is not a
+   *         reliable bound in a three-player game, as the agent after the one that passes can take
+   *         advantage of it, and with null-move pruning the agents were found to play worse in
+   *         equal time games even though they searched more than a ply deeper.
+   */
+  public static SearchReductions createDefault() {
+    return new SearchReductions(0, 0, 1, 3, 8);
+  }
+
+  /** @return a random set of search reductions. **/
+  public static SearchReductions createRandom() {
+    int nullMoveReduction = (int) Math.round(GameLogic.rand(0, 3));
+    int lateMoveReduction = (int) Math.round(GameLogic.rand(0, 2));
+    return new SearchReductions(
+        nullMoveReduction, nullMoveReduction + 2 + (int) Math.round(GameLogic.rand(0, 2)),
+        lateMoveReduction, lateMoveReduction + 2 + (int) Math.round(GameLogic.rand(0, 2)),
+        (int) Math.round(GameLogic.rand(1, 12))
+    );
+  }
+
+  /** @return a new set of search reductions that is randomly selected between one and two. **/
+  public static SearchReductions mutate(SearchReductions one, SearchReductions two) {
+    int nullMoveReduction = (int) Math.round(GameLogic.mix(one.nullMoveReduction, two.nullMoveReduction));
+    int lateMoveReduction = (int) Math.round(GameLogic.mix(one.lateMoveReduction, two.lateMoveReduction));
+    int nullMoveMinDepth = (int) Math.round(GameLogic.mix(one.nullMoveMinDepth, two.nullMoveMinDepth));
+    int lateMoveMinDepth = (int) Math.round(GameLogic.mix(one.lateMoveMinDepth, two.lateMoveMinDepth));
+    return new SearchReductions(
+        nullMoveReduction, Math.max(nullMoveReduction + 2, nullMoveMinDepth),
+        lateMoveReduction, Math.max(lateMoveReduction + 2, lateMoveMinDepth),
+        (int) Math.round(GameLogic.mix(one.lateMoveMinNumber, two.lateMoveMinNumber))
+    );
+  }
+
+  @Override public String toString() {
+    return "SearchReductions(null move: R=" + nullMoveReduction + ", depth>=" + nullMoveMinDepth
+        + ", late moves: R=" + lateMoveReduction + ", depth>=" + lateMoveMinDepth
+        + ", move>=" + lateMoveMinNumber + ")";
+  }
+}
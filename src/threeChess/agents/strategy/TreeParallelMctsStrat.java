@@ -0,0 +1,452 @@
+package threeChess.agents.strategy;
+
+import threeChess.agents.GameLogic.GameConstants;
+import threeChess.agents.GameLogic.GameState;
+import threeChess.agents.GameLogic.Move;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Tree-parallel Monte-Carlo Tree Search, where many threads run the iterations of {@link MctsStrat}
+ * on one shared tree. The statistics of the nodes are packed into atomic longs, so that they can be
+ * updated by many threads without locking.
+ *
+ * While a thread is running an iteration through a node, that node is given a virtual loss, which
+ * counts as a visit with no reward until the iteration completes. This makes the node look worse to
+ * the other threads, so that they spread out to search different parts of the tree instead of all
+ * following the same path.
+ *
+ * @author Paddy Lamont, 22494652
+ */
+public class TreeParallelMctsStrat extends MoveStrat {
+
+  /** Marks a node whose children are being generated, or that could not be expanded as the tree is full. **/
+  private static final int EXPANDING = -2;
+
+  /**
+   * Node Stats Longs:
+   *  0 - The visits and virtual losses of the node.
+   *  1 - The total rewards of the first and second colours in quarters, in the low and high 32 bits.
+   *      The rewards of every iteration sum to 6 quarters, so the reward of the third colour is
+   *      6 * visits minus the rewards of the other two colours.
+   *
+   * Visit Bits:
+   *  ... V V V V V V V V L L L L L L L L L L L L L L L L L L L L
+   *
+   * V - The number of completed iterations that have passed through the node.
+   * L - The number of iterations that are currently passing through the node, which each count as a loss.
+   */
+  private static final int STATS_LONGS = 2;
+  private static final int VIRTUAL_LOSS_BITS = 20;
+  private static final long VIRTUAL_LOSS_MASK = (1L << VIRTUAL_LOSS_BITS) - 1;
+  /** Added to the visit long of a node when an iteration passes through it. **/
+  private static final long VIRTUAL_LOSS = 1;
+  /** Added to the visit long of a node when an iteration through it completes, removing its virtual loss. **/
+  private static final long COMPLETED_VISIT = (1L << VIRTUAL_LOSS_BITS) - VIRTUAL_LOSS;
+
+  /** The number of iterations to search for when there is no deadline. **/
+  protected final int iterations;
+  /** The maximum number of nodes in the tree, after which the tree is no longer expanded. **/
+  protected final int nodeCapacity;
+  /** The number of moves to play out from each new node before evaluating the state. **/
+  protected final int playoutLength;
+  /** Whether the play outs take the most valuable capture available, instead of only random moves. **/
+  protected final boolean greedyPlayouts;
+
+  /** A list used to store all of the available moves from the initial state. **/
+  protected final List<Move> initialMoveList;
+  /** The threads that share the tree, the first of which is run on the thread that calls {@link #decideMove}. **/
+  private final Worker[] workers;
+  /** Runs every worker except the first, or null if it has not been started or has been released. **/
+  private ExecutorService executor;
+
+  /**
+   * Node Arrays:
+   *  nodeMoves       - The packed move that leads to the node from its parent.
+   *  nodeFirstChild  - The index of the node's first child, UNEXPANDED, or EXPANDING. Children are stored
+   *                    contiguously, and are published to other threads by setting this.
+   *  nodeChildCount  - The number of children of the node, set before the children are published.
+   *  nodeStats       - The packed statistics of the node, at index node * STATS_LONGS.
+   *
+   * These are only allocated once the strategy is first used, as AgentBrutus creates many instances.
+   */
+  private int[] nodeMoves;
+  private AtomicIntegerArray nodeFirstChild;
+  private int[] nodeChildCount;
+  private AtomicLongArray nodeStats;
+  /** The number of nodes in the tree. **/
+  private final AtomicInteger nodeCount = new AtomicInteger();
+  /** The number of iterations that have been started, used when there is no deadline. **/
+  private final AtomicInteger iterationsStarted = new AtomicInteger();
+
+  /**
+   * @param threads the number of threads to search the tree with, including the thread that calls {@link #decideMove}.
+   */
+  public TreeParallelMctsStrat(
+      GameConstants constants, int threads, int iterations,
+      int nodeCapacity, int playoutLength, boolean greedyPlayouts) {
+
+    if (threads <= 0)
+      throw new IllegalArgumentException("threads must be positive");
+    if (iterations <= 0)
+      throw new IllegalArgumentException("iterations must be positive");
+    if (nodeCapacity <= GameConstants.maxAvailableMoves)
+      throw new IllegalArgumentException("nodeCapacity must be greater than the maximum available moves");
+
+    this.iterations = iterations;
+    this.nodeCapacity = nodeCapacity;
+    this.playoutLength = playoutLength;
+    this.greedyPlayouts = greedyPlayouts;
+    this.initialMoveList = new ArrayList<>(128);
+    this.workers = new Worker[threads];
+    for (int index = 0; index < threads; ++index) {
+      workers[index] = new Worker(constants, index);
+    }
+  }
+
+  /** Uses the default number of iterations, node capacity, and play out length of {@link MctsStrat}. **/
+  public TreeParallelMctsStrat(GameConstants constants, int threads) {
+    this(
+        constants, threads, MctsStrat.DEFAULT_ITERATIONS,
+        MctsStrat.DEFAULT_NODE_CAPACITY, MctsStrat.DEFAULT_PLAYOUT_LENGTH, true
+    );
+  }
+
+  @Override public boolean isAnytime() {
+    return true;
+  }
+
+  @Override public long getTotalMoves() {
+    long totalMoves = 0;
+    for (Worker worker : workers) {
+      totalMoves += worker.state.totalMoves;
+    }
+    return totalMoves;
+  }
+
+  @Override public void releaseThreads() {
+    if (executor != null) {
+      executor.shutdown();
+      executor = null;
+    }
+  }
+
+  /** @return the executor that runs every worker except the first, which is started if it is not running. **/
+  private ExecutorService getExecutor() {
+    if (executor == null) {
+      executor = Executors.newFixedThreadPool(workers.length - 1, runnable -> {
+        Thread thread = new Thread(runnable, "TreeParallelMcts-Worker");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    return executor;
+  }
+
+  /** @return the number of iterations that were run by all the threads in the last call to {@link #decideMove}. **/
+  public int getIterationsRun() {
+    int iterationsRun = 0;
+    for (Worker worker : workers) {
+      iterationsRun += worker.iterationsRun;
+    }
+    return iterationsRun;
+  }
+
+  /** @return the most visited move from the initial state after searching using MCTS on many threads. **/
+  @Override public Move decideMove(GameState initialState) {
+    if (nodeMoves == null) {
+      allocateNodes();
+    }
+
+    // Create the root node, and expand it using the moves in the initial move list.
+    List<Move> availableMoves = initialMoveList;
+    initialState.computeAvailableMoves(availableMoves);
+    int moveCount = availableMoves.size();
+    if (moveCount == 0)
+      return null;
+
+    nodeCount.set(0);
+    int root = allocateNode(0);
+    for (Move move : availableMoves) {
+      allocateNode(move.packed);
+    }
+    nodeChildCount[root] = moveCount;
+    nodeFirstChild.set(root, root + 1);
+
+    // Run the workers, with the first worker running on this thread.
+    iterationsStarted.set(0);
+    for (Worker worker : workers) {
+      worker.state.copyFrom(initialState);
+      worker.iterationsRun = 0;
+    }
+    List<Future<?>> futures = new ArrayList<>(workers.length - 1);
+    try {
+      for (int index = 1; index < workers.length; ++index) {
+        Worker worker = workers[index];
+        futures.add(getExecutor().submit(() -> worker.run(root)));
+      }
+      workers[0].run(root);
+    } finally {
+      for (Future<?> future : futures) {
+        try {
+          future.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+          throw new RuntimeException("Exception in MCTS worker thread", e.getCause());
+        }
+      }
+    }
+    checkStopped();
+
+    // Select the move that has been visited the most, as its reward is the most reliable.
+    int bestIndex = 0;
+    long bestVisits = -1;
+    for (int index = 0; index < moveCount; ++index) {
+      long visits = nodeStats.get((root + 1 + index) * STATS_LONGS) >>> VIRTUAL_LOSS_BITS;
+      if (visits > bestVisits) {
+        bestVisits = visits;
+        bestIndex = index;
+      }
+    }
+    return availableMoves.get(bestIndex);
+  }
+
+  /** Allocates the arrays used to store the nodes of the tree. **/
+  private void allocateNodes() {
+    nodeMoves = new int[nodeCapacity];
+    nodeFirstChild = new AtomicIntegerArray(nodeCapacity);
+    nodeChildCount = new int[nodeCapacity];
+    nodeStats = new AtomicLongArray(nodeCapacity * STATS_LONGS);
+  }
+
+  /** @return the index of a new unexpanded node, reached using the packed {@param move}. Only used before the workers start. **/
+  private int allocateNode(int move) {
+    int node = nodeCount.getAndIncrement();
+    initialiseNode(node, move);
+    return node;
+  }
+
+  /** Resets the node at index {@param node}, before it is published to other threads. **/
+  private void initialiseNode(int node, int move) {
+    nodeMoves[node] = move;
+    nodeChildCount[node] = 0;
+    nodeFirstChild.setPlain(node, MctsStrat.UNEXPANDED);
+    nodeStats.setPlain(node * STATS_LONGS, 0);
+    nodeStats.setPlain(node * STATS_LONGS + 1, 0);
+  }
+
+  /** One of the threads that runs iterations on the shared tree. **/
+  private final class Worker {
+
+    /** The state that this worker makes and unmakes moves on. **/
+    private final GameState state;
+    /** The buffer used to generate moves for expansions and play outs. **/
+    private final int[] moveBuffer = new int[GameConstants.maxAvailableMoves];
+    /** The undo records for the moves made in the current iteration, from the tree and then the play out. **/
+    private long[] undoRecords = new long[64];
+    /** The moves made in the current iteration, from the tree and then the play out. **/
+    private int[] madeMoves = new int[64];
+    /** The nodes visited in the current iteration, starting at the root. **/
+    private int[] path = new int[64];
+    /** The state of the xorshift random number generator used by this worker. **/
+    private long randomState;
+    /** The number of iterations this worker ran in the last search. **/
+    private int iterationsRun;
+
+    private Worker(GameConstants constants, int index) {
+      this.state = new GameState(constants);
+      this.randomState = (System.nanoTime() ^ (index * 0x9E3779B97F4A7C15L)) | 1;
+    }
+
+    /** Runs iterations from the {@param root} node until the deadline, or until enough iterations have started. **/
+    private void run(int root) {
+      long deadlineNanos = getDeadlineNanos();
+      try {
+        for (int iteration = 0; ; ++iteration) {
+          if (deadlineNanos != 0) {
+            if (iteration % MctsStrat.DEADLINE_CHECK_INTERVAL == 0 && iteration > 0 && System.nanoTime() >= deadlineNanos)
+              break;
+          } else if (iterationsStarted.getAndIncrement() >= iterations)
+            break;
+
+          // Abort the search if this strategy has been stopped.
+          checkStopped();
+          runIteration(root);
+          iterationsRun += 1;
+        }
+      } catch (SearchStoppedException e) {
+        // The search has been stopped, which is checked once all the workers are complete.
+      }
+    }
+
+    /** Runs one iteration of selection, expansion, play out, and back-propagation from the {@param root} node. **/
+    private void runIteration(int root) {
+      // We pre-cache these fields to avoid reading them many times.
+      GameState state = this.state;
+      AtomicIntegerArray nodeFirstChild = TreeParallelMctsStrat.this.nodeFirstChild;
+      AtomicLongArray nodeStats = TreeParallelMctsStrat.this.nodeStats;
+
+      // Selection. Walk down the tree until reaching a node that has not been expanded, or that ends the game.
+      int node = root;
+      int pathLength = 0;
+      int movesMade = 0;
+      path[pathLength++] = node;
+      nodeStats.getAndAdd(node * STATS_LONGS, VIRTUAL_LOSS);
+      while (state.gameOverPacked == 0) {
+        int firstChild = nodeFirstChild.get(node);
+        if (firstChild < 0 || nodeChildCount[node] == 0)
+          break;
+
+        node = selectChild(node, firstChild, state.turnColour);
+        nodeStats.getAndAdd(node * STATS_LONGS, VIRTUAL_LOSS);
+        ensurePathCapacity(pathLength + 1);
+        path[pathLength++] = node;
+        movesMade = makeMove(nodeMoves[node], movesMade);
+      }
+
+      // Expansion. We only expand nodes once they have been visited before, to save on nodes.
+      if (state.gameOverPacked == 0
+          && nodeFirstChild.get(node) == MctsStrat.UNEXPANDED
+          && (nodeStats.get(node * STATS_LONGS) >>> VIRTUAL_LOSS_BITS) > 0
+          && expand(node)) {
+
+        int childCount = nodeChildCount[node];
+        if (childCount > 0) {
+          node = nodeFirstChild.get(node) + (int) (nextRandom() % childCount);
+          nodeStats.getAndAdd(node * STATS_LONGS, VIRTUAL_LOSS);
+          ensurePathCapacity(pathLength + 1);
+          path[pathLength++] = node;
+          movesMade = makeMove(nodeMoves[node], movesMade);
+        }
+      }
+
+      // Play out the rest of the game from the new node, and find the reward of the resulting state.
+      for (int move = 0; move < playoutLength && state.gameOverPacked == 0; ++move) {
+        int playoutMove = MctsStrat.selectPlayoutMove(state, moveBuffer, greedyPlayouts, nextRandom());
+        if (playoutMove == 0)
+          break;
+        movesMade = makeMove(playoutMove, movesMade);
+      }
+      int reward = MctsStrat.calculateReward(state);
+
+      // Return the state to the root.
+      while (movesMade > 0) {
+        movesMade -= 1;
+        state.unmakeMove(madeMoves[movesMade], undoRecords[movesMade]);
+      }
+
+      // Back-propagation. Add the reward to every node on the path, and remove their virtual losses.
+      long packedReward = (reward & 255) | (long) ((reward >> 8) & 255) << 32;
+      for (int index = 0; index < pathLength; ++index) {
+        int statsIndex = path[index] * STATS_LONGS;
+        nodeStats.getAndAdd(statsIndex, COMPLETED_VISIT);
+        if (packedReward != 0) {
+          nodeStats.getAndAdd(statsIndex + 1, packedReward);
+        }
+      }
+    }
+
+    /**
+     * @return the child of {@param node} with the greatest UCT value for the agent of colour {@param colour},
+     *         counting virtual losses as visits with no reward.
+     */
+    private int selectChild(int node, int firstChild, int colour) {
+      // We pre-cache these fields to avoid reading them many times.
+      AtomicLongArray nodeStats = TreeParallelMctsStrat.this.nodeStats;
+      int lastChild = firstChild + nodeChildCount[node];
+      long parentVisits = nodeStats.get(node * STATS_LONGS);
+      double logParentVisits = Math.log(Math.max(1, (parentVisits >>> VIRTUAL_LOSS_BITS) + (parentVisits & VIRTUAL_LOSS_MASK)));
+
+      int bestChild = firstChild;
+      double bestValue = Double.NEGATIVE_INFINITY;
+      for (int child = firstChild; child < lastChild; ++child) {
+        long childVisits = nodeStats.get(child * STATS_LONGS);
+        long visits = childVisits >>> VIRTUAL_LOSS_BITS;
+        long effectiveVisits = visits + (childVisits & VIRTUAL_LOSS_MASK);
+        // Always try moves that have not been visited first.
+        if (effectiveVisits == 0)
+          return child;
+
+        long rewards = nodeStats.get(child * STATS_LONGS + 1);
+        long reward;
+        if (colour == 0) {
+          reward = rewards & 0xFFFFFFFFL;
+        } else if (colour == 1) {
+          reward = rewards >>> 32;
+        } else {
+          reward = 6 * visits - (rewards & 0xFFFFFFFFL) - (rewards >>> 32);
+        }
+        double value = 0.25 * reward / effectiveVisits + MctsStrat.EXPLORATION * Math.sqrt(logParentVisits / effectiveVisits);
+        if (value > bestValue) {
+          bestValue = value;
+          bestChild = child;
+        }
+      }
+      return bestChild;
+    }
+
+    /**
+     * Generates the children of {@param node} from the moves available in our state, unless another thread is already
+     * expanding it. The children are initialised before they are published, so other threads never see them partially.
+     *
+     * @return whether this worker expanded the node.
+     */
+    private boolean expand(int node) {
+      if (!nodeFirstChild.compareAndSet(node, MctsStrat.UNEXPANDED, EXPANDING))
+        return false;
+
+      // If there is not enough room left in the tree, the node is left marked as expanding so it is never expanded.
+      int[] moves = moveBuffer;
+      int moveCount = state.computeAvailableMoves(moves);
+      if (nodeCount.get() + moveCount > nodeCapacity)
+        return false;
+      int firstChild = nodeCount.getAndAdd(moveCount);
+      if (firstChild + moveCount > nodeCapacity)
+        return false;
+
+      for (int index = 0; index < moveCount; ++index) {
+        initialiseNode(firstChild + index, moves[index]);
+      }
+      nodeChildCount[node] = moveCount;
+      nodeFirstChild.set(node, firstChild);
+      return true;
+    }
+
+    /**
+     * Makes the packed {@param move} on our state, recording it so that it can be unmade at the end of the iteration.
+     * @return the number of moves that have been made in this iteration.
+     */
+    private int makeMove(int move, int movesMade) {
+      if (movesMade == madeMoves.length) {
+        madeMoves = Arrays.copyOf(madeMoves, 2 * madeMoves.length);
+        undoRecords = Arrays.copyOf(undoRecords, 2 * undoRecords.length);
+      }
+      madeMoves[movesMade] = move;
+      undoRecords[movesMade] = state.makeMove(move);
+      return movesMade + 1;
+    }
+
+    /** Makes sure that {@link #path} can hold at least {@param length} nodes. **/
+    private void ensurePathCapacity(int length) {
+      if (length > path.length) {
+        path = Arrays.copyOf(path, Math.max(length, 2 * path.length));
+      }
+    }
+
+    /** @return a non-negative random number. **/
+    private long nextRandom() {
+      randomState = MctsStrat.xorshift(randomState);
+      return randomState >>> 1;
+    }
+  }
+}